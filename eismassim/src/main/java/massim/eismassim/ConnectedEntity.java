@@ -5,6 +5,13 @@ import eis.exceptions.ActException;
 import eis.exceptions.PerceiveException;
 import eis.iilang.Action;
 import eis.iilang.Percept;
+import massim.protocol.io.BinaryReader;
+import massim.protocol.io.DeflateFrameDecoder;
+import massim.protocol.io.FrameDecoder;
+import massim.protocol.io.FrameEncoder;
+import massim.protocol.io.JsonReader;
+import massim.protocol.io.LengthFrameDecoder;
+import massim.protocol.io.UnixDomainSockets;
 import massim.protocol.messages.*;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -37,12 +44,19 @@ public abstract class ConnectedEntity extends Entity {
     private final int port;
     private boolean useJSON = false;
     private boolean useIILang = false;
+    private boolean useCompression = false;
+    private boolean useBinary = false;
+    private boolean useDeltaPercepts = false;
 
     private boolean connected = false;
     private boolean connecting = false;
-    private Socket socket;
+    private Closeable socket;
     private InputStream in;
     private OutputStream out;
+    private final FrameDecoder frames = new FrameDecoder();
+    private LengthFrameDecoder lengthFrames; // if the server compresses its messages or uses the binary format
+    private boolean binaryMessages;
+    private final FrameEncoder encoder = new FrameEncoder();
 
     private final Set<Percept> simStartPercepts = new HashSet<>();
     private final Set<Percept> previousSimStartPercepts = new HashSet<>();
@@ -81,6 +95,18 @@ public abstract class ConnectedEntity extends Entity {
      */
     protected abstract Collection<Percept> requestActionToIIL(RequestActionMessage message);
 
+    /**
+     * Updates the percepts of the previous request-action message with a delta percept (which are only sent if
+     * the entity asked for them), so that they do not have to be built again completely.
+     * @param percepts the percepts derived from the previous request-action message, to be updated in place
+     * @param message the request-action message
+     * @param previousId the id of the previous request-action message
+     * @return false if the message is a complete one, which has to be mapped with {@link #requestActionToIIL}
+     */
+    protected boolean updateRequestActionIIL(Set<Percept> percepts, RequestActionMessage message, long previousId) {
+        return false;
+    }
+
     /**
      * Maps the sim-end-message to IILang.
      * @param endPercept the sim-end percept to map
@@ -144,14 +170,34 @@ public abstract class ConnectedEntity extends Entity {
         useIILang = true;
     }
 
+    /**
+     * Asks the server to compress its messages.
+     */
+    void enableCompression() {
+        useCompression = true;
+    }
+
+    /**
+     * Asks the server to send its messages in the compact binary format.
+     */
+    void enableBinary() {
+        useBinary = true;
+    }
+
+    /**
+     * Asks the server to send only the changes of the step percepts (with a complete percept every now and then).
+     */
+    void enableDeltaPercepts() {
+        useDeltaPercepts = true;
+    }
+
     @Override
     public void run() {
 
         new Thread(() -> {
             while (connected) {
                 try {
-                    var json = receiveMessage();
-                    var msg = Message.buildFromJson(json);
+                    var msg = receiveMessage();
                     if (msg != null)
                         inbox.add(msg);
                 } catch (IOException e) {
@@ -182,9 +228,11 @@ public abstract class ConnectedEntity extends Entity {
         }
         else if (msg instanceof RequestActionMessage) {
             RequestActionMessage rac = (RequestActionMessage) msg;
-            requestActionPercepts.clear();
-            requestActionPercepts.add(new Percept("requestAction"));
-            requestActionPercepts.addAll(requestActionToIIL(rac));
+            if (!updateRequestActionIIL(requestActionPercepts, rac, currentActionId)) {
+                requestActionPercepts.clear();
+                requestActionPercepts.add(new Percept("requestAction"));
+                requestActionPercepts.addAll(requestActionToIIL(rac));
+            }
 
             currentActionId = rac.getId();
 
@@ -322,9 +370,22 @@ public abstract class ConnectedEntity extends Entity {
         if (connecting) return;
         connecting = true;
         try {
-            socket = new Socket(host, port);
-            in = socket.getInputStream();
-            out = socket.getOutputStream();
+            if (UnixDomainSockets.isUnixHost(host)) {
+                // the server runs on the same host
+                var channel = UnixDomainSockets.connect(UnixDomainSockets.path(host));
+                socket = channel;
+                in = UnixDomainSockets.inputStream(channel);
+                out = UnixDomainSockets.outputStream(channel);
+            }
+            else {
+                var tcpSocket = new Socket(host, port);
+                socket = tcpSocket;
+                in = tcpSocket.getInputStream();
+                out = tcpSocket.getOutputStream();
+            }
+            frames.reset();
+            lengthFrames = null;
+            binaryMessages = false;
 
             log("socket successfully created");
 
@@ -358,7 +419,10 @@ public abstract class ConnectedEntity extends Entity {
      */
     private boolean authenticate() {
 
-        Message authReq = new AuthRequestMessage(username, password);
+        Message authReq = new AuthRequestMessage(username, password,
+                useCompression? AuthRequestMessage.COMPRESSION_DEFLATE : null,
+                useBinary? AuthRequestMessage.PROTOCOL_BINARY : AuthRequestMessage.PROTOCOL_JSON,
+                useDeltaPercepts? AuthRequestMessage.PERCEPTS_DELTA : null);
         try {
             sendMessage(authReq.toJson());
         } catch (IOException e) {
@@ -366,18 +430,25 @@ public abstract class ConnectedEntity extends Entity {
             return false;
         }
 
-        JSONObject jsonResponse;
+        Message responseMsg;
         try {
-            jsonResponse = receiveMessage();
+            responseMsg = receiveMessage();
         }
         catch (IOException e) {
             e.printStackTrace();
             return false;
         }
-        Message responseMsg = Message.buildFromJson(jsonResponse);
 
         if (responseMsg instanceof AuthResponseMessage) {
             AuthResponseMessage authResponse = (AuthResponseMessage) responseMsg;
+            binaryMessages = authResponse.getProtocol() == AuthRequestMessage.PROTOCOL_BINARY;
+            // everything after the response is framed differently, including what might have been read already
+            if (AuthRequestMessage.COMPRESSION_DEFLATE.equals(authResponse.getCompression())) {
+                lengthFrames = new DeflateFrameDecoder(frames.takeBuffered());
+                log("compression enabled");
+            }
+            else if (binaryMessages) lengthFrames = new LengthFrameDecoder(frames.takeBuffered());
+            if (binaryMessages) log("binary format enabled");
             return authResponse.getResult().equals(AuthResponseMessage.OK);
         }
         return false;
@@ -415,32 +486,44 @@ public abstract class ConnectedEntity extends Entity {
      * @throws IOException if the document could not be sent
      */
     private void sendMessage(JSONObject json) throws IOException {
-        OutputStreamWriter osw = new OutputStreamWriter(out, StandardCharsets.UTF_8);
-        osw.write(json.toString());
-        osw.write(0);
-        osw.flush();
+        synchronized (encoder) {
+            encoder.write(json, out);
+        }
         if (useJSON) log(json.toString(3) + "\tsent");
     }
 
     /**
-     * Receives a document from the server,
-     * @return the received document.
+     * Receives a message from the server and decodes it directly from the received bytes.
+     * @return the received message or null if it could not be decoded
      * @throws IOException if no message could be received
      */
-    private JSONObject receiveMessage() throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        int read;
-        while ((read = in.read()) != 0) {
-            if (read == -1) throw new IOException();
-            buffer.write(read);
+    private Message receiveMessage() throws IOException {
+        byte[] buffer;
+        int offset, length;
+        if (lengthFrames != null) {
+            if (!lengthFrames.readFrame(in)) throw new IOException();
+            buffer = lengthFrames.buffer();
+            offset = lengthFrames.frameOffset();
+            length = lengthFrames.frameLength();
+        }
+        else {
+            if (!frames.readFrame(in)) throw new IOException();
+            buffer = frames.buffer();
+            offset = frames.frameOffset();
+            length = frames.frameLength();
         }
-        String message = buffer.toString(StandardCharsets.UTF_8);
         try {
-            JSONObject json = new JSONObject(message);
-            if (useJSON) log(json.toString(3) + "\treceived");
-            return json;
+            if (binaryMessages) {
+                var message = Message.readFrom(new BinaryReader(buffer, offset, length));
+                if (useJSON && message != null) log(message.toJson().toString(3) + "\treceived");
+                return message;
+            }
+            if (useJSON) log(new JSONObject(new String(buffer, offset, length, StandardCharsets.UTF_8)).toString(3)
+                    + "\treceived");
+            return Message.readFrom(new JsonReader(buffer, offset, length));
         } catch(JSONException e){
-            log("Invalid object: " + message);
+            if (binaryMessages) log("Invalid binary message of " + length + " bytes: " + e.getMessage());
+            else log("Invalid object: " + new String(buffer, offset, length, StandardCharsets.UTF_8));
         }
         return null;
     }
@@ -2,6 +2,9 @@ package massim.eismassim.entities;
 
 import eis.iilang.*;
 import massim.eismassim.ConnectedEntity;
+import massim.protocol.data.Position;
+import massim.protocol.data.TaskInfo;
+import massim.protocol.data.Thing;
 import massim.protocol.messages.ActionMessage;
 import massim.protocol.messages.RequestActionMessage;
 import massim.protocol.messages.SimEndMessage;
@@ -17,6 +20,13 @@ import java.util.*;
  */
 public class ScenarioEntity extends ConnectedEntity {
 
+    /** the names of the percepts that are replaced in each step */
+    private static final Set<String> STEP_PERCEPTS = Set.of("actionID", "timestamp", "deadline", "step",
+            "lastAction", "lastActionResult", "lastActionParams");
+
+    /** whether a delta percept could not be applied, so that all deltas are ignored until a complete percept arrives */
+    private boolean desynchronized;
+
     public ScenarioEntity(String name, String host, int port, String username, String password) {
         super(name, host, port, username, password);
     }
@@ -43,37 +53,17 @@ public class ScenarioEntity extends ConnectedEntity {
         if(!(message instanceof StepPercept)) return ret; // percept incompatible with entity
         var percept = (StepPercept) message;
 
-        ret.add(new Percept("actionID", new Numeral(percept.getId())));
-        ret.add(new Percept("timestamp", new Numeral(percept.getTime())));
-        ret.add(new Percept("deadline", new Numeral(percept.getDeadline())));
-
-        ret.add(new Percept("step", new Numeral(percept.getStep())));
-
-        ret.add(new Percept("lastAction", new Identifier(percept.lastAction)));
-        ret.add(new Percept("lastActionResult", new Identifier(percept.lastActionResult)));
-        var params = new ParameterList();
-        percept.lastActionParams.forEach(p -> params.add(new Identifier(p)));
-        ret.add(new Percept("lastActionParams", params));
+        addStepPercepts(ret, percept);
         ret.add(new Percept("score", new Numeral(percept.score)));
 
-        percept.things.forEach(thing -> ret.add(new Percept("thing",
-                new Numeral(thing.x), new Numeral(thing.y), new Identifier(thing.type), new Identifier(thing.details))));
-
-        percept.taskInfo.forEach(task -> {
-            var reqs = new ParameterList();
-            for(var req : task.requirements) {
-                reqs.add(new Function("req", new Numeral(req.x), new Numeral(req.y),
-                        new Identifier(req.type)));
-            }
-            ret.add(new Percept("task", new Identifier(task.name), new Numeral(task.deadline), new Numeral(task.reward), reqs));
-        });
+        percept.things.forEach(thing -> ret.add(thingPercept(thing)));
+        percept.taskInfo.forEach(task -> ret.add(taskPercept(task)));
         if (!percept.task.equals("")) ret.add(new Percept("accepted", new Identifier(percept.task)));
 
         percept.terrain.forEach((terrain, positions) -> positions.forEach(position ->
                         ret.add(new Percept(terrain, new Numeral(position.x), new Numeral(position.y)))));
 
-        percept.attachedThings.forEach(pos -> ret.add(
-                new Percept("attached", new Numeral(pos.x), new Numeral(pos.y))));
+        percept.attachedThings.forEach(pos -> ret.add(attachedPercept(pos)));
 
         ret.add(new Percept("energy", new Numeral(percept.energy)));
         ret.add(new Percept("disabled", new Identifier(percept.disabled? "true" : "false")));
@@ -81,6 +71,87 @@ public class ScenarioEntity extends ConnectedEntity {
         return ret;
     }
 
+    @Override
+    protected boolean updateRequestActionIIL(Set<Percept> percepts, RequestActionMessage message, long previousId) {
+        if (!(message instanceof StepPercept) || !((StepPercept) message).isDelta()) {
+            desynchronized = false;
+            return false;
+        }
+        var percept = (StepPercept) message;
+        var delta = percept.getDelta();
+        if (desynchronized || delta.base != previousId || percepts.isEmpty()) {
+            // later deltas would be applied to an incomplete state
+            if (!desynchronized) log("delta percept does not match the previous percept, waiting for a complete one");
+            desynchronized = true;
+            percepts.clear();
+            percepts.add(new Percept("requestAction"));
+            addStepPercepts(percepts, percept);
+            return true;
+        }
+
+        // replace the percepts that describe the step and those that have changed
+        var replaced = new HashSet<>(STEP_PERCEPTS);
+        if (delta.hasChanged("score")) replaced.add("score");
+        if (delta.hasChanged("energy")) replaced.add("energy");
+        if (delta.hasChanged("disabled")) replaced.add("disabled");
+        if (delta.hasChanged("task")) replaced.add("accepted");
+        percepts.removeIf(p -> replaced.contains(p.getName()) || (p.getName().equals("task")
+                && delta.removedTasks.contains(((Identifier) p.getParameters().get(0)).getValue())));
+        addStepPercepts(percepts, percept);
+        if (delta.hasChanged("score")) percepts.add(new Percept("score", new Numeral(percept.score)));
+        if (delta.hasChanged("energy")) percepts.add(new Percept("energy", new Numeral(percept.energy)));
+        if (delta.hasChanged("disabled"))
+            percepts.add(new Percept("disabled", new Identifier(percept.disabled? "true" : "false")));
+        if (delta.hasChanged("task") && percept.task != null && !percept.task.equals(""))
+            percepts.add(new Percept("accepted", new Identifier(percept.task)));
+
+        delta.removedThings.forEach(thing -> percepts.remove(thingPercept(thing)));
+        delta.addedThings.forEach(thing -> percepts.add(thingPercept(thing)));
+        delta.addedTasks.forEach(task -> percepts.add(taskPercept(task)));
+        delta.removedTerrain.forEach((terrain, positions) -> positions.forEach(position ->
+                percepts.remove(new Percept(terrain, new Numeral(position.x), new Numeral(position.y)))));
+        delta.addedTerrain.forEach((terrain, positions) -> positions.forEach(position ->
+                percepts.add(new Percept(terrain, new Numeral(position.x), new Numeral(position.y)))));
+        delta.removedAttached.forEach(pos -> percepts.remove(attachedPercept(pos)));
+        delta.addedAttached.forEach(pos -> percepts.add(attachedPercept(pos)));
+        return true;
+    }
+
+    /**
+     * Adds the percepts that are different in each step.
+     */
+    private static void addStepPercepts(Set<Percept> percepts, StepPercept percept) {
+        percepts.add(new Percept("actionID", new Numeral(percept.getId())));
+        percepts.add(new Percept("timestamp", new Numeral(percept.getTime())));
+        percepts.add(new Percept("deadline", new Numeral(percept.getDeadline())));
+
+        percepts.add(new Percept("step", new Numeral(percept.getStep())));
+
+        percepts.add(new Percept("lastAction", new Identifier(percept.lastAction)));
+        percepts.add(new Percept("lastActionResult", new Identifier(percept.lastActionResult)));
+        var params = new ParameterList();
+        percept.lastActionParams.forEach(p -> params.add(new Identifier(p)));
+        percepts.add(new Percept("lastActionParams", params));
+    }
+
+    private static Percept thingPercept(Thing thing) {
+        return new Percept("thing",
+                new Numeral(thing.x), new Numeral(thing.y), new Identifier(thing.type), new Identifier(thing.details));
+    }
+
+    private static Percept taskPercept(TaskInfo task) {
+        var reqs = new ParameterList();
+        for(var req : task.requirements) {
+            reqs.add(new Function("req", new Numeral(req.x), new Numeral(req.y),
+                    new Identifier(req.type)));
+        }
+        return new Percept("task", new Identifier(task.name), new Numeral(task.deadline), new Numeral(task.reward), reqs);
+    }
+
+    private static Percept attachedPercept(Position pos) {
+        return new Percept("attached", new Numeral(pos.x), new Numeral(pos.y));
+    }
+
     @Override
     protected Collection<Percept> simEndToIIL(SimEndMessage endPercept) {
         HashSet<Percept> ret = new HashSet<>();
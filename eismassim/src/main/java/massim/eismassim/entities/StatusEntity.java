@@ -1,14 +1,12 @@
 package massim.eismassim.entities;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import eis.PerceptUpdate;
 import eis.iilang.Identifier;
@@ -17,6 +15,10 @@ import eis.iilang.ParameterList;
 import eis.iilang.Percept;
 import massim.eismassim.Entity;
 import massim.eismassim.Log;
+import massim.protocol.io.FrameDecoder;
+import massim.protocol.io.FrameEncoder;
+import massim.protocol.io.JsonReader;
+import massim.protocol.io.UnixDomainSockets;
 import massim.protocol.messages.Message;
 import massim.protocol.messages.StatusRequestMessage;
 import massim.protocol.messages.StatusResponseMessage;
@@ -36,31 +38,27 @@ public class StatusEntity extends Entity {
     }
 
     public static StatusResponseMessage queryServerStatus(String host, int port) throws IOException {
-
-        Message result;
-        try (var socket = new Socket(host, port);
-                var out = socket.getOutputStream();
-                var in = socket.getInputStream()) {
-            var statusRequest = new StatusRequestMessage();
-            var osw = new OutputStreamWriter(out, StandardCharsets.UTF_8);
-            osw.write(statusRequest.toJson().toString());
-            osw.write(0);
-            osw.flush();
-
-            var buffer = new ByteArrayOutputStream();
-            int read;
-            while ((read = in.read()) != 0) {
-                if (read == -1)
-                    throw new IOException();
-                buffer.write(read);
+        if (UnixDomainSockets.isUnixHost(host)) {
+            try (var channel = UnixDomainSockets.connect(UnixDomainSockets.path(host))) {
+                return queryServerStatus(UnixDomainSockets.outputStream(channel), UnixDomainSockets.inputStream(channel));
             }
-            String message = buffer.toString(StandardCharsets.UTF_8);
-            try {
-                result = Message.buildFromJson(new JSONObject(message));
-                if (result instanceof StatusResponseMessage)
-                    return (StatusResponseMessage) result;
-            } catch (JSONException ignored) {}
         }
+        try (var socket = new Socket(host, port)) {
+            return queryServerStatus(socket.getOutputStream(), socket.getInputStream());
+        }
+    }
+
+    private static StatusResponseMessage queryServerStatus(OutputStream out, InputStream in) throws IOException {
+        new FrameEncoder(256).write(new StatusRequestMessage(), out);
+
+        var frames = new FrameDecoder();
+        if (!frames.readFrame(in))
+            throw new IOException();
+        try {
+            var result = Message.readFrom(new JsonReader(frames.buffer(), frames.frameOffset(), frames.frameLength()));
+            if (result instanceof StatusResponseMessage)
+                return (StatusResponseMessage) result;
+        } catch (JSONException ignored) {}
         return null;
     }
 
@@ -0,0 +1,68 @@
+package massim.protocol.data;
+
+/**
+ * Immutable table of the offsets of all cells within a given (manhattan) radius around a center,
+ * i.e. the "diamond" used for vision and area effects. Tables are computed once per radius and shared.
+ * The offsets are ordered like the positions returned by {@link Position#spanArea(int)}.
+ */
+public final class AreaOffsets {
+
+    private static final AreaOffsets EMPTY = new AreaOffsets(new int[0], new int[0]);
+
+    private static volatile AreaOffsets[] cache = new AreaOffsets[0];
+
+    private final int[] dx;
+    private final int[] dy;
+
+    private AreaOffsets(int[] dx, int[] dy) {
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    /**
+     * @return the (shared) offset table for the given radius
+     */
+    public static AreaOffsets ofRadius(int radius) {
+        if (radius < 0) return EMPTY;
+        var tables = cache;
+        if (radius < tables.length && tables[radius] != null) return tables[radius];
+        return create(radius);
+    }
+
+    private static synchronized AreaOffsets create(int radius) {
+        var tables = cache;
+        if (radius < tables.length && tables[radius] != null) return tables[radius];
+        var size = 2 * radius * (radius + 1) + 1;
+        var dx = new int[size];
+        var dy = new int[size];
+        var i = 0;
+        for (var x = -radius; x <= radius; x++) {
+            var maxY = radius - Math.abs(x);
+            for (var y = -maxY; y <= maxY; y++) {
+                dx[i] = x;
+                dy[i] = y;
+                i++;
+            }
+        }
+        var grown = new AreaOffsets[Math.max(tables.length, radius + 1)];
+        System.arraycopy(tables, 0, grown, 0, tables.length);
+        grown[radius] = new AreaOffsets(dx, dy);
+        cache = grown;
+        return grown[radius];
+    }
+
+    /**
+     * @return the number of cells in the area
+     */
+    public int size() {
+        return dx.length;
+    }
+
+    public int dx(int i) {
+        return dx[i];
+    }
+
+    public int dy(int i) {
+        return dy[i];
+    }
+}
@@ -3,33 +3,55 @@ package massim.protocol.data;
 import org.json.JSONArray;
 
 import java.util.ArrayList;
-import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public final class Position {
 
     private static int dimX = 0;
     private static int dimY = 0;
 
+    private static final int FLYWEIGHT_BLOCK_BITS = 10;
+    private static final int FLYWEIGHT_BLOCK_MASK = (1 << FLYWEIGHT_BLOCK_BITS) - 1;
+
+    /**
+     * Canonical instances for all positions within the grid bounds (indexed by x * dimY + y), created on first use.
+     * The table is split into blocks which are only allocated once one of their positions is requested.
+     * Blocks and instances are published with a CAS, so that concurrent callers (e.g. the percept workers)
+     * always agree on the canonical instance.
+     * Like the grid dimensions, the table is global, as positions are created everywhere without access to a grid.
+     */
+    private static volatile AtomicReferenceArray<AtomicReferenceArray<Position>> flyweights =
+            new AtomicReferenceArray<>(0);
+
     public final int x;
     public final int y;
+    private final int hash;
 
     public Position(int x, int y) {
         this.x = x;
         this.y = y;
+        this.hash = 31 * (31 + x) + y; // same as Objects.hash(x, y) without boxing
     }
 
     @Override
     public boolean equals(Object other) {
+        if (this == other) return true;
         if (!(other instanceof Position)) return false;
         return ((Position) other).x == x && ((Position) other).y == y;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(x, y);
+        return hash;
     }
 
+    /**
+     * Sets the dimensions used for wrapping and distance calculations.
+     * Also resets the table of canonical instances if the dimensions changed.
+     */
     public static void setGridDimensions(int dimX, int dimY) {
+        if (dimX != Position.dimX || dimY != Position.dimY) flyweights =
+                new AtomicReferenceArray<>((dimX * dimY + FLYWEIGHT_BLOCK_MASK) >> FLYWEIGHT_BLOCK_BITS);
         Position.dimX = dimX;
         Position.dimY = dimY;
     }
@@ -64,8 +86,30 @@ public final class Position {
         return Position.of(x, y);
     }
 
+    /**
+     * @return the canonical instance if the position is within the grid bounds, otherwise a new position
+     */
     public static Position of(int x, int y) {
-        return new Position(x, y);
+        if (x < 0 || y < 0 || x >= dimX || y >= dimY) return new Position(x, y);
+        var table = flyweights;
+        var index = x * dimY + y;
+        var b = index >> FLYWEIGHT_BLOCK_BITS;
+        if (b >= table.length()) return new Position(x, y);
+        var block = table.get(b);
+        if (block == null) {
+            var created = new AtomicReferenceArray<Position>(1 << FLYWEIGHT_BLOCK_BITS);
+            block = table.compareAndExchange(b, null, created);
+            if (block == null) block = created;
+        }
+        var i = index & FLYWEIGHT_BLOCK_MASK;
+        var pos = block.get(i);
+        // the coordinate checks also guard against the dimensions being changed concurrently
+        if (pos == null || pos.x != x || pos.y != y) {
+            var created = new Position(x, y);
+            var witness = block.compareAndExchange(i, pos, created);
+            pos = witness == pos || witness.x != x || witness.y != y? created : witness;
+        }
+        return pos;
     }
 
     @Override
@@ -104,19 +148,36 @@ public final class Position {
 
     /**
      * @return list containing all positions belonging to the area around this position within the given radius.
+     * @see #forEachInArea(int, CellVisitor) to visit the area without building a list
      */
     public ArrayList<Position> spanArea(int radius) {
-        var area = new ArrayList<Position>();
-        for (var dx = -radius; dx <= radius; dx++) {
-            var cx = x + dx;
-            var dy = radius - Math.abs(dx);
-            for (var cy = y - dy; cy <= y + dy; cy++) {
-                area.add(Position.wrapped(cx, cy));
-            }
+        var offsets = AreaOffsets.ofRadius(radius);
+        var area = new ArrayList<Position>(offsets.size());
+        for (var i = 0; i < offsets.size(); i++) {
+            area.add(Position.wrapped(x + offsets.dx(i), y + offsets.dy(i)));
         }
         return area;
     }
 
+    /**
+     * Visits the (wrapped) coordinates of all cells belonging to the area around this position within the given
+     * radius, in the same order as {@link #spanArea(int)}.
+     */
+    public void forEachInArea(int radius, CellVisitor visitor) {
+        var offsets = AreaOffsets.ofRadius(radius);
+        for (var i = 0; i < offsets.size(); i++) {
+            visitor.visit(Math.floorMod(x + offsets.dx(i), dimX), Math.floorMod(y + offsets.dy(i), dimY));
+        }
+    }
+
+    /**
+     * Receives the coordinates of a cell.
+     */
+    @FunctionalInterface
+    public interface CellVisitor {
+        void visit(int x, int y);
+    }
+
     /**
      * @return this position rotated 90 degrees in the given direction
      */
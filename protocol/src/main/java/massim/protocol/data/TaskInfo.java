@@ -1,5 +1,7 @@
 package massim.protocol.data;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -36,6 +38,17 @@ public class TaskInfo {
         return task;
     }
 
+    public void writeJson(DocumentWriter out) {
+        out.beginObject();
+        out.field("name", name);
+        out.field("deadline", deadline);
+        out.field("reward", reward);
+        out.name("requirements").beginArray();
+        for (Thing requirement : requirements) requirement.writeJson(out);
+        out.endArray();
+        out.endObject();
+    }
+
     public static TaskInfo fromJson(JSONObject jsonTask) {
         Set<Thing> requirements = new HashSet<>();
         JSONArray jsonRequirements = jsonTask.getJSONArray("requirements");
@@ -45,4 +58,27 @@ public class TaskInfo {
         return new TaskInfo(jsonTask.getString("name"), jsonTask.getInt("deadline"),
                 jsonTask.getInt("reward"), requirements);
     }
+
+    public static TaskInfo read(DocumentReader in) {
+        String name = null;
+        int deadline = 0;
+        int reward = 0;
+        Set<Thing> requirements = new HashSet<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "name": name = in.nextString(); break;
+                case "deadline": deadline = in.nextInt(); break;
+                case "reward": reward = in.nextInt(); break;
+                case "requirements":
+                    in.beginArray();
+                    while (in.hasNext()) requirements.add(Thing.read(in));
+                    in.endArray();
+                    break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        return new TaskInfo(name, deadline, reward, requirements);
+    }
 }
@@ -1,5 +1,7 @@
 package massim.protocol.data;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import org.json.JSONObject;
 
 public class Thing {
@@ -31,10 +33,35 @@ public class Thing {
         return thing;
     }
 
+    public void writeJson(DocumentWriter out) {
+        out.beginObject();
+        out.field("x", x);
+        out.field("y", y);
+        out.field("type", type);
+        out.field("details", details);
+        out.endObject();
+    }
+
     public static Thing fromJson(JSONObject jsonThing) {
         return new Thing(jsonThing.getInt("x"), jsonThing.getInt("y"), jsonThing.getString("type"), jsonThing.getString("details"));
     }
 
+    public static Thing read(DocumentReader in) {
+        var thing = new Thing(0, 0, null, null);
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "x": thing.x = in.nextInt(); break;
+                case "y": thing.y = in.nextInt(); break;
+                case "type": thing.type = in.nextString(); break;
+                case "details": thing.details = in.nextString(); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        return thing;
+    }
+
     @Override
     public String toString() {
         return String.format("Thing((%d,%d), %s, %s)", x, y, type, details);
@@ -0,0 +1,70 @@
+package massim.protocol.io;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compact binary encoding of JSON documents (protocol version 2), written by {@link BinaryWriter} and read by
+ * {@link BinaryReader}. A document is a sequence of values, each starting with a tag byte:
+ * <ul>
+ *     <li>0x00 null, 0x01 false, 0x02 true</li>
+ *     <li>0x03 integer: zigzag varint</li>
+ *     <li>0x04 other number: varint length and the number as text</li>
+ *     <li>0x05 string: varint length and UTF-8 bytes; the string is added to the string table</li>
+ *     <li>0x06 string reference: varint index into the string table</li>
+ *     <li>0x07 object: name and value pairs (names are strings), followed by 0x09</li>
+ *     <li>0x08 array: values, followed by 0x09</li>
+ *     <li>0x40 to 0x7F: reference to one of the first 64 strings of the table</li>
+ *     <li>0x80 to 0xFF: small integer (zigzag encoded in the lower 7 bits), e.g. most coordinates</li>
+ * </ul>
+ * The string table of each document starts with the {@link #PREDEFINED} strings, followed by each new string
+ * of the document in the order of appearance. Varints are unsigned LEB128.
+ */
+final class BinaryFormat {
+
+    static final int NULL = 0x00;
+    static final int FALSE = 0x01;
+    static final int TRUE = 0x02;
+    static final int INTEGER = 0x03;
+    static final int NUMBER = 0x04;
+    static final int STRING = 0x05;
+    static final int STRING_REF = 0x06;
+    static final int OBJECT = 0x07;
+    static final int ARRAY = 0x08;
+    static final int END = 0x09;
+    static final int SHORT_REF = 0x40;
+    static final int SHORT_REF_COUNT = 0x40;
+    static final int SMALL_INT = 0x80;
+    static final int SMALL_INT_COUNT = 0x80;
+
+    /**
+     * Strings every document may refer to without defining them. Only new strings may be appended,
+     * as the indices are part of the protocol.
+     */
+    static final List<String> PREDEFINED = List.of(
+            // most frequent first, to be referenced with one byte
+            "x", "y", "type", "details", "name", "things", "terrain", "tasks", "reward", "requirements",
+            "deadline", "entity", "block", "dispenser", "marker", "taskboard", "obstacle", "goal", "attached",
+            "id", "step", "time", "content", "percept", "score", "energy", "disabled", "task",
+            "lastAction", "lastActionParams", "lastActionResult", "request-action", "action", "p",
+            "n", "s", "e", "w", "cw", "ccw",
+            "move", "attach", "detach", "rotate", "connect", "request", "submit", "clear", "disconnect", "skip",
+            "accept", "no_action", "unknown_action",
+            "success", "failed", "failed_random", "failed_parameter", "failed_path", "failed_partner",
+            "failed_target", "failed_blocked", "failed_status", "failed_resources", "failed_location",
+            // less frequent
+            "unprocessed", "sim-start", "sim-end", "bye", "auth-request", "auth-response", "status-request",
+            "status-response", "user", "pw", "result", "ok", "fail", "compression", "protocol", "team",
+            "teamSize", "steps", "vision", "ranking", "teams", "teamSizes", "currentSimulation",
+            "percepts", "delta", "thingsAdded", "thingsRemoved", "tasksAdded", "tasksRemoved", "terrainAdded",
+            "terrainRemoved", "attachedAdded", "attachedRemoved");
+
+    static final Map<String, Integer> PREDEFINED_INDEX = new HashMap<>();
+
+    static {
+        for (var i = 0; i < PREDEFINED.size(); i++) PREDEFINED_INDEX.put(PREDEFINED.get(i), i);
+    }
+
+    private BinaryFormat() {}
+}
@@ -0,0 +1,250 @@
+package massim.protocol.io;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static massim.protocol.io.BinaryFormat.*;
+
+/**
+ * Pulls values one by one from documents in the compact binary encoding (see {@link BinaryFormat}).
+ * Scalar values are read as leniently as by the {@link JsonReader}.
+ */
+public class BinaryReader implements DocumentReader {
+
+    private byte[] buffer;
+    private int pos;
+    private int end;
+
+    /** the strings defined in the current document so far and where they have been defined */
+    private final List<String> strings = new ArrayList<>();
+    private int[] definedAt = new int[16];
+
+    public BinaryReader() {
+        this(new byte[0], 0, 0);
+    }
+
+    public BinaryReader(byte[] buffer, int offset, int length) {
+        reset(buffer, offset, length);
+    }
+
+    @Override
+    public BinaryReader reset(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.pos = offset;
+        this.end = offset + length;
+        strings.clear();
+        return this;
+    }
+
+    @Override
+    public int position() {
+        return pos;
+    }
+
+    /**
+     * Also forgets the strings defined after the position, as they are defined again when they are read again.
+     */
+    @Override
+    public void seek(int position) {
+        pos = position;
+        while (!strings.isEmpty() && definedAt[strings.size() - 1] >= position) strings.remove(strings.size() - 1);
+    }
+
+    @Override
+    public Token peek() {
+        var tag = tag();
+        if (tag >= SMALL_INT) return Token.NUMBER;
+        if (tag >= SHORT_REF) return Token.STRING;
+        switch (tag) {
+            case NULL: return Token.NULL;
+            case FALSE: case TRUE: return Token.BOOLEAN;
+            case INTEGER: case NUMBER: return Token.NUMBER;
+            case STRING: case STRING_REF: return Token.STRING;
+            case OBJECT: return Token.OBJECT;
+            case ARRAY: return Token.ARRAY;
+            default: throw error("Unexpected tag " + tag);
+        }
+    }
+
+    @Override
+    public void beginObject() {
+        expect(OBJECT);
+    }
+
+    @Override
+    public void endObject() {
+        expect(END);
+    }
+
+    @Override
+    public void beginArray() {
+        expect(ARRAY);
+    }
+
+    @Override
+    public void endArray() {
+        expect(END);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return tag() != END;
+    }
+
+    @Override
+    public String nextName() {
+        if (peek() != Token.STRING) throw error("Expected field name");
+        return string();
+    }
+
+    @Override
+    public String nextString() {
+        switch (peek()) {
+            case STRING: return string();
+            case NULL: pos++; return null;
+            case BOOLEAN: return Boolean.toString(nextBoolean());
+            case NUMBER: return tag() == NUMBER? numberText() : Long.toString(nextLong());
+            default: throw error("Expected string");
+        }
+    }
+
+    @Override
+    public long nextLong() {
+        var tag = tag();
+        if (tag >= SMALL_INT) {
+            pos++;
+            return unzigzag(tag - SMALL_INT);
+        }
+        switch (tag) {
+            case INTEGER: pos++; return unzigzag(varint());
+            case NUMBER: return parseLong(numberText());
+            default:
+                if (peek() == Token.STRING) return parseLong(string());
+                throw error("Expected number");
+        }
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        switch (peek()) {
+            case BOOLEAN: return buffer[pos++] == TRUE;
+            case STRING:
+                var s = string();
+                if (s.equalsIgnoreCase("true")) return true;
+                if (s.equalsIgnoreCase("false")) return false;
+                throw error("Expected boolean");
+            default: throw error("Expected boolean");
+        }
+    }
+
+    @Override
+    public void skipValue() {
+        skipValue(0);
+    }
+
+    private void skipValue(int depth) {
+        switch (peek()) {
+            case OBJECT:
+                if (depth == MAX_DEPTH) throw error("Nested too deeply");
+                pos++;
+                while (hasNext()) {
+                    nextName();
+                    skipValue(depth + 1);
+                }
+                pos++;
+                break;
+            case ARRAY:
+                if (depth == MAX_DEPTH) throw error("Nested too deeply");
+                pos++;
+                while (hasNext()) skipValue(depth + 1);
+                pos++;
+                break;
+            case STRING:
+                string(); // new strings have to be defined anyway
+                break;
+            default:
+                nextString();
+        }
+    }
+
+    private int tag() {
+        if (pos >= end) throw error("Unexpected end of input");
+        return buffer[pos] & 0xFF;
+    }
+
+    private void expect(int tag) {
+        if (tag() != tag) throw error("Expected tag " + tag);
+        pos++;
+    }
+
+    private String string() {
+        var start = pos;
+        var tag = tag();
+        pos++;
+        if (tag >= SHORT_REF) return lookup(tag - SHORT_REF);
+        if (tag == STRING_REF) return lookup(varint());
+        var length = length();
+        var s = new String(buffer, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        if (strings.size() == definedAt.length) definedAt = Arrays.copyOf(definedAt, 2 * definedAt.length);
+        definedAt[strings.size()] = start;
+        strings.add(s);
+        return s;
+    }
+
+    private String lookup(long index) {
+        if (index < 0) throw error("Unknown string " + index);
+        if (index < PREDEFINED.size()) return PREDEFINED.get((int) index);
+        var defined = index - PREDEFINED.size();
+        if (defined >= strings.size()) throw error("Unknown string " + index);
+        return strings.get((int) defined);
+    }
+
+    private String numberText() {
+        pos++;
+        var length = length();
+        var text = new String(buffer, pos, length, StandardCharsets.US_ASCII);
+        pos += length;
+        return text;
+    }
+
+    private int length() {
+        var length = varint();
+        if (length < 0 || length > end - pos) throw error("Unexpected end of input");
+        return (int) length;
+    }
+
+    private long varint() {
+        var value = 0L;
+        for (var shift = 0; shift < 64; shift += 7) {
+            if (pos >= end) throw error("Unexpected end of input");
+            var b = buffer[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        throw error("Malformed varint");
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long parseLong(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            var value = JSONObject.stringToValue(s);
+            if (value instanceof Number) return ((Number) value).longValue();
+            throw error("Expected number but got " + s);
+        }
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at position " + pos);
+    }
+}
@@ -0,0 +1,221 @@
+package massim.protocol.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static massim.protocol.io.BinaryFormat.*;
+
+/**
+ * Writes documents in the compact binary encoding (see {@link BinaryFormat}) instead of JSON text.
+ * The buffer can be reused for any number of documents.
+ * Binary documents are not delimited, they are sent with a length prefix (see {@link LengthFrameDecoder}).
+ */
+public class BinaryWriter implements DocumentWriter {
+
+    private byte[] buffer;
+    private int size;
+
+    /** the strings defined in the current document so far */
+    private final Map<String, Integer> strings = new HashMap<>();
+
+    public BinaryWriter() {
+        this(1024);
+    }
+
+    public BinaryWriter(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    @Override
+    public BinaryWriter reset() {
+        size = 0;
+        strings.clear();
+        return this;
+    }
+
+    @Override
+    public BinaryWriter reset(byte[] buffer) {
+        this.buffer = buffer.length > 0? buffer : new byte[16];
+        return reset();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    @Override
+    public String toString() {
+        return "binary document (" + size + " bytes)";
+    }
+
+    @Override
+    public boolean writesJson() {
+        return false;
+    }
+
+    @Override
+    public BinaryWriter beginObject() {
+        put(OBJECT);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter endObject() {
+        put(END);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter beginArray() {
+        put(ARRAY);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter endArray() {
+        put(END);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter name(String name) {
+        string(name);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter value(String value) {
+        if (value == null) put(NULL);
+        else string(value);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter value(long value) {
+        var zigzag = (value << 1) ^ (value >> 63);
+        if (zigzag >= 0 && zigzag < SMALL_INT_COUNT) put(SMALL_INT + (int) zigzag);
+        else {
+            put(INTEGER);
+            varint(zigzag);
+        }
+        return this;
+    }
+
+    @Override
+    public BinaryWriter value(boolean value) {
+        put(value? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * Converts the JSON value to the binary encoding.
+     */
+    @Override
+    public BinaryWriter rawValue(byte[] json) {
+        copy(new JsonReader(json));
+        return this;
+    }
+
+    private void copy(JsonReader in) {
+        switch (in.peek()) {
+            case OBJECT:
+                in.beginObject();
+                beginObject();
+                while (in.hasNext()) {
+                    name(in.nextName());
+                    copy(in);
+                }
+                in.endObject();
+                endObject();
+                break;
+            case ARRAY:
+                in.beginArray();
+                beginArray();
+                while (in.hasNext()) copy(in);
+                in.endArray();
+                endArray();
+                break;
+            case BOOLEAN:
+                value(in.nextBoolean());
+                break;
+            case NUMBER:
+                number(in.nextString());
+                break;
+            default:
+                value(in.nextString());
+        }
+    }
+
+    private void number(String text) {
+        try {
+            value(Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            var bytes = text.getBytes(StandardCharsets.US_ASCII);
+            put(NUMBER);
+            varint(bytes.length);
+            put(bytes);
+        }
+    }
+
+    private void string(String s) {
+        var index = PREDEFINED_INDEX.get(s);
+        if (index == null) index = strings.get(s);
+        if (index == null) {
+            strings.put(s, PREDEFINED.size() + strings.size());
+            var bytes = s.getBytes(StandardCharsets.UTF_8);
+            put(STRING);
+            varint(bytes.length);
+            put(bytes);
+        }
+        else if (index < SHORT_REF_COUNT) put(SHORT_REF + index);
+        else {
+            put(STRING_REF);
+            varint(index);
+        }
+    }
+
+    private void varint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+
+    private void put(int b) {
+        ensure(1);
+        buffer[size++] = (byte) b;
+    }
+
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensure(int additional) {
+        if (size + additional > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+    }
+}
@@ -0,0 +1,71 @@
+package massim.protocol.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the frames written by a {@link DeflateFrameEncoder} and decompresses them.
+ * The decompressed frame stays valid until the next frame is read.
+ */
+public class DeflateFrameDecoder extends LengthFrameDecoder {
+
+    private final Inflater inflater = new Inflater();
+
+    private byte[] output = new byte[1 << 16];
+    private int outputLength;
+
+    public DeflateFrameDecoder() {
+        this(new byte[0]);
+    }
+
+    /**
+     * @param buffered bytes of the stream that have already been read (e.g. by the decoder used before compression
+     *                 was switched on, see {@link FrameDecoder#takeBuffered()})
+     */
+    public DeflateFrameDecoder(byte[] buffered) {
+        super(buffered);
+    }
+
+    /**
+     * @return the buffer holding the current (decompressed) frame
+     */
+    @Override
+    public byte[] buffer() {
+        return output;
+    }
+
+    @Override
+    public int frameOffset() {
+        return 0;
+    }
+
+    @Override
+    public int frameLength() {
+        return outputLength;
+    }
+
+    /**
+     * Releases the decompressor's resources. The decoder must not be used afterwards.
+     */
+    public void end() {
+        inflater.end();
+    }
+
+    @Override
+    protected void handleFrame(byte[] buffer, int offset, int length) throws IOException {
+        inflater.setInput(buffer, offset, length);
+        outputLength = 0;
+        try {
+            while (true) {
+                outputLength += inflater.inflate(output, outputLength, output.length - outputLength);
+                if (outputLength == output.length) output = Arrays.copyOf(output, 2 * output.length);
+                else if (inflater.needsInput()) return;
+                else throw new IOException("Compressed stream ended unexpectedly");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed frame: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package massim.protocol.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the messages of one connection into a single DEFLATE (zlib) stream. Each message is flushed
+ * completely, so that it can be decompressed as soon as it arrives, and is sent as one frame
+ * (see {@link LengthFrameDecoder}).
+ * As the stream is kept for the whole connection, each message is compressed against the previous ones
+ * (e.g. a step percept against the percept of the step before).
+ * An encoder must not be shared between threads.
+ */
+public class DeflateFrameEncoder {
+
+    private final Deflater deflater;
+    private byte[] buffer = new byte[8192];
+
+    public DeflateFrameEncoder() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level the compression level (see {@link Deflater})
+     */
+    public DeflateFrameEncoder(int level) {
+        deflater = new Deflater(level);
+    }
+
+    /**
+     * Compresses the remaining bytes of the message (without changing its position).
+     * @return the complete frame
+     */
+    public ByteBuffer encode(ByteBuffer message) {
+        deflater.setInput(message.duplicate());
+        var size = LengthFrameDecoder.HEADER_LENGTH;
+        while (true) {
+            size += deflater.deflate(buffer, size, buffer.length - size, Deflater.SYNC_FLUSH);
+            if (size < buffer.length) break;
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+        var frame = ByteBuffer.wrap(Arrays.copyOf(buffer, size));
+        frame.putInt(0, size - LengthFrameDecoder.HEADER_LENGTH);
+        return frame;
+    }
+
+    /**
+     * Releases the compressor's resources. The encoder must not be used afterwards.
+     */
+    public void end() {
+        deflater.end();
+    }
+}
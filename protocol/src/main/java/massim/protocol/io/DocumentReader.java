@@ -0,0 +1,79 @@
+package massim.protocol.io;
+
+import org.json.JSONException;
+
+/**
+ * Pulls the values of a JSON document one by one, without building a JSON tree. Implemented for JSON text
+ * ({@link JsonReader}) and for the compact binary encoding ({@link BinaryReader}), so that every message can be
+ * read from both encodings.
+ * Scalar values are read as leniently as org.json's opt methods do it, e.g. numbers may also be given as strings.
+ * Errors are reported as {@link JSONException}s.
+ */
+public interface DocumentReader {
+
+    /**
+     * The kinds of values that may come next.
+     */
+    enum Token { OBJECT, ARRAY, STRING, NUMBER, BOOLEAN, NULL }
+
+    /**
+     * How deeply objects and arrays may be nested. No message comes close, and deeper documents could
+     * otherwise exhaust the stack of the reading thread (e.g. in {@link #skipValue()}).
+     */
+    int MAX_DEPTH = 64;
+
+    /**
+     * Starts reading a new document from the given bytes.
+     */
+    DocumentReader reset(byte[] buffer, int offset, int length);
+
+    /**
+     * @return the current position in the buffer (e.g. to come back to a skipped value later)
+     */
+    int position();
+
+    /**
+     * Continues reading at a position previously obtained from {@link #position()} right before a value
+     * (e.g. after its field name) within the same enclosing value.
+     */
+    void seek(int position);
+
+    Token peek();
+
+    void beginObject();
+
+    void endObject();
+
+    void beginArray();
+
+    void endArray();
+
+    /**
+     * Only looks ahead, so it may be called any number of times (or not at all, if the structure is known).
+     * @return whether another field or element follows in the current object or array
+     */
+    boolean hasNext();
+
+    /**
+     * @return the name of the next field, after which its value has to be read or skipped
+     */
+    String nextName();
+
+    /**
+     * @return the next value as a string (also for numbers and booleans) or null for JSON null
+     */
+    String nextString();
+
+    long nextLong();
+
+    default int nextInt() {
+        return (int) nextLong();
+    }
+
+    boolean nextBoolean();
+
+    /**
+     * Skips the next value (including everything nested inside of it).
+     */
+    void skipValue();
+}
@@ -0,0 +1,114 @@
+package massim.protocol.io;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON documents value by value into a growable byte buffer, which can be reused for any number of documents.
+ * Implemented for JSON text ({@link JsonWriter}) and for the compact binary encoding ({@link BinaryWriter}),
+ * so that every message can be written in both encodings.
+ * Like {@link JSONObject#put(String, Object)}, the field methods skip null values.
+ */
+public interface DocumentWriter {
+
+    /**
+     * Discards everything written so far (but keeps the buffer).
+     */
+    DocumentWriter reset();
+
+    /**
+     * Discards everything written so far and continues writing into the given buffer (e.g. one taken from a pool).
+     * The buffer is replaced by a bigger copy if it becomes too small, see {@link #buffer()}.
+     */
+    DocumentWriter reset(byte[] buffer);
+
+    /**
+     * @return the number of bytes written
+     */
+    int size();
+
+    /**
+     * @return the internal buffer, holding {@link #size()} valid bytes (only valid until the next write)
+     */
+    byte[] buffer();
+
+    byte[] toByteArray();
+
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * @return true if the output is JSON text (and not a different encoding of the same document)
+     */
+    boolean writesJson();
+
+    DocumentWriter beginObject();
+
+    DocumentWriter endObject();
+
+    DocumentWriter beginArray();
+
+    DocumentWriter endArray();
+
+    /**
+     * Writes the name of the next field of the current object. Must be followed by exactly one value.
+     */
+    DocumentWriter name(String name);
+
+    default DocumentWriter field(String name, String value) {
+        if (value != null) name(name).value(value);
+        return this;
+    }
+
+    default DocumentWriter field(String name, long value) {
+        return name(name).value(value);
+    }
+
+    default DocumentWriter field(String name, boolean value) {
+        return name(name).value(value);
+    }
+
+    /**
+     * @param value the string or null
+     */
+    DocumentWriter value(String value);
+
+    DocumentWriter value(long value);
+
+    DocumentWriter value(boolean value);
+
+    /**
+     * Writes any value that org.json can serialize (including whole {@link JSONObject}s and {@link JSONArray}s).
+     */
+    default DocumentWriter value(Object value) {
+        if (value == null || value == JSONObject.NULL) value((String) null);
+        else if (value instanceof String) value((String) value);
+        else if (value instanceof Boolean) value(((Boolean) value).booleanValue());
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            value(((Number) value).longValue());
+        else if (value instanceof JSONObject) {
+            var object = (JSONObject) value;
+            beginObject();
+            for (var key : object.keySet()) name(key).value(object.opt(key));
+            endObject();
+        }
+        else if (value instanceof JSONArray) {
+            beginArray();
+            for (var element : (JSONArray) value) value(element);
+            endArray();
+        }
+        else if (value instanceof JSONString)
+            rawValue(((JSONString) value).toJSONString().getBytes(StandardCharsets.UTF_8));
+        else rawValue(JSONObject.valueToString(value).getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    /**
+     * Writes an already encoded JSON value (converting it if the output is not JSON text).
+     */
+    DocumentWriter rawValue(byte[] json);
+}
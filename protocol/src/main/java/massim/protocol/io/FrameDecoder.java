@@ -0,0 +1,193 @@
+package massim.protocol.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Splits a stream of bytes into frames, i.e. the messages delimited by a 0 byte.
+ * Bytes are read in bulk into one buffer, which is reused for all frames. Frames that are longer than the
+ * maximum length are discarded (up to the next delimiter) without being buffered.
+ * A frame's bytes stay valid until the next call to one of the fill methods.
+ */
+public class FrameDecoder {
+
+    public static final byte DELIMITER = 0;
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final int maxFrameLength;
+    private byte[] buffer;
+    private int start; // start of the current (incomplete) frame
+    private int scan;  // where to continue looking for the delimiter
+    private int end;   // end of the buffered bytes
+    private boolean skipping;
+    private long discardedFrames;
+
+    private int frameOffset;
+    private int frameLength;
+
+    /**
+     * Creates a decoder without a limit for the frame length.
+     */
+    public FrameDecoder() {
+        this(Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * @param maxFrameLength the maximum length (in bytes) of frames that are not discarded
+     */
+    public FrameDecoder(int maxFrameLength) {
+        this(maxFrameLength, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param maxFrameLength the maximum length (in bytes) of frames that are not discarded
+     * @param initialCapacity the initial size of the buffer (e.g. smaller for connections that only receive one
+     *                        short message), which grows as needed
+     */
+    public FrameDecoder(int maxFrameLength, int initialCapacity) {
+        this.maxFrameLength = maxFrameLength;
+        this.buffer = new byte[(int) Math.max(1, Math.min(initialCapacity, maxFrameLength + 1L))];
+    }
+
+    /**
+     * Discards all buffered bytes (e.g. when the underlying connection is replaced).
+     */
+    public void reset() {
+        start = scan = end = 0;
+        skipping = false;
+    }
+
+    /**
+     * Removes the bytes that have been read but not returned as a frame yet, e.g. when the connection switches
+     * to a different framing.
+     * @return the removed bytes
+     */
+    public byte[] takeBuffered() {
+        var buffered = skipping? new byte[0] : Arrays.copyOfRange(buffer, start, end);
+        reset();
+        return buffered;
+    }
+
+    /**
+     * Blocks until the next complete frame has been read from the stream.
+     * @return true if a frame is available, false if the stream ended before
+     * @throws IOException if reading from the stream fails
+     */
+    public boolean readFrame(InputStream in) throws IOException {
+        while (!nextFrame()) {
+            if (fill(in) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Blocks until the next complete frame has been read from the (blocking) channel.
+     * @return true if a frame is available, false if the channel reached end-of-stream before
+     * @throws IOException if reading from the channel fails
+     */
+    public boolean readFrame(ReadableByteChannel channel) throws IOException {
+        while (!nextFrame()) {
+            if (fill(channel) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks for the next complete frame in the bytes buffered so far.
+     * @return true if a frame is available (see {@link #buffer()}, {@link #frameOffset()}, {@link #frameLength()})
+     */
+    public boolean nextFrame() {
+        while (true) {
+            var delimiter = indexOfDelimiter(scan, end);
+            if (delimiter == -1) {
+                scan = end;
+                if (skipping || end - start > maxFrameLength) {
+                    // too long already, drop everything up to the next delimiter
+                    skipping = true;
+                    start = scan = end = 0;
+                }
+                return false;
+            }
+            scan = delimiter + 1;
+            if (skipping || delimiter - start > maxFrameLength) {
+                skipping = false;
+                discardedFrames++;
+                start = scan;
+                continue;
+            }
+            frameOffset = start;
+            frameLength = delimiter - start;
+            start = scan;
+            return true;
+        }
+    }
+
+    /**
+     * Reads as many bytes as are available (or blocks until at least one is).
+     * @return the number of bytes read or -1 if the stream has ended
+     */
+    public int fill(InputStream in) throws IOException {
+        prepareFill();
+        var read = in.read(buffer, end, buffer.length - end);
+        if (read > 0) end += read;
+        return read;
+    }
+
+    /**
+     * Reads as many bytes as the channel provides (without blocking if the channel is non-blocking).
+     * @return the number of bytes read or -1 if the channel has reached end-of-stream
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        prepareFill();
+        var read = channel.read(ByteBuffer.wrap(buffer, end, buffer.length - end));
+        if (read > 0) end += read;
+        return read;
+    }
+
+    /**
+     * @return the buffer holding the current frame
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int frameOffset() {
+        return frameOffset;
+    }
+
+    public int frameLength() {
+        return frameLength;
+    }
+
+    /**
+     * @return the number of frames that have been discarded for being too long
+     */
+    public long getDiscardedFrames() {
+        return discardedFrames;
+    }
+
+    /**
+     * Moves the incomplete frame to the front of the buffer and makes sure there is room after it.
+     */
+    private void prepareFill() {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            scan -= start;
+            end -= start;
+            start = 0;
+        }
+        if (end == buffer.length) buffer = Arrays.copyOf(buffer, (int) Math.min(2L * buffer.length, Integer.MAX_VALUE - 8));
+    }
+
+    private int indexOfDelimiter(int from, int to) {
+        var bytes = buffer;
+        for (var i = from; i < to; i++) {
+            if (bytes[i] == DELIMITER) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,42 @@
+package massim.protocol.io;
+
+import massim.protocol.messages.Message;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes messages as frames, i.e. their JSON encoding followed by the 0 byte delimiter, with a single write.
+ * The encoding buffer is reused for all messages, so an encoder must not be shared between threads.
+ */
+public class FrameEncoder {
+
+    private final JsonWriter json;
+
+    public FrameEncoder() {
+        this(8192);
+    }
+
+    public FrameEncoder(int initialCapacity) {
+        json = new JsonWriter(initialCapacity);
+    }
+
+    public void write(Message message, OutputStream out) throws IOException {
+        json.reset();
+        message.writeJson(json);
+        writeFrame(out);
+    }
+
+    public void write(JSONObject document, OutputStream out) throws IOException {
+        json.reset();
+        json.value(document);
+        writeFrame(out);
+    }
+
+    private void writeFrame(OutputStream out) throws IOException {
+        json.delimit();
+        json.writeTo(out);
+        out.flush();
+    }
+}
@@ -0,0 +1,324 @@
+package massim.protocol.io;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Pulls JSON values one by one directly from UTF-8 encoded bytes, without building a JSON tree or an
+ * intermediate string of the whole document.
+ */
+public class JsonReader implements DocumentReader {
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    private byte[] buffer;
+    private int pos;
+    private int end;
+
+    /** for each open object or array: whether a comma has to come before its next element */
+    private boolean[] comma = new boolean[16];
+    private int depth;
+
+    public JsonReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public JsonReader(byte[] buffer, int offset, int length) {
+        reset(buffer, offset, length);
+    }
+
+    @Override
+    public JsonReader reset(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.pos = offset;
+        this.end = offset + length;
+        this.depth = 0;
+        this.comma[0] = false;
+        return this;
+    }
+
+    @Override
+    public int position() {
+        return pos;
+    }
+
+    @Override
+    public void seek(int position) {
+        pos = position;
+        comma[depth] = false;
+    }
+
+    @Override
+    public Token peek() {
+        skipComma();
+        switch (peekByte()) {
+            case '{': return Token.OBJECT;
+            case '[': return Token.ARRAY;
+            case '"': return Token.STRING;
+            case 't': case 'f': return Token.BOOLEAN;
+            case 'n': return Token.NULL;
+            default: return Token.NUMBER;
+        }
+    }
+
+    @Override
+    public void beginObject() {
+        beginValue();
+        expect('{');
+        push();
+    }
+
+    @Override
+    public void endObject() {
+        expect('}');
+        depth--;
+    }
+
+    @Override
+    public void beginArray() {
+        beginValue();
+        expect('[');
+        push();
+    }
+
+    @Override
+    public void endArray() {
+        expect(']');
+        depth--;
+    }
+
+    @Override
+    public boolean hasNext() {
+        var c = peekByte();
+        return c != '}' && c != ']';
+    }
+
+    @Override
+    public String nextName() {
+        skipComma();
+        if (peekByte() != '"') throw error("Expected field name");
+        var name = string();
+        expect(':');
+        return name;
+    }
+
+    @Override
+    public String nextString() {
+        beginValue();
+        switch (peekByte()) {
+            case '"': return string();
+            case 'n': literal(NULL); return null;
+            case '{': case '[': throw error("Expected string");
+            default: return scalar();
+        }
+    }
+
+    @Override
+    public long nextLong() {
+        beginValue();
+        if (peekByte() == '"') return parseLong(string());
+        var start = pos;
+        var negative = buffer[pos] == '-';
+        if (negative) pos++;
+        var value = 0L;
+        var digits = 0;
+        while (pos < end && buffer[pos] >= '0' && buffer[pos] <= '9' && digits < 18) {
+            value = 10 * value + (buffer[pos++] - '0');
+            digits++;
+        }
+        if (digits == 0 || (pos < end && isScalarByte(buffer[pos]))) {
+            // fractions, exponents and very long numbers take the slow path
+            pos = start;
+            return parseLong(scalar());
+        }
+        return negative? -value : value;
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        beginValue();
+        switch (peekByte()) {
+            case 't': literal(TRUE); return true;
+            case 'f': literal(FALSE); return false;
+            case '"':
+                var s = string();
+                if (s.equalsIgnoreCase("true")) return true;
+                if (s.equalsIgnoreCase("false")) return false;
+                throw error("Expected boolean");
+            default: throw error("Expected boolean");
+        }
+    }
+
+    @Override
+    public void skipValue() {
+        skipComma();
+        switch (peekByte()) {
+            case '{':
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case '[':
+                beginArray();
+                while (hasNext()) skipValue();
+                endArray();
+                break;
+            case '"':
+                beginValue();
+                skipString();
+                break;
+            default:
+                beginValue();
+                scalar();
+        }
+    }
+
+    private void push() {
+        if (depth == MAX_DEPTH) throw error("Nested too deeply");
+        if (++depth == comma.length) comma = Arrays.copyOf(comma, depth * 2);
+        comma[depth] = false;
+    }
+
+    /**
+     * Consumes the comma before the next element of the current object or array (if it is not the first one).
+     */
+    private void skipComma() {
+        if (!comma[depth]) return;
+        expect(',');
+        comma[depth] = false;
+    }
+
+    /**
+     * Starts reading a value, after which the next element of the enclosing object or array needs a comma.
+     */
+    private void beginValue() {
+        skipComma();
+        comma[depth] = true;
+    }
+
+    /**
+     * Skips whitespace.
+     * @return the next byte (which is not consumed)
+     */
+    private byte peekByte() {
+        while (pos < end) {
+            var c = buffer[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+            pos++;
+        }
+        throw error("Unexpected end of input");
+    }
+
+    private void expect(char c) {
+        if (peekByte() != c) throw error("Expected '" + c + "'");
+        pos++;
+    }
+
+    private void literal(byte[] literal) {
+        if (end - pos < literal.length || !Arrays.equals(buffer, pos, pos + literal.length, literal, 0, literal.length))
+            throw error("Unexpected literal");
+        pos += literal.length;
+    }
+
+    private static boolean isScalarByte(byte c) {
+        return c != ',' && c != '}' && c != ']' && c != ':' && c != '"'
+                && c != ' ' && c != '\n' && c != '\r' && c != '\t';
+    }
+
+    /**
+     * Reads an unquoted value (number, boolean or null) as it is.
+     */
+    private String scalar() {
+        var start = pos;
+        while (pos < end && isScalarByte(buffer[pos])) pos++;
+        if (pos == start) throw error("Expected value");
+        return new String(buffer, start, pos - start, StandardCharsets.UTF_8);
+    }
+
+    private long parseLong(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            var value = JSONObject.stringToValue(s);
+            if (value instanceof Number) return ((Number) value).longValue();
+            throw error("Expected number but got " + s);
+        }
+    }
+
+    private void skipString() {
+        pos++;
+        while (pos < end) {
+            var c = buffer[pos++];
+            if (c == '"') return;
+            if (c == '\\') pos++;
+        }
+        throw error("Unterminated string");
+    }
+
+    /**
+     * Reads a quoted string. Runs of unescaped bytes are decoded as UTF-8 in one go.
+     */
+    private String string() {
+        var start = ++pos;
+        while (pos < end) {
+            var c = buffer[pos];
+            if (c == '"') {
+                pos++;
+                return new String(buffer, start, pos - 1 - start, StandardCharsets.UTF_8);
+            }
+            if (c == '\\') break;
+            pos++;
+        }
+        var result = new StringBuilder();
+        var runStart = start;
+        while (pos < end) {
+            var c = buffer[pos];
+            if (c == '"') {
+                result.append(new String(buffer, runStart, pos - runStart, StandardCharsets.UTF_8));
+                pos++;
+                return result.toString();
+            }
+            if (c != '\\') {
+                pos++;
+                continue;
+            }
+            result.append(new String(buffer, runStart, pos - runStart, StandardCharsets.UTF_8));
+            if (++pos >= end) break;
+            switch (buffer[pos++]) {
+                case 'b': result.append('\b'); break;
+                case 't': result.append('\t'); break;
+                case 'n': result.append('\n'); break;
+                case 'f': result.append('\f'); break;
+                case 'r': result.append('\r'); break;
+                case 'u':
+                    if (end - pos < 4) throw error("Illegal escape");
+                    try {
+                        result.append((char) Integer.parseInt(
+                                new String(buffer, pos, 4, StandardCharsets.US_ASCII), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Illegal escape");
+                    }
+                    pos += 4;
+                    break;
+                case '"': case '\\': case '/': case '\'':
+                    result.append((char) buffer[pos - 1]);
+                    break;
+                default: throw error("Illegal escape");
+            }
+            runStart = pos;
+        }
+        throw error("Unterminated string");
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at position " + pos);
+    }
+}
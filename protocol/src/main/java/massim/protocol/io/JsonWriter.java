@@ -0,0 +1,275 @@
+package massim.protocol.io;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes JSON as UTF-8 directly into a growable byte buffer, which can be reused for any number of documents.
+ * Strings are escaped the same way as org.json does it, so that the output can be parsed by any existing client.
+ */
+public class JsonWriter implements DocumentWriter {
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    private byte[] buffer;
+    private int size;
+
+    /** for each open object or array: whether nothing has been written into it yet */
+    private boolean[] empty = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter() {
+        this(1024);
+    }
+
+    public JsonWriter(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    @Override
+    public JsonWriter reset() {
+        size = 0;
+        depth = 0;
+        afterName = false;
+        return this;
+    }
+
+    @Override
+    public JsonWriter reset(byte[] buffer) {
+        this.buffer = buffer.length > 0? buffer : new byte[16];
+        return reset();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    @Override
+    public boolean writesJson() {
+        return true;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, size, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public JsonWriter beginObject() {
+        beforeValue();
+        put('{');
+        push();
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() {
+        depth--;
+        put('}');
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginArray() {
+        beforeValue();
+        put('[');
+        push();
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() {
+        depth--;
+        put(']');
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) {
+        separate();
+        string(name);
+        put(':');
+        afterName = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) {
+        beforeValue();
+        if (value == null) put(NULL);
+        else string(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            put(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+            return this;
+        }
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        ensure(20);
+        var start = size;
+        do {
+            buffer[size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            var tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        put(value? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * Appends the delimiter that ends a message on the wire (see {@link FrameDecoder#DELIMITER}).
+     */
+    public JsonWriter delimit() {
+        put((char) FrameDecoder.DELIMITER);
+        return this;
+    }
+
+    /**
+     * Writes the already encoded JSON value as it is.
+     */
+    @Override
+    public JsonWriter rawValue(byte[] json) {
+        beforeValue();
+        put(json);
+        return this;
+    }
+
+    private void push() {
+        if (++depth == empty.length) empty = Arrays.copyOf(empty, depth * 2);
+        empty[depth] = true;
+    }
+
+    private void separate() {
+        if (depth == 0) return;
+        if (!empty[depth]) put(',');
+        empty[depth] = false;
+    }
+
+    private void beforeValue() {
+        if (afterName) afterName = false;
+        else separate();
+    }
+
+    /**
+     * Writes the string quoted and escaped like {@link JSONObject#quote(String)}, encoded as UTF-8.
+     */
+    private void string(String s) {
+        var length = s.length();
+        ensure(length * 6 + 2);
+        buffer[size++] = '"';
+        char previous = 0;
+        for (var i = 0; i < length; i++) {
+            var c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    buffer[size++] = '\\';
+                    buffer[size++] = (byte) c;
+                    break;
+                case '/':
+                    if (previous == '<') buffer[size++] = '\\';
+                    buffer[size++] = '/';
+                    break;
+                case '\b': escape('b'); break;
+                case '\t': escape('t'); break;
+                case '\n': escape('n'); break;
+                case '\f': escape('f'); break;
+                case '\r': escape('r'); break;
+                default:
+                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+                        buffer[size++] = '\\';
+                        buffer[size++] = 'u';
+                        buffer[size++] = HEX[(c >> 12) & 0xF];
+                        buffer[size++] = HEX[(c >> 8) & 0xF];
+                        buffer[size++] = HEX[(c >> 4) & 0xF];
+                        buffer[size++] = HEX[c & 0xF];
+                    }
+                    else if (c < 0x80) buffer[size++] = (byte) c;
+                    else if (c < 0x800) {
+                        buffer[size++] = (byte) (0xC0 | (c >> 6));
+                        buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                    }
+                    else if (Character.isSurrogate(c)) {
+                        if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                            var codePoint = Character.toCodePoint(c, s.charAt(++i));
+                            buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                            buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                            buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                            buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                            c = s.charAt(i);
+                        }
+                        else buffer[size++] = '?'; // like the UTF-8 encoder does for malformed input
+                    }
+                    else {
+                        buffer[size++] = (byte) (0xE0 | (c >> 12));
+                        buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                    }
+            }
+            previous = c;
+        }
+        buffer[size++] = '"';
+    }
+
+    private void escape(char c) {
+        buffer[size++] = '\\';
+        buffer[size++] = (byte) c;
+    }
+
+    private void put(char c) {
+        ensure(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void put(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensure(int additional) {
+        if (size + additional > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+    }
+}
@@ -0,0 +1,101 @@
+package massim.protocol.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a stream of bytes into frames that are prefixed with their length (4 bytes, big-endian), as used for
+ * binary and compressed messages (which may contain 0 bytes).
+ * Bytes are read in bulk into one buffer; a frame's bytes stay valid until the next frame is read.
+ */
+public class LengthFrameDecoder {
+
+    public static final int HEADER_LENGTH = 4;
+
+    private byte[] input;
+    private int start;
+    private int end;
+
+    private int frameOffset;
+    private int frameLength;
+
+    public LengthFrameDecoder() {
+        this(new byte[0]);
+    }
+
+    /**
+     * @param buffered bytes of the stream that have already been read (e.g. by the decoder used before the
+     *                 connection switched to this framing, see {@link FrameDecoder#takeBuffered()})
+     */
+    public LengthFrameDecoder(byte[] buffered) {
+        input = Arrays.copyOf(buffered, Math.max(buffered.length, 1 << 16));
+        end = buffered.length;
+    }
+
+    /**
+     * Blocks until the next complete frame has been read from the stream.
+     * @return true if a frame is available, false if the stream ended before
+     * @throws IOException if reading from the stream fails or the frame is invalid
+     */
+    public boolean readFrame(InputStream in) throws IOException {
+        while (!nextFrame()) {
+            if (fill(in) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks for the next complete frame in the bytes buffered so far.
+     * @return true if a frame is available (see {@link #buffer()}, {@link #frameOffset()}, {@link #frameLength()})
+     */
+    public boolean nextFrame() throws IOException {
+        if (end - start < HEADER_LENGTH) return false;
+        var length = (input[start] & 0xFF) << 24 | (input[start + 1] & 0xFF) << 16
+                | (input[start + 2] & 0xFF) << 8 | (input[start + 3] & 0xFF);
+        if (length < 0 || length > Integer.MAX_VALUE - 8 - HEADER_LENGTH)
+            throw new IOException("Invalid frame length " + length);
+        if (end - start - HEADER_LENGTH < length) {
+            if (input.length < HEADER_LENGTH + length) input = Arrays.copyOf(input, HEADER_LENGTH + length);
+            return false;
+        }
+        handleFrame(input, start + HEADER_LENGTH, length);
+        start += HEADER_LENGTH + length;
+        return true;
+    }
+
+    /**
+     * @return the buffer holding the current frame
+     */
+    public byte[] buffer() {
+        return input;
+    }
+
+    public int frameOffset() {
+        return frameOffset;
+    }
+
+    public int frameLength() {
+        return frameLength;
+    }
+
+    /**
+     * Called for each complete frame.
+     */
+    protected void handleFrame(byte[] buffer, int offset, int length) throws IOException {
+        frameOffset = offset;
+        frameLength = length;
+    }
+
+    private int fill(InputStream in) throws IOException {
+        if (start > 0) {
+            System.arraycopy(input, start, input, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == input.length) input = Arrays.copyOf(input, 2 * input.length);
+        var read = in.read(input, end, input.length - end);
+        if (read > 0) end += read;
+        return read;
+    }
+}
@@ -0,0 +1,196 @@
+package massim.protocol.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ConnectException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Unix domain sockets, for agents running on the same host as the server. They need Java 16 or newer; the API is
+ * looked up at runtime, so that everything else still works with older versions.
+ */
+public final class UnixDomainSockets {
+
+    /**
+     * The prefix of host names that denote the path of a Unix domain socket (e.g. "unix:/tmp/massim.sock").
+     */
+    public static final String HOST_PREFIX = "unix:";
+
+    private UnixDomainSockets() {}
+
+    public static boolean isUnixHost(String host) {
+        return host != null && host.startsWith(HOST_PREFIX);
+    }
+
+    /**
+     * @return whether the running Java version supports Unix domain socket channels
+     */
+    public static boolean isSupported() {
+        try {
+            Class.forName("java.net.UnixDomainSocketAddress");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the path of the socket denoted by a "unix:" host name
+     */
+    public static String path(String host) {
+        return host.substring(HOST_PREFIX.length());
+    }
+
+    /**
+     * @return the address of the socket file (as a java.net.UnixDomainSocketAddress)
+     * @throws IOException if Unix domain sockets are not supported by the running Java version
+     */
+    public static SocketAddress address(String path) throws IOException {
+        try {
+            var type = Class.forName("java.net.UnixDomainSocketAddress");
+            return (SocketAddress) type.getMethod("of", String.class).invoke(null, path);
+        } catch (InvocationTargetException e) {
+            throw new IOException("Invalid socket path " + path, e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw unsupported(e);
+        }
+    }
+
+    /**
+     * Opens a (blocking) connection to the socket at the given path.
+     */
+    public static SocketChannel connect(String path) throws IOException {
+        return SocketChannel.open(address(path));
+    }
+
+    /**
+     * Opens a server socket at the given path. An existing socket file is only replaced if it is stale (e.g. left
+     * over by an earlier run), i.e. if nobody accepts connections on it anymore.
+     * @throws IOException also if another server is listening at the path or a regular file, a directory or a link
+     *                     is in the way
+     */
+    public static ServerSocketChannel bind(String path, int backlog) throws IOException {
+        var address = address(path);
+        ServerSocketChannel channel;
+        try {
+            var family = StandardProtocolFamily.valueOf("UNIX");
+            channel = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                    .invoke(null, family);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw unsupported(e);
+        } catch (IllegalArgumentException | ReflectiveOperationException e) {
+            throw unsupported(e);
+        }
+        try {
+            deleteStaleSocket(Path.of(path));
+            channel.bind(address, backlog);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * @return a stream reading from the (blocking) channel. Unlike {@link java.nio.channels.Channels#newInputStream},
+     *         it does not hold the channel's blocking lock, so another thread can write at the same time.
+     */
+    public static InputStream inputStream(ReadableByteChannel channel) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                var b = new byte[1];
+                int read;
+                while ((read = read(b, 0, 1)) == 0) {}
+                return read < 0? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * @return a stream writing to the (blocking) channel, see {@link #inputStream(ReadableByteChannel)}
+     */
+    public static OutputStream outputStream(WritableByteChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                var buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * @return an identifier of the socket file at the given path, to recognize it in {@link #delete(String, Object)}
+     */
+    public static Object fileKey(String path) throws IOException {
+        var attributes = Files.readAttributes(Path.of(path), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        return attributes.fileKey() != null? attributes.fileKey() : attributes.creationTime();
+    }
+
+    /**
+     * Deletes the socket file at the given path, but only if it is still the file with the given key
+     * (and has not been replaced by another server meanwhile).
+     */
+    public static void delete(String path, Object fileKey) throws IOException {
+        try {
+            if (fileKey(path).equals(fileKey)) Files.delete(Path.of(path));
+        } catch (NoSuchFileException ignored) {}
+    }
+
+    private static void deleteStaleSocket(Path file) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        if (!attributes.isOther()) throw new IOException(file + " exists and is not a socket");
+        try (var ignored = connect(file.toString())) {
+            throw new IOException("Another server is listening at " + file);
+        } catch (ConnectException e) {
+            // nobody is listening anymore
+        }
+        Files.delete(file);
+    }
+
+    private static IOException unsupported(Exception cause) {
+        return new IOException("Unix domain sockets require Java 16 or newer", cause);
+    }
+}
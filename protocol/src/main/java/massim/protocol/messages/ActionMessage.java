@@ -1,5 +1,7 @@
 package massim.protocol.messages;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import massim.protocol.messages.scenario.Actions;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -23,6 +25,26 @@ public class ActionMessage extends Message{
         }
     }
 
+    public ActionMessage(DocumentReader content) {
+        this.actionType = Actions.UNKNOWN_ACTION;
+        this.id = -1;
+        this.params = new ArrayList<>();
+        content.beginObject();
+        while (content.hasNext()) {
+            switch (content.nextName()) {
+                case "type": this.actionType = content.nextString(); break;
+                case "id": this.id = content.nextLong(); break;
+                case "p":
+                    content.beginArray();
+                    while (content.hasNext()) this.params.add(content.nextString());
+                    content.endArray();
+                    break;
+                default: content.skipValue();
+            }
+        }
+        content.endObject();
+    }
+
     public ActionMessage(String actionType, long id, List<String> params) {
         this.actionType = actionType;
         this.id = id;
@@ -56,4 +78,15 @@ public class ActionMessage extends Message{
         content.put("p", params);
         return content;
     }
+
+    @Override
+    protected void writeContent(DocumentWriter out) {
+        out.beginObject();
+        out.field("type", actionType);
+        out.field("id", id);
+        out.name("p").beginArray();
+        for (var param : params) out.value(param);
+        out.endArray();
+        out.endObject();
+    }
 }
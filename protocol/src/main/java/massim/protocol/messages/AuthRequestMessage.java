@@ -1,20 +1,87 @@
 package massim.protocol.messages;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import org.json.JSONObject;
 
 public class AuthRequestMessage extends Message {
 
+    /**
+     * The only compression currently supported, see {@link massim.protocol.io.DeflateFrameEncoder}.
+     */
+    public final static String COMPRESSION_DEFLATE = "deflate";
+
+    /**
+     * The protocol versions, i.e. the encodings of the messages the server sends after the authentication:
+     * JSON text or the compact binary format (see {@link massim.protocol.io.BinaryWriter}).
+     */
+    public final static int PROTOCOL_JSON = 1;
+    public final static int PROTOCOL_BINARY = 2;
+
+    /**
+     * Step percepts are sent as the changes since the previous percept (see
+     * {@link massim.protocol.messages.scenario.PerceptDelta}) with a complete percept every now and then.
+     */
+    public final static String PERCEPTS_DELTA = "delta";
+
     private String username;
     private String password;
+    private String compression;
+    private int protocol = PROTOCOL_JSON;
+    private String percepts;
 
     public AuthRequestMessage(JSONObject content) {
         this.username = content.optString("user");
         this.password = content.optString("pw");
+        this.compression = content.optString("compression", null);
+        this.protocol = content.optInt("protocol", PROTOCOL_JSON);
+        this.percepts = content.optString("percepts", null);
+    }
+
+    public AuthRequestMessage(DocumentReader content) {
+        this.username = "";
+        this.password = "";
+        content.beginObject();
+        while (content.hasNext()) {
+            switch (content.nextName()) {
+                case "user": this.username = content.nextString(); break;
+                case "pw": this.password = content.nextString(); break;
+                case "compression": this.compression = content.nextString(); break;
+                case "protocol": this.protocol = content.nextInt(); break;
+                case "percepts": this.percepts = content.nextString(); break;
+                default: content.skipValue();
+            }
+        }
+        content.endObject();
     }
 
     public AuthRequestMessage(String username, String password) {
+        this(username, password, null);
+    }
+
+    /**
+     * @param compression the compression the agent wants the server to use for its messages or null
+     */
+    public AuthRequestMessage(String username, String password, String compression) {
+        this(username, password, compression, PROTOCOL_JSON);
+    }
+
+    /**
+     * @param protocol the (highest) protocol version the agent wants the server to use for its messages
+     */
+    public AuthRequestMessage(String username, String password, String compression, int protocol) {
+        this(username, password, compression, protocol, null);
+    }
+
+    /**
+     * @param percepts how the agent wants its step percepts to be sent ({@link #PERCEPTS_DELTA}) or null
+     */
+    public AuthRequestMessage(String username, String password, String compression, int protocol, String percepts) {
         this.username = username;
         this.password = password;
+        this.compression = compression;
+        this.protocol = protocol;
+        this.percepts = percepts;
     }
 
     @Override
@@ -27,9 +94,23 @@ public class AuthRequestMessage extends Message {
         JSONObject content = new JSONObject();
         content.put("user", username);
         content.put("pw", password);
+        content.put("compression", compression);
+        if (protocol != PROTOCOL_JSON) content.put("protocol", protocol);
+        content.put("percepts", percepts);
         return content;
     }
 
+    @Override
+    protected void writeContent(DocumentWriter out) {
+        out.beginObject();
+        out.field("user", username);
+        out.field("pw", password);
+        out.field("compression", compression);
+        if (protocol != PROTOCOL_JSON) out.field("protocol", protocol);
+        out.field("percepts", percepts);
+        out.endObject();
+    }
+
     public String getUsername() {
         return username;
     }
@@ -37,4 +118,25 @@ public class AuthRequestMessage extends Message {
     public String getPassword() {
         return password;
     }
+
+    /**
+     * @return the requested compression or null if the agent wants uncompressed messages
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the highest protocol version the agent supports ({@link #PROTOCOL_JSON} if none was given)
+     */
+    public int getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return how the agent wants its step percepts to be sent or null for complete percepts
+     */
+    public String getPercepts() {
+        return percepts;
+    }
 }
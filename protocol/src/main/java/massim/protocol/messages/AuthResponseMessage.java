@@ -1,5 +1,7 @@
 package massim.protocol.messages;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import org.json.JSONObject;
 
 public class AuthResponseMessage extends Message {
@@ -9,15 +11,61 @@ public class AuthResponseMessage extends Message {
 
     private long time;
     private String result;
+    private String compression;
+    private int protocol = AuthRequestMessage.PROTOCOL_JSON;
+    private String percepts;
 
     public AuthResponseMessage(JSONObject content) {
         this.time = content.optLong("time");
         this.result = content.optString("result");
+        this.compression = content.optString("compression", null);
+        this.protocol = content.optInt("protocol", AuthRequestMessage.PROTOCOL_JSON);
+        this.percepts = content.optString("percepts", null);
+    }
+
+    public AuthResponseMessage(DocumentReader content) {
+        this.result = "";
+        content.beginObject();
+        while (content.hasNext()) {
+            switch (content.nextName()) {
+                case "time": this.time = content.nextLong(); break;
+                case "result": this.result = content.nextString(); break;
+                case "compression": this.compression = content.nextString(); break;
+                case "protocol": this.protocol = content.nextInt(); break;
+                case "percepts": this.percepts = content.nextString(); break;
+                default: content.skipValue();
+            }
+        }
+        content.endObject();
     }
 
     public AuthResponseMessage(long time, String result) {
+        this(time, result, null);
+    }
+
+    /**
+     * @param compression the compression the server uses for all following messages or null
+     */
+    public AuthResponseMessage(long time, String result, String compression) {
+        this(time, result, compression, AuthRequestMessage.PROTOCOL_JSON);
+    }
+
+    /**
+     * @param protocol the protocol version the server uses for all following messages
+     */
+    public AuthResponseMessage(long time, String result, String compression, int protocol) {
+        this(time, result, compression, protocol, null);
+    }
+
+    /**
+     * @param percepts how the server sends the step percepts ({@link AuthRequestMessage#PERCEPTS_DELTA}) or null
+     */
+    public AuthResponseMessage(long time, String result, String compression, int protocol, String percepts) {
         this.time = time;
         this.result = result;
+        this.compression = compression;
+        this.protocol = protocol;
+        this.percepts = percepts;
     }
 
     @Override
@@ -29,9 +77,22 @@ public class AuthResponseMessage extends Message {
     public JSONObject makeContent() {
         JSONObject content = new JSONObject();
         content.put("result", result);
+        content.put("compression", compression);
+        if (protocol != AuthRequestMessage.PROTOCOL_JSON) content.put("protocol", protocol);
+        content.put("percepts", percepts);
         return content;
     }
 
+    @Override
+    protected void writeContent(DocumentWriter out) {
+        out.beginObject();
+        out.field("result", result);
+        out.field("compression", compression);
+        if (protocol != AuthRequestMessage.PROTOCOL_JSON) out.field("protocol", protocol);
+        out.field("percepts", percepts);
+        out.endObject();
+    }
+
     public long getTime() {
         return time;
     }
@@ -39,4 +100,25 @@ public class AuthResponseMessage extends Message {
     public String getResult() {
         return result;
     }
+
+    /**
+     * @return the compression of all following messages from the server or null if they are not compressed
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the protocol version of all following messages from the server
+     */
+    public int getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return how the server sends the step percepts or null if they are complete
+     */
+    public String getPercepts() {
+        return percepts;
+    }
 }
@@ -1,5 +1,7 @@
 package massim.protocol.messages;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import org.json.JSONObject;
 
 public class ByeMessage extends Message {
@@ -14,6 +16,15 @@ public class ByeMessage extends Message {
         this.time = content.optLong("time");
     }
 
+    public ByeMessage(DocumentReader content) {
+        content.beginObject();
+        while (content.hasNext()) {
+            if (content.nextName().equals("time")) this.time = content.nextLong();
+            else content.skipValue();
+        }
+        content.endObject();
+    }
+
     @Override
     public String getMessageType() {
         return Message.TYPE_BYE;
@@ -24,6 +35,11 @@ public class ByeMessage extends Message {
         return new JSONObject();
     }
 
+    @Override
+    protected void writeContent(DocumentWriter out) {
+        out.beginObject().endObject();
+    }
+
     public long getTime() {
         return time;
     }
@@ -1,5 +1,7 @@
 package massim.protocol.messages;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import massim.protocol.messages.scenario.InitialPercept;
 import massim.protocol.messages.scenario.StepPercept;
 import org.json.JSONObject;
@@ -27,6 +29,25 @@ public abstract class Message {
         return message;
     }
 
+    /**
+     * Writes the same JSON document as {@link #toJson()} without building the JSON tree first.
+     */
+    public void writeJson(DocumentWriter out) {
+        out.beginObject();
+        out.field("type", getMessageType());
+        out.name("content");
+        writeContent(out);
+        out.endObject();
+    }
+
+    /**
+     * Writes the content object. Subclasses should override this to stream their content directly;
+     * by default, the result of {@link #makeContent()} is written.
+     */
+    protected void writeContent(DocumentWriter out) {
+        out.value(makeContent());
+    }
+
     public static Message buildFromJson(JSONObject src) {
         if(src == null) return null;
         String type = src.optString("type");
@@ -46,4 +67,61 @@ public abstract class Message {
         }
         return null;
     }
+
+    /**
+     * Reads a message directly from its JSON encoding, without building the JSON tree first.
+     * If the type comes before the content (as written by {@link #writeJson(DocumentWriter)}), everything is read
+     * in a single pass. Otherwise, the content is skipped and decoded once the type is known.
+     * @return the message or null if it could not be built (like {@link #buildFromJson(JSONObject)})
+     */
+    public static Message readFrom(DocumentReader in) {
+        String type = null;
+        Message message = null;
+        var contentPosition = -1;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "type":
+                    type = in.nextString();
+                    break;
+                case "content":
+                    if (type != null) message = readContent(type, in);
+                    else {
+                        contentPosition = in.position();
+                        in.skipValue();
+                    }
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (contentPosition != -1 && type != null) {
+            var end = in.position();
+            in.seek(contentPosition);
+            message = readContent(type, in);
+            in.seek(end);
+        }
+        return message;
+    }
+
+    private static Message readContent(String type, DocumentReader content) {
+        if (content.peek() != DocumentReader.Token.OBJECT) {
+            content.skipValue();
+            return null;
+        }
+        switch(type) {
+            case TYPE_ACTION: return new ActionMessage(content);
+            case TYPE_REQUEST_ACTION: return new StepPercept(content);
+            case TYPE_AUTH_RESPONSE: return new AuthResponseMessage(content);
+            case TYPE_AUTH_REQUEST: return new AuthRequestMessage(content);
+            case TYPE_BYE: return new ByeMessage(content);
+            case TYPE_SIM_START: return new InitialPercept(content);
+            case TYPE_SIM_END: return new SimEndMessage(content);
+            case TYPE_STATUS_REQUEST: content.skipValue(); return new StatusRequestMessage();
+            case TYPE_STATUS_RESPONSE: return new StatusResponseMessage(content);
+        }
+        content.skipValue(); // unknown type, the caller reports the missing message
+        return null;
+    }
 }
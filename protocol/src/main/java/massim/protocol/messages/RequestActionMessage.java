@@ -1,5 +1,7 @@
 package massim.protocol.messages;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import org.json.JSONObject;
 
 /**
@@ -26,6 +28,20 @@ public abstract class RequestActionMessage extends Message {
         this.step = step;
     }
 
+    /**
+     * Reads one of the fields common to all request-action messages (for subclasses reading their content).
+     * @return false if the field does not belong to this class (and has not been read)
+     */
+    protected boolean readField(String name, DocumentReader content) {
+        switch (name) {
+            case "time": this.time = content.nextLong(); return true;
+            case "id": this.id = content.nextLong(); return true;
+            case "deadline": this.deadline = content.nextLong(); return true;
+            case "step": this.step = content.nextInt(); return true;
+            default: return false;
+        }
+    }
+
     @Override
     public String getMessageType() {
         return Message.TYPE_REQUEST_ACTION;
@@ -48,6 +64,36 @@ public abstract class RequestActionMessage extends Message {
      */
     public abstract JSONObject makePercept();
 
+    @Override
+    protected void writeContent(DocumentWriter out) {
+        out.beginObject();
+        out.field("id", id);
+        out.field("time", time);
+        out.field("deadline", deadline);
+        out.field("step", step);
+        out.name("percept");
+        writePercept(out);
+        out.endObject();
+    }
+
+    /**
+     * Writes the percept part. Subclasses should override this to stream the percept directly;
+     * by default, the result of {@link #makePercept()} is written.
+     */
+    protected void writePercept(DocumentWriter out) {
+        out.value(makePercept());
+    }
+
+    /**
+     * Creates the message that is sent instead of this one to an agent that asked for delta percepts.
+     * Subclasses may override this to only include what has changed since the previous percept.
+     * @param previous the previous (complete) message sent to the same agent
+     * @return a message holding the changes or this message if the percept cannot be delta-encoded
+     */
+    public RequestActionMessage deltaTo(RequestActionMessage previous) {
+        return this;
+    }
+
     public void updateIdAndDeadline(long id, long deadline) {
         this.id = id;
         this.deadline = deadline;
@@ -1,5 +1,7 @@
 package massim.protocol.messages;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import org.json.JSONObject;
 
 public class SimEndMessage extends Message {
@@ -14,6 +16,21 @@ public class SimEndMessage extends Message {
         this.ranking = content.optInt("ranking", -1);
     }
 
+    public SimEndMessage(DocumentReader content) {
+        this.score = -1;
+        this.ranking = -1;
+        content.beginObject();
+        while (content.hasNext()) {
+            switch (content.nextName()) {
+                case "time": this.time = content.nextLong(); break;
+                case "score": this.score = content.nextLong(); break;
+                case "ranking": this.ranking = content.nextInt(); break;
+                default: content.skipValue();
+            }
+        }
+        content.endObject();
+    }
+
     public SimEndMessage(long score, int ranking) {
         this.time = System.currentTimeMillis();
         this.score = score;
@@ -34,6 +51,15 @@ public class SimEndMessage extends Message {
         return json;
     }
 
+    @Override
+    protected void writeContent(DocumentWriter out) {
+        out.beginObject();
+        out.field("time", time);
+        out.field("score", score);
+        out.field("ranking", ranking);
+        out.endObject();
+    }
+
     public long getTime() {
         return time;
     }
@@ -1,5 +1,7 @@
 package massim.protocol.messages;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import org.json.JSONObject;
 
 public abstract class SimStartMessage extends Message {
@@ -14,6 +16,16 @@ public abstract class SimStartMessage extends Message {
         this.time = time;
     }
 
+    /**
+     * Reads one of the fields common to all sim-start messages (for subclasses reading their content).
+     * @return false if the field does not belong to this class (and has not been read)
+     */
+    protected boolean readField(String name, DocumentReader content) {
+        if (!name.equals("time")) return false;
+        this.time = content.nextLong();
+        return true;
+    }
+
     @Override
     public String getMessageType() {
         return Message.TYPE_SIM_START;
@@ -33,6 +45,23 @@ public abstract class SimStartMessage extends Message {
      */
     public abstract JSONObject makePercept();
 
+    @Override
+    protected void writeContent(DocumentWriter out) {
+        out.beginObject();
+        out.field("time", time);
+        out.name("percept");
+        writePercept(out);
+        out.endObject();
+    }
+
+    /**
+     * Writes the percept part. Subclasses should override this to stream the percept directly;
+     * by default, the result of {@link #makePercept()} is written.
+     */
+    protected void writePercept(DocumentWriter out) {
+        out.value(makePercept());
+    }
+
     public long getTime() {
         return time;
     }
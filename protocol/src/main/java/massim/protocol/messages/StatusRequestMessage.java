@@ -1,5 +1,6 @@
 package massim.protocol.messages;
 
+import massim.protocol.io.DocumentWriter;
 import org.json.JSONObject;
 
 public class StatusRequestMessage extends Message {
@@ -15,4 +16,9 @@ public class StatusRequestMessage extends Message {
     public JSONObject makeContent() {
         return new JSONObject();
     }
+
+    @Override
+    protected void writeContent(DocumentWriter out) {
+        out.beginObject().endObject();
+    }
 }
@@ -1,8 +1,12 @@
 package massim.protocol.messages;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+
 public class StatusResponseMessage extends Message {
 
     public final long time;
@@ -28,6 +32,36 @@ public class StatusResponseMessage extends Message {
         this.currentSimulation = content.optInt("currentSimulation");
     }
 
+    public StatusResponseMessage(DocumentReader content) {
+        long time = 0;
+        var teams = new ArrayList<String>();
+        var teamSizes = new ArrayList<Integer>();
+        int currentSimulation = 0;
+        content.beginObject();
+        while (content.hasNext()) {
+            switch (content.nextName()) {
+                case "time": time = content.nextLong(); break;
+                case "teams":
+                    content.beginArray();
+                    while (content.hasNext()) teams.add(content.nextString());
+                    content.endArray();
+                    break;
+                case "teamSizes":
+                    content.beginArray();
+                    while (content.hasNext()) teamSizes.add(content.nextInt());
+                    content.endArray();
+                    break;
+                case "currentSimulation": currentSimulation = content.nextInt(); break;
+                default: content.skipValue();
+            }
+        }
+        content.endObject();
+        this.time = time;
+        this.teams = teams.toArray(new String[0]);
+        this.teamSizes = teamSizes.toArray(new Integer[0]);
+        this.currentSimulation = currentSimulation;
+    }
+
     public StatusResponseMessage(long time, String[] teams, Integer[] teamSizes, int currentSimulation) {
         this.time = time;
         this.teams = teams;
@@ -63,6 +97,20 @@ public class StatusResponseMessage extends Message {
         return content;
     }
 
+    @Override
+    protected void writeContent(DocumentWriter out) {
+        out.beginObject();
+        out.field("time", time);
+        out.name("teams").beginArray();
+        for (String team : teams) out.value(team);
+        out.endArray();
+        out.name("teamSizes").beginArray();
+        for (Integer teamSize : teamSizes) out.value((Object) teamSize);
+        out.endArray();
+        out.field("currentSimulation", currentSimulation);
+        out.endObject();
+    }
+
     public long getTime() {
         return time;
     }
@@ -1,5 +1,7 @@
 package massim.protocol.messages.scenario;
 
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import massim.protocol.messages.SimStartMessage;
 import org.json.JSONObject;
 
@@ -16,6 +18,17 @@ public class InitialPercept extends SimStartMessage {
         parsePercept(content.getJSONObject("percept"));
     }
 
+    public InitialPercept(DocumentReader content) {
+        super(0);
+        content.beginObject();
+        while (content.hasNext()) {
+            var name = content.nextName();
+            if (name.equals("percept")) readPercept(content);
+            else if (!readField(name, content)) content.skipValue();
+        }
+        content.endObject();
+    }
+
     public InitialPercept(String agentName, String teamName, int teamSize, int steps, int vision) {
         super(System.currentTimeMillis());
         this.agentName = agentName;
@@ -36,6 +49,17 @@ public class InitialPercept extends SimStartMessage {
         return percept;
     }
 
+    @Override
+    protected void writePercept(DocumentWriter out) {
+        out.beginObject();
+        out.field("name", agentName);
+        out.field("team", teamName);
+        out.field("teamSize", teamSize);
+        out.field("steps", steps);
+        out.field("vision", vision);
+        out.endObject();
+    }
+
     private void parsePercept(JSONObject percept) {
         agentName = percept.getString("name");
         teamName = percept.getString("team");
@@ -43,4 +67,19 @@ public class InitialPercept extends SimStartMessage {
         teamSize = percept.getInt("teamSize");
         vision = percept.getInt("vision");
     }
+
+    private void readPercept(DocumentReader percept) {
+        percept.beginObject();
+        while (percept.hasNext()) {
+            switch (percept.nextName()) {
+                case "name": agentName = percept.nextString(); break;
+                case "team": teamName = percept.nextString(); break;
+                case "steps": steps = percept.nextInt(); break;
+                case "teamSize": teamSize = percept.nextInt(); break;
+                case "vision": vision = percept.nextInt(); break;
+                default: percept.skipValue();
+            }
+        }
+        percept.endObject();
+    }
 }
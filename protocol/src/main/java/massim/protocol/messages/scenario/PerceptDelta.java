@@ -0,0 +1,343 @@
+package massim.protocol.messages.scenario;
+
+import massim.protocol.data.Position;
+import massim.protocol.data.TaskInfo;
+import massim.protocol.data.Thing;
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * The changes between two consecutive step percepts of one agent, which are sent instead of the whole percept
+ * to agents that asked for delta percepts (see {@link StepPercept#deltaTo}).
+ * Things are compared by their values (identical things are only listed once), tasks by their names.
+ */
+public class PerceptDelta {
+
+    static final int SCORE = 1;
+    static final int ENERGY = 2;
+    static final int DISABLED = 4;
+    static final int TASK = 8;
+
+    /** the names of the fields only a delta percept has */
+    static final Set<String> FIELDS = Set.of("delta", "thingsAdded", "thingsRemoved", "tasksAdded", "tasksRemoved",
+            "terrainAdded", "terrainRemoved", "attachedAdded", "attachedRemoved");
+
+    /** the id of the request-action message this delta is based on */
+    public long base;
+    /** the scalar fields of the percept that have changed, see {@link #hasChanged(String)} */
+    int changed;
+
+    public final List<Thing> addedThings = new ArrayList<>();
+    public final List<Thing> removedThings = new ArrayList<>();
+    public final List<TaskInfo> addedTasks = new ArrayList<>();
+    public final Set<String> removedTasks = new HashSet<>();
+    public final Map<String, Set<Position>> addedTerrain = new HashMap<>();
+    public final Map<String, Set<Position>> removedTerrain = new HashMap<>();
+    public final Set<Position> addedAttached = new HashSet<>();
+    public final Set<Position> removedAttached = new HashSet<>();
+
+    PerceptDelta() {}
+
+    /**
+     * Determines what has changed from the previous to the current percept.
+     */
+    static PerceptDelta between(StepPercept previous, StepPercept current) {
+        var delta = new PerceptDelta();
+        delta.base = previous.getId();
+        if (previous.score != current.score) delta.changed |= SCORE;
+        if (previous.energy != current.energy) delta.changed |= ENERGY;
+        if (previous.disabled != current.disabled) delta.changed |= DISABLED;
+        if (!Objects.equals(previous.task, current.task)) delta.changed |= TASK;
+
+        var previousThings = keys(previous.things);
+        var currentThings = keys(current.things);
+        currentThings.forEach((key, thing) -> { if (!previousThings.containsKey(key)) delta.addedThings.add(thing); });
+        previousThings.forEach((key, thing) -> { if (!currentThings.containsKey(key)) delta.removedThings.add(thing); });
+
+        var previousTasks = new HashMap<String, TaskInfo>();
+        previous.taskInfo.forEach(task -> previousTasks.put(task.name, task));
+        var currentTasks = new HashSet<String>();
+        for (var task : current.taskInfo) {
+            currentTasks.add(task.name);
+            var old = previousTasks.get(task.name);
+            if (old != null && old.deadline == task.deadline && old.reward == task.reward) continue;
+            if (old != null) delta.removedTasks.add(task.name); // replaced
+            delta.addedTasks.add(task);
+        }
+        previousTasks.keySet().forEach(name -> { if (!currentTasks.contains(name)) delta.removedTasks.add(name); });
+
+        difference(current.terrain, previous.terrain, delta.addedTerrain);
+        difference(previous.terrain, current.terrain, delta.removedTerrain);
+        difference(current.attachedThings, previous.attachedThings, delta.addedAttached);
+        difference(previous.attachedThings, current.attachedThings, delta.removedAttached);
+        return delta;
+    }
+
+    /**
+     * @param field one of the scalar fields "score", "energy", "disabled" or "task"
+     * @return whether the field has changed (otherwise its value has to be taken from the previous percept)
+     */
+    public boolean hasChanged(String field) {
+        return (changed & flag(field)) != 0;
+    }
+
+    static int flag(String field) {
+        switch (field) {
+            case "score": return SCORE;
+            case "energy": return ENERGY;
+            case "disabled": return DISABLED;
+            case "task": return TASK;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Completes the percept (holding this delta) with the unchanged parts of the previous percept.
+     */
+    void applyTo(StepPercept percept, StepPercept previous) {
+        var things = keys(previous.things);
+        removedThings.forEach(thing -> things.remove(new ThingKey(thing)));
+        addedThings.forEach(thing -> things.put(new ThingKey(thing), thing));
+        percept.things = new HashSet<>(things.values());
+
+        var tasks = new HashSet<TaskInfo>();
+        previous.taskInfo.forEach(task -> { if (!removedTasks.contains(task.name)) tasks.add(task); });
+        tasks.addAll(addedTasks);
+        percept.taskInfo = tasks;
+
+        var terrain = new HashMap<String, Set<Position>>();
+        previous.terrain.forEach((type, positions) -> terrain.put(type, new HashSet<>(positions)));
+        removedTerrain.forEach((type, positions) -> {
+            var remaining = terrain.get(type);
+            if (remaining == null) return;
+            remaining.removeAll(positions);
+            if (remaining.isEmpty()) terrain.remove(type);
+        });
+        addedTerrain.forEach((type, positions) -> terrain.computeIfAbsent(type, t -> new HashSet<>()).addAll(positions));
+        percept.terrain = terrain;
+
+        var attached = new HashSet<>(previous.attachedThings);
+        attached.removeAll(removedAttached);
+        attached.addAll(addedAttached);
+        percept.attachedThings = attached;
+
+        if ((changed & SCORE) == 0) percept.score = previous.score;
+        if ((changed & ENERGY) == 0) percept.energy = previous.energy;
+        if ((changed & DISABLED) == 0) percept.disabled = previous.disabled;
+        if ((changed & TASK) == 0) percept.task = previous.task;
+    }
+
+    /**
+     * Writes the fields of the delta into the (open) percept object.
+     */
+    void writeFields(DocumentWriter out) {
+        out.field("delta", base);
+        if (!addedThings.isEmpty()) {
+            out.name("thingsAdded").beginArray();
+            for (var thing : addedThings) thing.writeJson(out);
+            out.endArray();
+        }
+        if (!removedThings.isEmpty()) {
+            out.name("thingsRemoved").beginArray();
+            for (var thing : removedThings) thing.writeJson(out);
+            out.endArray();
+        }
+        if (!addedTasks.isEmpty()) {
+            out.name("tasksAdded").beginArray();
+            for (var task : addedTasks) task.writeJson(out);
+            out.endArray();
+        }
+        if (!removedTasks.isEmpty()) {
+            out.name("tasksRemoved").beginArray();
+            for (var name : removedTasks) out.value(name);
+            out.endArray();
+        }
+        writeTerrain(out, "terrainAdded", addedTerrain);
+        writeTerrain(out, "terrainRemoved", removedTerrain);
+        writePositions(out, "attachedAdded", addedAttached);
+        writePositions(out, "attachedRemoved", removedAttached);
+    }
+
+    /**
+     * Puts the fields of the delta into the percept object.
+     */
+    void putFields(JSONObject percept) {
+        percept.put("delta", base);
+        if (!addedThings.isEmpty()) {
+            var things = new JSONArray();
+            addedThings.forEach(t -> things.put(t.toJSON()));
+            percept.put("thingsAdded", things);
+        }
+        if (!removedThings.isEmpty()) {
+            var things = new JSONArray();
+            removedThings.forEach(t -> things.put(t.toJSON()));
+            percept.put("thingsRemoved", things);
+        }
+        if (!addedTasks.isEmpty()) {
+            var tasks = new JSONArray();
+            addedTasks.forEach(t -> tasks.put(t.toJSON()));
+            percept.put("tasksAdded", tasks);
+        }
+        if (!removedTasks.isEmpty()) percept.put("tasksRemoved", new JSONArray(removedTasks));
+        if (!addedTerrain.isEmpty()) percept.put("terrainAdded", terrainToJSON(addedTerrain));
+        if (!removedTerrain.isEmpty()) percept.put("terrainRemoved", terrainToJSON(removedTerrain));
+        if (!addedAttached.isEmpty()) percept.put("attachedAdded", positionsToJSON(addedAttached));
+        if (!removedAttached.isEmpty()) percept.put("attachedRemoved", positionsToJSON(removedAttached));
+    }
+
+    /**
+     * Reads one of the fields of the delta.
+     * @return false if the field does not belong to the delta (and has not been read)
+     */
+    boolean readField(String name, DocumentReader in) {
+        switch (name) {
+            case "delta": base = in.nextLong(); return true;
+            case "thingsAdded": readThings(in, addedThings); return true;
+            case "thingsRemoved": readThings(in, removedThings); return true;
+            case "tasksAdded":
+                in.beginArray();
+                while (in.hasNext()) addedTasks.add(TaskInfo.read(in));
+                in.endArray();
+                return true;
+            case "tasksRemoved":
+                in.beginArray();
+                while (in.hasNext()) removedTasks.add(in.nextString());
+                in.endArray();
+                return true;
+            case "terrainAdded": readTerrain(in, addedTerrain); return true;
+            case "terrainRemoved": readTerrain(in, removedTerrain); return true;
+            case "attachedAdded": addedAttached.addAll(StepPercept.readPositions(in)); return true;
+            case "attachedRemoved": removedAttached.addAll(StepPercept.readPositions(in)); return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * Reads the fields of the delta from a percept object.
+     */
+    static PerceptDelta fromJson(JSONObject percept) {
+        var delta = new PerceptDelta();
+        delta.base = percept.getLong("delta");
+        var things = percept.optJSONArray("thingsAdded");
+        if (things != null) for (var i = 0; i < things.length(); i++)
+            delta.addedThings.add(Thing.fromJson(things.getJSONObject(i)));
+        things = percept.optJSONArray("thingsRemoved");
+        if (things != null) for (var i = 0; i < things.length(); i++)
+            delta.removedThings.add(Thing.fromJson(things.getJSONObject(i)));
+        var tasks = percept.optJSONArray("tasksAdded");
+        if (tasks != null) for (var i = 0; i < tasks.length(); i++)
+            delta.addedTasks.add(TaskInfo.fromJson(tasks.getJSONObject(i)));
+        tasks = percept.optJSONArray("tasksRemoved");
+        if (tasks != null) for (var i = 0; i < tasks.length(); i++) delta.removedTasks.add(tasks.getString(i));
+        terrainFromJSON(percept.optJSONObject("terrainAdded"), delta.addedTerrain);
+        terrainFromJSON(percept.optJSONObject("terrainRemoved"), delta.removedTerrain);
+        positionsFromJSON(percept.optJSONArray("attachedAdded"), delta.addedAttached);
+        positionsFromJSON(percept.optJSONArray("attachedRemoved"), delta.removedAttached);
+        for (var field : List.of("score", "energy", "disabled", "task"))
+            if (percept.has(field)) delta.changed |= flag(field);
+        return delta;
+    }
+
+    private static Map<ThingKey, Thing> keys(Set<Thing> things) {
+        var keys = new HashMap<ThingKey, Thing>();
+        things.forEach(thing -> keys.put(new ThingKey(thing), thing));
+        return keys;
+    }
+
+    private static void difference(Set<Position> a, Set<Position> b, Set<Position> result) {
+        for (var p : a) if (!b.contains(p)) result.add(p);
+    }
+
+    private static void difference(Map<String, Set<Position>> a, Map<String, Set<Position>> b,
+                                   Map<String, Set<Position>> result) {
+        a.forEach((type, positions) -> {
+            var diff = new HashSet<Position>();
+            difference(positions, b.getOrDefault(type, Set.of()), diff);
+            if (!diff.isEmpty()) result.put(type, diff);
+        });
+    }
+
+    private static void writeTerrain(DocumentWriter out, String name, Map<String, Set<Position>> terrain) {
+        if (terrain.isEmpty()) return;
+        out.name(name).beginObject();
+        terrain.forEach((type, positions) -> writePositions(out, type, positions));
+        out.endObject();
+    }
+
+    private static void writePositions(DocumentWriter out, String name, Set<Position> positions) {
+        if (positions.isEmpty()) return;
+        out.name(name).beginArray();
+        for (var p : positions) out.beginArray().value(p.x).value(p.y).endArray();
+        out.endArray();
+    }
+
+    private static void readThings(DocumentReader in, List<Thing> things) {
+        in.beginArray();
+        while (in.hasNext()) things.add(Thing.read(in));
+        in.endArray();
+    }
+
+    private static void readTerrain(DocumentReader in, Map<String, Set<Position>> terrain) {
+        in.beginObject();
+        while (in.hasNext()) {
+            var type = in.nextName();
+            terrain.put(type, StepPercept.readPositions(in));
+        }
+        in.endObject();
+    }
+
+    private static JSONObject terrainToJSON(Map<String, Set<Position>> terrain) {
+        var json = new JSONObject();
+        terrain.forEach((type, positions) -> json.put(type, positionsToJSON(positions)));
+        return json;
+    }
+
+    private static JSONArray positionsToJSON(Set<Position> positions) {
+        var json = new JSONArray();
+        positions.forEach(p -> json.put(p.toJSON()));
+        return json;
+    }
+
+    private static void terrainFromJSON(JSONObject json, Map<String, Set<Position>> terrain) {
+        if (json == null) return;
+        json.keys().forEachRemaining(type -> {
+            var positions = new HashSet<Position>();
+            positionsFromJSON(json.getJSONArray(type), positions);
+            terrain.put(type, positions);
+        });
+    }
+
+    private static void positionsFromJSON(JSONArray json, Set<Position> positions) {
+        if (json == null) return;
+        for (var i = 0; i < json.length(); i++) positions.add(Position.fromJSON(json.getJSONArray(i)));
+    }
+
+    /**
+     * Compares things by their values.
+     */
+    private static final class ThingKey {
+
+        private final Thing thing;
+
+        ThingKey(Thing thing) {
+            this.thing = thing;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ThingKey)) return false;
+            var other = ((ThingKey) o).thing;
+            return thing.x == other.x && thing.y == other.y && Objects.equals(thing.type, other.type)
+                    && Objects.equals(thing.details, other.details);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(thing.x, thing.y, thing.type, thing.details);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package massim.protocol.messages.scenario;
 
 import massim.protocol.data.Position;
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.DocumentWriter;
 import massim.protocol.messages.RequestActionMessage;
 import massim.protocol.data.TaskInfo;
 import massim.protocol.data.Thing;
@@ -23,11 +25,25 @@ public class StepPercept extends RequestActionMessage {
     public boolean disabled;
     public String task;
 
+    private StepTasks sharedTasks;
+    private PerceptDelta delta;
+
     public StepPercept(JSONObject content) {
         super(content);
         parsePercept(content.getJSONObject("percept"));
     }
 
+    public StepPercept(DocumentReader content) {
+        super(0, -1, -1, -1);
+        content.beginObject();
+        while (content.hasNext()) {
+            var name = content.nextName();
+            if (name.equals("percept")) readPercept(content);
+            else if (!readField(name, content)) content.skipValue();
+        }
+        content.endObject();
+    }
+
     public StepPercept(int step, long score, Set<Thing> things, Map<String, Set<Position>> terrain,
                        Set<TaskInfo> taskInfo, String action, List<String> lastActionParams, String result,
                        Set<Position> attachedThings, String task) {
@@ -43,21 +59,89 @@ public class StepPercept extends RequestActionMessage {
         this.task = task;
     }
 
+    /**
+     * @param tasks the tasks of the step, which are shared by the percepts of all agents (and only encoded once)
+     */
+    public StepPercept(int step, long score, Set<Thing> things, Map<String, Set<Position>> terrain,
+                       StepTasks tasks, String action, List<String> lastActionParams, String result,
+                       Set<Position> attachedThings, String task) {
+        this(step, score, things, terrain, Set.of(), action, lastActionParams, result, attachedThings, task);
+        this.sharedTasks = tasks;
+        this.taskInfo = tasks.getTasks();
+    }
+
+    /**
+     * Creates a delta percept holding the same state as the given percept.
+     */
+    private StepPercept(StepPercept percept, PerceptDelta delta) {
+        super(percept.getTime(), percept.getId(), percept.getDeadline(), percept.getStep());
+        this.score = percept.score;
+        this.things = percept.things;
+        this.sharedTasks = percept.sharedTasks;
+        this.taskInfo = percept.taskInfo;
+        this.lastAction = percept.lastAction;
+        this.lastActionResult = percept.lastActionResult;
+        this.terrain = percept.terrain;
+        this.lastActionParams = percept.lastActionParams;
+        this.attachedThings = percept.attachedThings;
+        this.energy = percept.energy;
+        this.disabled = percept.disabled;
+        this.task = percept.task;
+        this.delta = delta;
+    }
+
+    /**
+     * @return a percept that is written as the changes since the previous percept of the same agent
+     */
+    @Override
+    public RequestActionMessage deltaTo(RequestActionMessage previous) {
+        if (!(previous instanceof StepPercept) || ((StepPercept) previous).delta != null) return this;
+        return new StepPercept(this, PerceptDelta.between((StepPercept) previous, this));
+    }
+
+    /**
+     * @return the changes since the previous percept if this is a delta percept, otherwise null
+     */
+    public PerceptDelta getDelta() {
+        return delta;
+    }
+
+    public boolean isDelta() {
+        return delta != null;
+    }
+
+    /**
+     * Completes a received delta percept with the unchanged parts of the previous percept, so that it holds the
+     * whole state afterwards (the delta is kept).
+     * @param previous the (completed) percept with the id the delta is based on
+     * @throws IllegalArgumentException if the delta is not based on the given percept
+     */
+    public void applyDelta(StepPercept previous) {
+        if (delta == null) return;
+        if (delta.base != previous.getId())
+            throw new IllegalArgumentException("Delta based on " + delta.base + " instead of " + previous.getId());
+        delta.applyTo(this, previous);
+    }
+
     @Override
     public JSONObject makePercept() {
+        if (delta != null) return makeDeltaPercept();
         var percept = new JSONObject();
         var jsonThings = new JSONArray();
-        var jsonTasks = new JSONArray();
         var jsonTerrain = new JSONObject();
         percept.put("score", score);
         percept.put("things", jsonThings);
-        percept.put("tasks", jsonTasks);
         percept.put("terrain", jsonTerrain);
         percept.put("energy", energy);
         percept.put("disabled", disabled);
         percept.put("task", task);
         things.forEach(t -> jsonThings.put(t.toJSON()));
-        taskInfo.forEach(t -> jsonTasks.put(t.toJSON()));
+        if (sharedTasks != null) percept.put("tasks", sharedTasks.toJSON());
+        else {
+            var jsonTasks = new JSONArray();
+            taskInfo.forEach(t -> jsonTasks.put(t.toJSON()));
+            percept.put("tasks", jsonTasks);
+        }
         terrain.forEach((t, positions) -> {
             JSONArray jsonPositions = new JSONArray();
             positions.forEach(p -> jsonPositions.put(p.toJSON()));
@@ -79,7 +163,81 @@ public class StepPercept extends RequestActionMessage {
         return percept;
     }
 
+    private JSONObject makeDeltaPercept() {
+        var percept = new JSONObject();
+        delta.putFields(percept);
+        if ((delta.changed & PerceptDelta.SCORE) != 0) percept.put("score", score);
+        if ((delta.changed & PerceptDelta.ENERGY) != 0) percept.put("energy", energy);
+        if ((delta.changed & PerceptDelta.DISABLED) != 0) percept.put("disabled", disabled);
+        if ((delta.changed & PerceptDelta.TASK) != 0) percept.put("task", task == null? JSONObject.NULL : task);
+        percept.put("lastAction", lastAction);
+        percept.put("lastActionResult", lastActionResult);
+        percept.put("lastActionParams", new JSONArray(lastActionParams));
+        return percept;
+    }
+
+    @Override
+    protected void writePercept(DocumentWriter out) {
+        if (delta != null) {
+            writeDeltaPercept(out);
+            return;
+        }
+        out.beginObject();
+        out.field("score", score);
+        out.name("things").beginArray();
+        for (var thing : things) thing.writeJson(out);
+        out.endArray();
+        out.name("tasks");
+        if (sharedTasks != null) sharedTasks.writeJson(out);
+        else {
+            out.beginArray();
+            for (var task : taskInfo) task.writeJson(out);
+            out.endArray();
+        }
+        out.name("terrain").beginObject();
+        terrain.forEach((t, positions) -> {
+            out.name(t).beginArray();
+            for (var p : positions) out.beginArray().value(p.x).value(p.y).endArray();
+            out.endArray();
+        });
+        out.endObject();
+        out.field("energy", energy);
+        out.field("disabled", disabled);
+        out.field("task", task);
+        out.field("lastAction", lastAction);
+        out.field("lastActionResult", lastActionResult);
+        out.name("lastActionParams").beginArray();
+        for (var param : lastActionParams) out.value(param);
+        out.endArray();
+        out.name("attached").beginArray();
+        for (var a : attachedThings) out.beginArray().value(a.x).value(a.y).endArray();
+        out.endArray();
+        out.endObject();
+    }
+
+    /**
+     * Writes only the changes and the fields describing the last action.
+     */
+    private void writeDeltaPercept(DocumentWriter out) {
+        out.beginObject();
+        delta.writeFields(out);
+        if ((delta.changed & PerceptDelta.SCORE) != 0) out.field("score", score);
+        if ((delta.changed & PerceptDelta.ENERGY) != 0) out.field("energy", energy);
+        if ((delta.changed & PerceptDelta.DISABLED) != 0) out.field("disabled", disabled);
+        if ((delta.changed & PerceptDelta.TASK) != 0) out.name("task").value(task);
+        out.field("lastAction", lastAction);
+        out.field("lastActionResult", lastActionResult);
+        out.name("lastActionParams").beginArray();
+        for (var param : lastActionParams) out.value(param);
+        out.endArray();
+        out.endObject();
+    }
+
     private void parsePercept(JSONObject percept) {
+        if (percept.has("delta")) {
+            parseDeltaPercept(percept);
+            return;
+        }
         score = percept.getLong("score");
         JSONArray jsonThings = percept.getJSONArray("things");
         JSONArray jsonTasks = percept.getJSONArray("tasks");
@@ -113,4 +271,76 @@ public class StepPercept extends RequestActionMessage {
         disabled = percept.getBoolean("disabled");
         task = percept.getString("task");
     }
+
+    private void parseDeltaPercept(JSONObject percept) {
+        delta = PerceptDelta.fromJson(percept);
+        score = percept.optLong("score");
+        energy = percept.optInt("energy");
+        disabled = percept.optBoolean("disabled");
+        task = percept.isNull("task")? null : percept.getString("task");
+        lastAction = percept.getString("lastAction");
+        lastActionResult = percept.getString("lastActionResult");
+        var params = percept.getJSONArray("lastActionParams");
+        for (int i = 0; i < params.length(); i++) lastActionParams.add(params.getString(i));
+    }
+
+    private void readPercept(DocumentReader percept) {
+        var fields = 0; // the scalar fields that are present (and have changed, if it is a delta)
+        percept.beginObject();
+        while (percept.hasNext()) {
+            var name = percept.nextName();
+            fields |= PerceptDelta.flag(name);
+            if (delta == null && PerceptDelta.FIELDS.contains(name)) delta = new PerceptDelta();
+            if (delta != null && delta.readField(name, percept)) continue;
+            switch (name) {
+                case "score": score = percept.nextLong(); break;
+                case "things":
+                    percept.beginArray();
+                    while (percept.hasNext()) things.add(Thing.read(percept));
+                    percept.endArray();
+                    break;
+                case "tasks":
+                    percept.beginArray();
+                    while (percept.hasNext()) taskInfo.add(TaskInfo.read(percept));
+                    percept.endArray();
+                    break;
+                case "terrain":
+                    percept.beginObject();
+                    while (percept.hasNext()) {
+                        var t = percept.nextName();
+                        terrain.put(t, readPositions(percept));
+                    }
+                    percept.endObject();
+                    break;
+                case "lastAction": lastAction = percept.nextString(); break;
+                case "lastActionResult": lastActionResult = percept.nextString(); break;
+                case "lastActionParams":
+                    percept.beginArray();
+                    while (percept.hasNext()) lastActionParams.add(percept.nextString());
+                    percept.endArray();
+                    break;
+                case "attached": attachedThings = readPositions(percept); break;
+                case "energy": energy = percept.nextInt(); break;
+                case "disabled": disabled = percept.nextBoolean(); break;
+                case "task": task = percept.nextString(); break;
+                default: percept.skipValue();
+            }
+        }
+        percept.endObject();
+        if (delta != null) delta.changed = fields;
+    }
+
+    static Set<Position> readPositions(DocumentReader in) {
+        Set<Position> positions = new HashSet<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            in.beginArray();
+            var x = in.nextInt();
+            var y = in.nextInt();
+            in.endArray();
+            positions.add(Position.of(x, y));
+        }
+        in.endArray();
+        return positions;
+    }
 }
@@ -0,0 +1,97 @@
+package massim.protocol.messages.scenario;
+
+import massim.protocol.data.TaskInfo;
+import massim.protocol.io.DocumentWriter;
+import massim.protocol.io.JsonWriter;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The open tasks of one step, shared by the percepts of all agents.
+ * The tasks are converted to JSON and encoded only once, no matter how many percepts include them
+ * (separately for the JSON tree and the streamed bytes).
+ */
+public class StepTasks {
+
+    private final Set<TaskInfo> tasks;
+    private volatile JSONArray json;
+    private volatile byte[] encoded;
+
+    public StepTasks(Set<TaskInfo> tasks) {
+        this.tasks = Collections.unmodifiableSet(tasks);
+    }
+
+    public Set<TaskInfo> getTasks() {
+        return tasks;
+    }
+
+    /**
+     * @return the JSON array of all tasks, which is shared between all percepts and must not be modified
+     */
+    public JSONArray toJSON() {
+        var result = json;
+        if (result == null) {
+            synchronized (this) {
+                if (json == null) json = new EncodedArray(tasks);
+                result = json;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the JSON array of all tasks, which is only encoded the first time.
+     * Other encodings are written directly, as their strings depend on the rest of the document.
+     */
+    public void writeJson(DocumentWriter out) {
+        if (!out.writesJson()) {
+            out.beginArray();
+            for (var task : tasks) task.writeJson(out);
+            out.endArray();
+            return;
+        }
+        var result = encoded;
+        if (result == null) {
+            synchronized (this) {
+                if (encoded == null) {
+                    var tasksOut = new JsonWriter();
+                    tasksOut.beginArray();
+                    for (var task : tasks) task.writeJson(tasksOut);
+                    tasksOut.endArray();
+                    encoded = tasksOut.toByteArray();
+                }
+                result = encoded;
+            }
+        }
+        out.rawValue(result);
+    }
+
+    /**
+     * A JSON array that writes its pre-encoded text instead of encoding its elements again.
+     */
+    private static class EncodedArray extends JSONArray {
+
+        private final String encoded;
+
+        EncodedArray(Set<TaskInfo> tasks) {
+            tasks.forEach(t -> put(t.toJSON()));
+            encoded = super.toString();
+        }
+
+        @Override
+        public Writer write(Writer writer, int indentFactor, int indent) throws JSONException {
+            if (encoded == null || indentFactor > 0) return super.write(writer, indentFactor, indent);
+            try {
+                writer.write(encoded);
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+            return writer;
+        }
+    }
+}
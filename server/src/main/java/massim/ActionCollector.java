@@ -0,0 +1,102 @@
+package massim;
+
+import massim.protocol.messages.ActionMessage;
+import massim.protocol.messages.scenario.Actions;
+import massim.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects the actions of all agents for one step. There is a single deadline for the whole step:
+ * the step is closed as soon as all agents have answered or the deadline has passed, whichever comes first.
+ * Agents that have not answered by then get {@link Actions#NO_ACTION}.
+ */
+class ActionCollector {
+
+    /** marks the slots of agents that did not answer before the step was closed */
+    private static final ActionMessage CLOSED = new ActionMessage(Actions.NO_ACTION, -1, new ArrayList<>());
+
+    private final String[] agents;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final long[] actionIds;
+    private final AtomicReferenceArray<ActionMessage> actions;
+    private final AtomicInteger missing;
+    private final long deadline;
+    private final long deadlineMillis;
+    private final Thread collector;
+
+    /**
+     * Creates a collector for the current thread, which has to {@link #await()} the actions.
+     * @param agents the names of all agents that are asked for an action
+     * @param timeout the time in milliseconds that the agents have to answer
+     */
+    ActionCollector(Collection<String> agents, long timeout) {
+        this.agents = agents.toArray(new String[0]);
+        for (var i = 0; i < this.agents.length; i++) slots.put(this.agents[i], i);
+        this.actionIds = new long[this.agents.length];
+        this.actions = new AtomicReferenceArray<>(this.agents.length);
+        this.missing = new AtomicInteger(this.agents.length);
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.deadlineMillis = System.currentTimeMillis() + timeout;
+        this.collector = Thread.currentThread();
+    }
+
+    /**
+     * @return the deadline for the agents' answers in (wall clock) milliseconds
+     */
+    long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Remembers the ID of the action request sent to the agent.
+     */
+    void setActionId(String agent, long actionId) {
+        actionIds[slots.get(agent)] = actionId;
+    }
+
+    /**
+     * Adds an agent's action. Can be called from any thread.
+     * @return true if the action was accepted, false if the step was already closed or the agent already answered
+     */
+    boolean submit(String agent, ActionMessage action) {
+        var slot = slots.get(agent);
+        if (slot == null || !actions.compareAndSet(slot, null, action)) return false;
+        if (missing.decrementAndGet() == 0) LockSupport.unpark(collector);
+        return true;
+    }
+
+    /**
+     * Blocks until all actions have been submitted or the deadline has passed. Afterwards, no more actions are accepted.
+     * If the thread is interrupted, it stops waiting right away (and keeps its interrupt status).
+     * @return mapping from agent names to their actions
+     */
+    Map<String, ActionMessage> await() {
+        while (missing.get() > 0) {
+            var remaining = deadline - System.nanoTime();
+            if (remaining <= 0) break;
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                // parking would return immediately from now on
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Map<String, ActionMessage> result = new HashMap<>();
+        for (var i = 0; i < agents.length; i++) {
+            if (actions.compareAndSet(i, null, CLOSED)) {
+                Log.log(Log.Level.NORMAL, "No valid action available in time for agent " + agents[i] + ".");
+                result.put(agents[i], new ActionMessage(Actions.NO_ACTION, actionIds[i], new ArrayList<>()));
+            }
+            else result.put(agents[i], actions.get(i));
+        }
+        return result;
+    }
+}
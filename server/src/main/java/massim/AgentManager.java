@@ -1,17 +1,18 @@
 package massim;
 
 import massim.config.TeamConfig;
+import massim.protocol.io.DeflateFrameEncoder;
+import massim.protocol.io.FrameDecoder;
+import massim.protocol.io.JsonReader;
 import massim.protocol.messages.*;
-import massim.protocol.messages.scenario.Actions;
 import massim.util.Log;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.*;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
@@ -30,9 +31,20 @@ class AgentManager {
     private int maxPacketLength;
 
     /**
-     * If an agent's sendQueue is already "full", the oldest element will be removed before a new one is added
+     * The non-blocking transport for all agent connections or null if each agent uses its own blocking threads.
      */
-    private int sendBufferSize = 4;
+    private NioTransport transport;
+
+
+    /**
+     * How many encoding buffers each agent keeps for reuse
+     */
+    private int pooledBuffers = 4;
+
+    /**
+     * After how many delta percepts an agent gets a complete percept again
+     */
+    private int keyframeInterval;
 
     /**
      * Creates a new agent manager responsible for sending and receiving messages.
@@ -40,13 +52,19 @@ class AgentManager {
      * @param agentTimeout the timeout to use for request-action messages (to wait for actions) in milliseconds
      * @param maxPacketLength the maximum size of packets to <b>process</b> (they are received anyway, just not parsed
      *                        in case they are too big)
+     * @param ioThreads the number of threads of the non-blocking transport or 0 to use two blocking threads per agent
+     * @param keyframeInterval after how many delta percepts an agent (that asked for them) gets a complete percept
+     * @throws IOException if the non-blocking transport cannot be created
      */
-    AgentManager(List<TeamConfig> teams, long agentTimeout, int maxPacketLength) {
+    AgentManager(List<TeamConfig> teams, long agentTimeout, int maxPacketLength, int ioThreads, int keyframeInterval)
+            throws IOException {
         teams.forEach(team -> team.getAgentNames().forEach((name) -> {
             agents.put(name, new AgentProxy(name, team.getName(), team.getPassword(name)));
         }));
         this.agentTimeout = agentTimeout;
         this.maxPacketLength = maxPacketLength;
+        this.keyframeInterval = keyframeInterval;
+        if (ioThreads > 0) transport = new NioTransport(ioThreads, maxPacketLength);
     }
 
     /**
@@ -54,16 +72,20 @@ class AgentManager {
      */
     void stop(){
         disconnecting = true;
-        agents.values().forEach(AgentProxy::close);
+        var bye = new Packet.Shared(new ByeMessage(System.currentTimeMillis()));
+        agents.values().forEach(agent -> agent.close(bye));
+        if (transport != null) transport.stop();
     }
 
     /**
-     * Sets a new socket for the given agent that was just authenticated (again or for the first time).
-     * @param s the new socket opened for the agent
+     * Sets a new connection for the given agent that was just authenticated (again or for the first time).
+     * @param channel the new (blocking) TCP or Unix domain socket channel opened for the agent
      * @param agentName the name of the agent
+     * @param negotiated the response to the agent's authentication, holding the compression, protocol version
+     *                   and kind of percepts of the messages to the agent
      */
-    void handleNewConnection(Socket s, String agentName){
-        if (agents.containsKey(agentName)) agents.get(agentName).handleNewConnection(s);
+    void handleNewConnection(SocketChannel channel, String agentName, AuthResponseMessage negotiated){
+        if (agents.containsKey(agentName)) agents.get(agentName).handleNewConnection(channel, negotiated);
     }
 
     /**
@@ -90,38 +112,37 @@ class AgentManager {
 
     /**
      * Uses the percepts to send a request-action message and waits for the action answers.
-     * {@link #agentTimeout} is used to limit the waiting time per agent.
+     * All agents share one deadline {@link #agentTimeout} milliseconds from now. The step is closed as soon as
+     * the last agent has answered.
      * @param percepts mapping from agent names to percepts of the current simulation state
      * @return mapping from agent names to actions received in response
      */
     Map<String, ActionMessage> requestActions(Map<String, RequestActionMessage> percepts) {
-        // each thread needs to countdown the latch when it finishes
-        CountDownLatch latch = new CountDownLatch(percepts.keySet().size());
-        Map<String, ActionMessage> resultMap = new ConcurrentHashMap<>();
-        percepts.forEach((agName, percept) -> {
-            // start a new thread to get each action
-            new Thread(() -> {
-                ActionMessage action = agents.get(agName).requestAction(percept);
-                resultMap.put(agName, action);
-                latch.countDown();
-            }).start();
-        });
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            Log.log(Log.Level.ERROR, "Latch interrupted. Actions probably incomplete.");
-        }
-        return resultMap;
+        var collector = new ActionCollector(percepts.keySet(), agentTimeout);
+        percepts.forEach((agName, percept) -> agents.get(agName).requestAction(percept, collector));
+        return collector.await();
+    }
+
+    /**
+     * Logs the transport statistics of each agent.
+     */
+    void logStatistics() {
+        agents.values().stream().sorted(Comparator.comparing(a -> a.name)).forEach(agent ->
+                Log.log(Log.Level.NORMAL, "Agent " + agent.name + ": " + agent.inFlightActions.getLateAnswers()
+                        + " late actions, " + agent.sendQueue.getDroppedPackets() + " dropped messages, "
+                        + agent.sendQueue.size() + " queued messages (max. " + agent.sendQueue.getMaxDepth() + ")"));
     }
 
     /**
-     * Sends sim-end percepts to the agents.
+     * Sends sim-end percepts to the agents. Each distinct percept (e.g. one per team) is only encoded once
+     * (per format).
      * @param finalPercepts mapping from agent names to sim-end percepts
      */
     void handleFinalPercepts(Map<String, SimEndMessage> finalPercepts) {
+        var encoded = new IdentityHashMap<SimEndMessage, Packet.Shared>();
         finalPercepts.forEach((agName, percept) -> {
             if (agents.containsKey(agName)){
-                agents.get(agName).handleFinalPercept(percept);
+                agents.get(agName).handleFinalPercept(encoded.computeIfAbsent(percept, Packet.Shared::new));
             }
         });
     }
@@ -138,14 +159,22 @@ class AgentManager {
         private String password;
 
         // networking things
-        private Socket socket;
+        private SocketChannel channel;
         private Thread sendThread;
         private Thread receiveThread;
+        private volatile NioTransport.Connection connection;
+        private final Packet.Pool packets = new Packet.Pool(pooledBuffers, 8192);
+        private boolean binary;
+        private boolean deltaPercepts;
+
+        /** the last percept (if the agent gets delta percepts) and how many deltas have been sent since a complete one */
+        private RequestActionMessage lastPercept;
+        private int deltasSinceKeyframe;
 
         // concurrency magic
         private AtomicLong messageCounter = new AtomicLong();
-        private LinkedBlockingDeque<JSONObject> sendQueue = new LinkedBlockingDeque<>();
-        private Map<Long, CompletableFuture<JSONObject>> futureActions = new ConcurrentHashMap<>();
+        private volatile SendQueue sendQueue = new SendQueue();
+        private InFlightActions inFlightActions = new InFlightActions();
 
         private SimStartMessage lastSimStartMessage;
 
@@ -165,99 +194,140 @@ class AgentManager {
          * Creates a message for the given initial percept and sends it to the remote agent.
          * @param percept the initial percept to forward
          */
-        void handleInitialPercept(SimStartMessage percept) {
+        synchronized void handleInitialPercept(SimStartMessage percept) {
             lastSimStartMessage = percept;
+            lastPercept = null; // the first percept of a simulation is complete
             sendMessage(lastSimStartMessage);
         }
 
         /**
          * Creates a request-action message and sends it to the agent.
-         * Should be called within a new thread, as it blocks up to {@link #agentTimeout} milliseconds.
          * @param percept the step percept to forward
-         * @return the action that was received by the agent (or {@link Actions#NO_ACTION})
+         * @param collector the collector that the agent's answer is submitted to
          */
-        ActionMessage requestAction(RequestActionMessage percept) {
+        void requestAction(RequestActionMessage percept, ActionCollector collector) {
             long id = messageCounter.getAndIncrement();
-            percept.updateIdAndDeadline(id, System.currentTimeMillis() + agentTimeout);
-            CompletableFuture<JSONObject> futureAction = new CompletableFuture<>();
-            futureActions.put(id, futureAction);
-            sendMessage(percept);
-            try {
-                // wait for action to be received
-                JSONObject json = futureAction.get(agentTimeout, TimeUnit.MILLISECONDS);
-                Message msg = Message.buildFromJson(json);
-                if(msg instanceof ActionMessage){
-                    return (ActionMessage) msg;
-                }
-            } catch (InterruptedException | ExecutionException e) {
-                Log.log(Log.Level.ERROR, "Interrupted while waiting for action.");
-            } catch (TimeoutException e) {
-                Log.log(Log.Level.NORMAL, "No valid action available in time for agent " + name + ".");
+            percept.updateIdAndDeadline(id, collector.getDeadlineMillis());
+            collector.setActionId(name, id);
+            inFlightActions.register(id, collector);
+            sendPercept(percept);
+        }
+
+        /**
+         * Sends the percept or (if the agent asked for it) only its changes since the previous one.
+         * A complete percept is sent after a (re)connection, every {@link #keyframeInterval} percepts and whenever
+         * the previous one has not been sent yet, as it is then replaced in the send queue (and never arrives).
+         */
+        private synchronized void sendPercept(RequestActionMessage percept) {
+            if (!deltaPercepts) {
+                sendMessage(percept);
+                return;
             }
-            return new ActionMessage(Actions.NO_ACTION, id, new ArrayList<>());
+            var message = percept;
+            if (lastPercept != null && deltasSinceKeyframe < keyframeInterval && !sendQueue.hasPendingRequest())
+                message = percept.deltaTo(lastPercept);
+            deltasSinceKeyframe = message == percept? 0 : deltasSinceKeyframe + 1;
+            lastPercept = percept;
+            sendMessage(message);
         }
 
         /**
-         * Creates and send a sim-end message to the agent.
-         * @param percept the percept to append to the message.
+         * Sends a sim-end message to the agent.
+         * @param percept the sim-end message (shared with other agents)
          */
-        void handleFinalPercept(SimEndMessage percept) {
+        synchronized void handleFinalPercept(Packet.Shared percept) {
             lastSimStartMessage = null; // now we can stop resending it
-            sendMessage(percept);
+            lastPercept = null;
+            sendShared(percept);
         }
 
         /**
          * Sets a new endpoint for sending and receiving messages. If a socket is already present, it is replaced and closed.
-         * @param newSocket the new socket to use for this agent
+         * @param newChannel the new channel to use for this agent
+         * @param negotiated the response to the authentication, holding how the messages to the agent are sent
          */
-        private void handleNewConnection(Socket newSocket){
+        private synchronized void handleNewConnection(SocketChannel newChannel, AuthResponseMessage negotiated){
+            var compressed = negotiated.getCompression() != null;
+            binary = negotiated.getProtocol() == AuthRequestMessage.PROTOCOL_BINARY;
+            deltaPercepts = negotiated.getPercepts() != null;
+            lastPercept = null; // the agent may have missed anything before
+            if (transport != null) {
+                handleNewChannel(newChannel, compressed);
+                return;
+            }
             // potentially close old socket
             if (sendThread != null) sendThread.interrupt();
             if (receiveThread != null) receiveThread.interrupt();
-            if (socket != null) try { socket.close(); } catch (IOException ignored) {}
+            if (channel != null) try { channel.close(); } catch (IOException ignored) {}
             // set new socket and open new threads
-            socket = newSocket;
-            sendQueue.clear();
+            channel = newChannel;
+            replaceSendQueue();
             // resend sim start message if available
-            if(lastSimStartMessage != null) sendQueue.addFirst(lastSimStartMessage.toJson());
-            sendThread = new Thread(this::send);
+            if(lastSimStartMessage != null) sendQueue.put(packets.encode(lastSimStartMessage, binary));
+            var queue = sendQueue;
+            sendThread = new Thread(() -> send(queue, compressed));
             sendThread.start();
             receiveThread = new Thread(this::receive);
             receiveThread.start();
         }
 
         /**
-         * Reads JSON objects (0-terminated) from the socket. If any "packet" is bigger than
-         * {@link #maxPacketLength}, the read bytes are immediately discarded until the next 0 byte.
+         * Replaces the current connection with the new channel, which is served by the non-blocking transport.
+         */
+        private void handleNewChannel(SocketChannel newChannel, boolean compressed) {
+            if (connection != null) connection.close();
+            channel = newChannel;
+            replaceSendQueue();
+            try {
+                connection = transport.register(newChannel, sendQueue,
+                        compressed? new DeflateFrameEncoder() : null, frameHandler(),
+                        () -> Log.log(Log.Level.DEBUG, name + ": Connection closed."));
+            } catch (IOException e) {
+                Log.log(Log.Level.ERROR, name + ": Cannot register connection: " + e.getMessage());
+                return;
+            }
+            // resend sim start message if available
+            if(lastSimStartMessage != null) connection.send(packets.encode(lastSimStartMessage, binary));
+        }
+
+        /**
+         * Gives the new connection its own send queue. Whatever is left for the old connection is dropped.
+         */
+        private void replaceSendQueue() {
+            var previous = sendQueue;
+            sendQueue = new SendQueue(previous);
+            previous.clear();
+        }
+
+        /**
+         * @return a handler for the packets of one connection of the non-blocking transport (with its own reader,
+         *         as the old and the new connection may be read at the same time)
+         */
+        private NioTransport.FrameHandler frameHandler() {
+            var reader = new JsonReader(new byte[0]);
+            return (source, buffer, offset, length) -> {
+                try {
+                    handleReceivedMessage(Message.readFrom(reader.reset(buffer, offset, length)));
+                } catch (JSONException e) {
+                    Log.log(Log.Level.ERROR, "Error receiving json object. Stop receiving.");
+                    source.close();
+                }
+            };
+        }
+
+        /**
+         * Reads JSON objects (0-terminated) from the socket and decodes them directly into messages.
+         * If any "packet" is bigger than {@link #maxPacketLength}, the read bytes are immediately discarded
+         * until the next 0 byte.
          */
         private void receive() {
-            InputStream in;
+            var channel = this.channel;
             try {
-                in = new BufferedInputStream(socket.getInputStream());
-                var buffer = new ByteArrayOutputStream(maxPacketLength);
-                var readBytes = 0;
-                var skipping = false;
-                while (!disconnecting){
-                    var b = in.read();
-                    if (!skipping && b != 0) buffer.write(b);
-                    if(b == -1) break; // stream ended
-                    if (b == 0){
-                        if (skipping){
-                            skipping = false; // new packet next up
-                        }
-                        else {
-                            // json object complete
-                            JSONObject json = new JSONObject(new String(buffer.toByteArray()));
-                            handleReceivedMessage(json);
-                            buffer = new ByteArrayOutputStream();
-                            readBytes = 0;
-                        }
-                    }
-                    if (readBytes++ >= maxPacketLength){
-                        buffer = new ByteArrayOutputStream();
-                        readBytes = 0;
-                        skipping = true;
-                    }
+                var frames = new FrameDecoder(maxPacketLength);
+                var reader = new JsonReader(new byte[0]);
+                while (!disconnecting && frames.readFrame(channel)) {
+                    reader.reset(frames.buffer(), frames.frameOffset(), frames.frameLength());
+                    handleReceivedMessage(Message.readFrom(reader));
                 }
             } catch (IOException | JSONException e) {
                 Log.log(Log.Level.ERROR, "Error receiving json object. Stop receiving.");
@@ -265,23 +335,23 @@ class AgentManager {
         }
 
         /**
-         * Handles one received document (from the remote agent).
-         * @param json the json object that needs to be processed
+         * Handles one received message (from the remote agent).
+         * @param message the message that needs to be processed
          */
-        private void handleReceivedMessage(JSONObject json) {
-
-            Message message = Message.buildFromJson(json);
+        private void handleReceivedMessage(Message message) {
             if(message == null) {
                 Log.log(Log.Level.ERROR, "Received invalid message.");
                 return;
             }
             if(message instanceof ActionMessage){
                 ActionMessage action = (ActionMessage) message;
-                long actionID = action.getId();
-                if(actionID != -1 && futureActions.containsKey(actionID)){
-                    futureActions.get(actionID).complete(json);
+                switch (inFlightActions.answer(name, action)) {
+                    case LATE:
+                        Log.log(Log.Level.DEBUG, "Late action id " + action.getId() + " from " + name);
+                        break;
+                    case INVALID:
+                        Log.log(Log.Level.ERROR, "Invalid action id " + action.getId() + " from " + name);
                 }
-                else Log.log(Log.Level.ERROR, "Invalid action id " + actionID + " from " + name);
             }
             else{
                 Log.log(Log.Level.NORMAL, "Received unknown message type from " + name);
@@ -289,31 +359,43 @@ class AgentManager {
         }
 
         /**
-         * Sends all messages from {@link #sendQueue}, blocks if it is empty.
+         * Sends all packets from the queue of the current connection, blocks if it is empty.
+         * Each packet is written to the channel with one gathering write.
+         * @param queue the send queue of the connection
+         * @param compressed whether to compress the packets (into one compressed stream)
          */
-        private void send() {
+        private void send(SendQueue queue, boolean compressed) {
+            var channel = this.channel;
+            var compressor = compressed? new DeflateFrameEncoder() : null;
             while (true) {
-                if (disconnecting && sendQueue.isEmpty()) { // we can stop when everything is sent (e.g. the bye message)
+                if (disconnecting && queue.isEmpty()) { // we can stop when everything is sent (e.g. the bye message)
                     break;
                 }
+                Packet packet = null;
                 try {
-                    var osw = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
-                    var msg = sendQueue.take();
-                    osw.write(msg.toString());
-                    osw.write(0);
-                    osw.flush();
+                    packet = queue.take();
+                    if (compressor != null) packet = packet.deflate(compressor);
+                    packet.writeTo(channel);
                 } catch (IOException | InterruptedException e){
                     Log.log(Log.Level.DEBUG, name + ": Error writing to socket. Stop sending now.");
                     break;
+                } finally {
+                    if (packet != null) packet.release();
                 }
             }
+            if (compressor != null) compressor.end();
         }
 
         /**
          * Closes socket and stops threads (if they exist).
+         * @param bye the bye message to send before closing
          */
-        private void close() {
-            sendMessage(new ByeMessage(System.currentTimeMillis()));
+        private void close(Packet.Shared bye) {
+            sendShared(bye);
+            if (transport != null) {
+                closeChannel();
+                return;
+            }
             try {
                 if(sendThread != null)
                     sendThread.join(5000); // give bye-message some time to be sent (but not too much)
@@ -322,26 +404,54 @@ class AgentManager {
             }
             if (sendThread != null) sendThread.interrupt();
             if (receiveThread != null) receiveThread.interrupt();
-            if (socket != null) {
+            if (channel != null) {
                 try {
-                    socket.close();
+                    channel.close();
                 } catch (IOException ignored) {}
             }
         }
 
         /**
-         * Puts the given message into the send queue as soon as possible.
+         * Gives the bye-message some time to be sent (but not too much) before closing the connection.
+         */
+        private void closeChannel() {
+            var current = connection;
+            if (current == null) return;
+            current.closeWhenFlushed();
+            var deadline = System.currentTimeMillis() + 5000;
+            while (!current.isClosed() && System.currentTimeMillis() < deadline) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(10);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            current.close();
+        }
+
+        /**
+         * Encodes the message right away (in the format of the current connection) and puts it into the send queue.
          * @param message the message document to send
          */
-        private void sendMessage(Message message){
-            while (sendQueue.size() > sendBufferSize)
-                sendQueue.poll();
+        private synchronized void sendMessage(Message message){
+            sendPacket(packets.encode(message, binary));
+        }
 
-            try {
-                sendQueue.put(message.toJson());
-            } catch (InterruptedException e) {
-                Log.log(Log.Level.ERROR, "Interrupted while trying to put message into queue.");
-            }
+        /**
+         * Puts a copy of the shared message (in the format of the current connection) into the send queue.
+         */
+        private synchronized void sendShared(Packet.Shared message){
+            sendPacket(message.copy(binary));
+        }
+
+        /**
+         * Puts the given packet into the send queue (replacing a request-action that has not been sent yet).
+         * @param packet the encoded message to send
+         */
+        private void sendPacket(Packet packet){
+            var current = connection;
+            if (current != null) current.send(packet);
+            else sendQueue.put(packet);
         }
     }
 }
@@ -1,16 +1,32 @@
 package massim;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import massim.config.ServerConfig;
+import massim.protocol.io.FrameDecoder;
+import massim.protocol.io.FrameEncoder;
+import massim.protocol.io.JsonReader;
+import massim.protocol.io.JsonWriter;
+import massim.protocol.io.UnixDomainSockets;
 import massim.protocol.messages.AuthRequestMessage;
 import massim.protocol.messages.AuthResponseMessage;
 import massim.protocol.messages.Message;
@@ -20,17 +36,54 @@ import massim.util.Log;
 
 /**
  * This is where all initial network requests go in.
+ * One thread accepts all connections and reads their first message without blocking. Status requests are
+ * answered right away, authentication requests are handled by a bounded pool of workers, which pass the
+ * channel on to the agent manager. Connections that do not send a complete message in time are closed.
+ * Besides the TCP port, the front desk can listen on a Unix domain socket for agents on the same host.
  * @author ta10
  */
 class FrontDesk {
 
-    private boolean stopped = false;
-    private final ServerSocket serverSocket;
+    /**
+     * The initial buffer size for reading the first message (auth and status requests are short).
+     */
+    private static final int HANDSHAKE_BUFFER = 512;
+
+    /**
+     * How many bytes of a message that cannot be handled are logged.
+     */
+    private static final int LOGGED_MESSAGE_PREFIX = 100;
+
+    private volatile boolean stopped = false;
+    private final ServerSocketChannel serverChannel;
+    private final ServerSocketChannel unixChannel;
+    private final String unixSocketPath;
+    /** identifies the socket file created by this front desk */
+    private final Object unixSocketKey;
+    private final Selector selector;
     private final Thread thread;
+    private final ThreadPoolExecutor workers;
     private final AgentManager agentManager;
+    private final int maxPacketLength;
+    private final long handshakeTimeout;
+
+    /** the connections that have not sent their first message yet, in the order of their deadlines */
+    private final LinkedHashSet<Handshake> handshakes = new LinkedHashSet<>();
+    /** the authentication requests whose channels have to leave the selector before they are handled */
+    private final List<Handshake> handovers = new ArrayList<>();
+    private final JsonWriter statusWriter = new JsonWriter(256);
 
     private final Status simStatus = new Status();
 
+    // statistics
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    private final AtomicLong completedHandshakes = new AtomicLong();
+    private final AtomicLong handshakeNanos = new AtomicLong();
+    private final AtomicLong maxHandshakeNanos = new AtomicLong();
+    private long lastLogTime = System.nanoTime();
+    private long lastLogAccepted;
+
     /**
      * Creates a new listener waiting for incoming connections.
      * @param agentMng the agent connection manager
@@ -39,20 +92,42 @@ class FrontDesk {
     FrontDesk(AgentManager agentMng, ServerConfig config) throws IOException {
         setTeamSizes(config.teamSizes.toArray(new Integer[0]));
         agentManager = agentMng;
-        serverSocket = new ServerSocket(config.port, config.backlog, null);
-        thread = new Thread(() -> {
-            while (!stopped) {
-                try {
-                    Log.log(Log.Level.DEBUG, "Waiting for connection...");
-                    Socket s = serverSocket.accept();
-                    Log.log(Log.Level.DEBUG,"Got a connection.");
-                    Thread t = new Thread(() -> handleSocket(s));
-                    t.start();
-                } catch (IOException e) {
-                    Log.log(Log.Level.DEBUG,"Stop listening");
-                }
+        maxPacketLength = config.maxPacketLength;
+        handshakeTimeout = config.handshakeTimeout;
+        // accepted sockets have channels, so that they can also be handed over to the non-blocking transport
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.port), config.backlog);
+        serverChannel.configureBlocking(false);
+        selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        unixSocketPath = config.unixSocketPath;
+        if (unixSocketPath != null) {
+            try {
+                unixChannel = UnixDomainSockets.bind(unixSocketPath, config.backlog);
+                unixSocketKey = UnixDomainSockets.fileKey(unixSocketPath);
+            } catch (IOException e) {
+                // e.g. another server is listening there already
+                serverChannel.close();
+                selector.close();
+                throw e;
             }
-        });
+            unixChannel.configureBlocking(false);
+            unixChannel.register(selector, SelectionKey.OP_ACCEPT);
+            Log.log(Log.Level.NORMAL, "Listening on Unix domain socket " + unixSocketPath);
+        }
+        else {
+            unixChannel = null;
+            unixSocketKey = null;
+        }
+        var workerCount = Math.max(1, config.handshakeWorkers);
+        var workerIndex = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.backlog)), r -> {
+                    var worker = new Thread(r, "front-desk-" + workerIndex.getAndIncrement());
+                    worker.setDaemon(true);
+                    return worker;
+                });
+        thread = new Thread(this::run, "front-desk");
     }
 
     /**
@@ -68,30 +143,192 @@ class FrontDesk {
     void close() {
         try {
             stopped = true;
-            serverSocket.close();
+            selector.wakeup();
+            serverChannel.close();
+            if (unixChannel != null) {
+                unixChannel.close();
+                UnixDomainSockets.delete(unixSocketPath, unixSocketKey);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        workers.shutdown();
     }
 
     /**
-     * Creates and sends an auth-response message on the given socket.
-     * @param s the socket to send on
-     * @param result whether the authentication was successful
+     * @return the port the front desk is listening on
      */
-    private void sendAuthResponse(Socket s, String result) {
-        sendMessage(s, new AuthResponseMessage(System.currentTimeMillis(), result));
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    long getAcceptedConnections() {
+        return acceptedConnections.get();
     }
 
-    private void sendStatusResponse(Socket s) {
-        sendMessage(s, buildStatusResponse());
+    long getRejectedConnections() {
+        return rejectedConnections.get();
     }
 
-    private void sendMessage(Socket s, Message msg) {
+    long getCompletedHandshakes() {
+        return completedHandshakes.get();
+    }
+
+    /**
+     * Logs how many connections have been accepted (and how many per second since the last call), how long
+     * the handshakes took and how many connections have been rejected.
+     */
+    synchronized void logStatistics() {
+        var now = System.nanoTime();
+        var accepted = acceptedConnections.get();
+        var handshakes = completedHandshakes.get();
+        var rate = (accepted - lastLogAccepted) * 1e9 / Math.max(1, now - lastLogTime);
+        lastLogTime = now;
+        lastLogAccepted = accepted;
+        Log.log(Log.Level.NORMAL, String.format("Front desk: %d accepted connections (%.1f/s), %d handshakes " +
+                        "(avg. %.1f ms, max. %.1f ms), %d rejected connections", accepted, rate, handshakes,
+                handshakes == 0? 0 : handshakeNanos.get() / 1e6 / handshakes, maxHandshakeNanos.get() / 1e6,
+                rejectedConnections.get()));
+    }
+
+    /**
+     * The selector loop: accepts connections, reads their first messages and closes them after the deadline.
+     */
+    private void run() {
+        while (!stopped) {
+            try {
+                // cancelled keys are only removed from the selector by the next selection
+                if (!handovers.isEmpty()) selector.selectNow();
+                else selector.select(nextDeadline());
+                handOver();
+                for (var key : selector.selectedKeys()) {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept((ServerSocketChannel) key.channel());
+                    else {
+                        var handshake = (Handshake) key.attachment();
+                        try {
+                            if (key.isReadable()) handshake.read();
+                            else if (key.isWritable()) handshake.write();
+                        } catch (RuntimeException e) {
+                            // only the connection that caused it is affected, the front desk keeps going
+                            handshake.reject("Cannot handle connection from " + address(handshake.channel)
+                                    + ": " + e);
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                expireHandshakes();
+            } catch (IOException | ClosedSelectorException e) {
+                if (!stopped) Log.log(Log.Level.ERROR, "Front desk stopped: " + e.getMessage());
+                break;
+            }
+        }
+        Log.log(Log.Level.DEBUG,"Stop listening");
+        new ArrayList<>(handshakes).forEach(Handshake::close);
         try {
-            var out = s.getOutputStream();
-            out.write(msg.toJson().toString().getBytes());
-            out.write(0);
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * @return the time until the earliest handshake deadline in ms, or 0 (i.e. no timeout) if there is none
+     */
+    private long nextDeadline() {
+        if (handshakes.isEmpty()) return 0;
+        var first = handshakes.iterator().next();
+        return Math.max(1, (first.deadline - System.nanoTime()) / 1_000_000);
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            acceptedConnections.incrementAndGet();
+            Log.log(Log.Level.DEBUG,"Got a connection.");
+            try {
+                channel.configureBlocking(false);
+                var handshake = new Handshake(channel);
+                handshake.key = channel.register(selector, SelectionKey.OP_READ, handshake);
+                handshakes.add(handshake);
+            } catch (IOException e) {
+                reject(channel, "Cannot register connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void expireHandshakes() {
+        var now = System.nanoTime();
+        var it = handshakes.iterator();
+        while (it.hasNext()) {
+            var handshake = it.next();
+            if (handshake.deadline - now > 0) break; // all later deadlines are later
+            it.remove();
+            handshake.key.cancel();
+            reject(handshake.channel, "Handshake timed out: " + address(handshake.channel));
+        }
+    }
+
+    /**
+     * Passes the channels of authentication requests (which have left the selector by now) on to the workers.
+     */
+    private void handOver() {
+        for (var handshake : handovers) {
+            try {
+                handshake.channel.configureBlocking(true);
+                workers.execute(() -> authenticate(handshake));
+            } catch (IOException e) {
+                reject(handshake.channel, "Cannot hand over connection: " + e.getMessage());
+            } catch (RejectedExecutionException e) {
+                reject(handshake.channel, "Too many pending authentications, rejecting " + address(handshake.channel));
+            }
+        }
+        handovers.clear();
+    }
+
+    private void reject(SocketChannel channel, String reason) {
+        rejectedConnections.incrementAndGet();
+        Log.log(Log.Level.ERROR, reason);
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+
+    private void recordHandshake(Handshake handshake) {
+        var nanos = System.nanoTime() - handshake.acceptTime;
+        completedHandshakes.incrementAndGet();
+        handshakeNanos.addAndGet(nanos);
+        maxHandshakeNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static String address(SocketChannel channel) {
+        try {
+            var address = channel.getRemoteAddress();
+            if (address instanceof InetSocketAddress) return ((InetSocketAddress) address).getAddress().getHostAddress();
+            return "local";
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Creates and sends an auth-response message on the given channel.
+     * @param channel the (blocking) channel to send on
+     * @param result whether the authentication was successful
+     * @param compression the compression to use for all following messages or null
+     * @param protocol the protocol version of all following messages
+     * @param percepts how the step percepts are sent or null
+     * @return the response that was sent
+     */
+    private AuthResponseMessage sendAuthResponse(SocketChannel channel, String result, String compression, int protocol,
+                                                 String percepts) {
+        var response = new AuthResponseMessage(System.currentTimeMillis(), result, compression, protocol, percepts);
+        sendMessage(channel, response);
+        return response;
+    }
+
+    private void sendMessage(SocketChannel channel, Message msg) {
+        try {
+            // channels of Unix domain sockets have no socket (and no streams)
+            new FrameEncoder(256).write(msg, UnixDomainSockets.outputStream(channel));
         } catch (IOException e) {
             Log.log(Log.Level.CRITICAL, msg.getMessageType() + " message could not be sent.");
             e.printStackTrace();
@@ -99,62 +336,138 @@ class FrontDesk {
     }
 
     /**
-     * Tries to perform agent authentication on the new socket.
-     * @param s the socket to use
+     * Performs agent authentication on a worker thread. The channel is in blocking mode again.
+     * @param handshake the connection that sent the auth request
      */
-    private void handleSocket(Socket s) {
-        try {
-            InputStream is = s.getInputStream();
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            int b;
-            while (true) {
-                b = is.read();
-                if (b == 0) break; // message completely read
-                else if (b == -1) return; // stream ended
-                else buffer.write(b);
+    private void authenticate(Handshake handshake) {
+        var s = handshake.channel;
+        var auth = handshake.auth;
+        Log.log(Log.Level.NORMAL, "got authentication: username=" + auth.getUsername() + " password="
+                + auth.getPassword() + " address=" + address(handshake.channel));
+        // check credentials and act accordingly
+        if (agentManager.auth(auth.getUsername(), auth.getPassword())) {
+            Log.log(Log.Level.NORMAL, auth.getUsername() + " authentication successful");
+            // compression is only used if the agent asked for it (and knows how to decompress)
+            var compression = AuthRequestMessage.COMPRESSION_DEFLATE.equals(auth.getCompression())?
+                    AuthRequestMessage.COMPRESSION_DEFLATE : null;
+            // the agent gets the highest protocol version both sides support
+            var protocol = Math.min(auth.getProtocol(), AuthRequestMessage.PROTOCOL_BINARY);
+            var percepts = AuthRequestMessage.PERCEPTS_DELTA.equals(auth.getPercepts())?
+                    AuthRequestMessage.PERCEPTS_DELTA : null;
+            var response = sendAuthResponse(s, AuthResponseMessage.OK, compression, protocol, percepts);
+            // the channel itself is passed on (clients wait for the response, so nothing has been read beyond it)
+            agentManager.handleNewConnection(s, auth.getUsername(), response);
+            recordHandshake(handshake);
+        } else {
+            Log.log(Log.Level.ERROR, "Got invalid authentication from: " + address(handshake.channel));
+            sendAuthResponse(s, AuthResponseMessage.FAIL, null, AuthRequestMessage.PROTOCOL_JSON, null);
+            recordHandshake(handshake);
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * A new connection that has not been handled yet. Only used by the selector thread (until it is handed over).
+     */
+    private class Handshake {
+
+        private final SocketChannel channel;
+        private final long acceptTime = System.nanoTime();
+        private final long deadline = acceptTime + TimeUnit.MILLISECONDS.toNanos(handshakeTimeout);
+        private final FrameDecoder frames = new FrameDecoder(maxPacketLength, HANDSHAKE_BUFFER);
+        private SelectionKey key;
+        private ByteBuffer reply;
+        private AuthRequestMessage auth;
+
+        Handshake(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() {
+            int read;
+            try {
+                read = frames.fill(channel);
+            } catch (IOException e) {
+                Log.log(Log.Level.ERROR, "Error while receiving authentication message: " + e.getMessage());
+                close();
+                return;
             }
+            if (frames.nextFrame()) handleMessage();
+            else if (read < 0) close(); // stream ended
+        }
 
-            String received = buffer.toString(StandardCharsets.UTF_8);
-            JSONObject json = null;
+        private void handleMessage() {
+            Message msg = null;
             try {
-                json = new JSONObject(received);
+                msg = Message.readFrom(new JsonReader(frames.buffer(), frames.frameOffset(), frames.frameLength()));
             } catch(JSONException e){
-                Log.log(Log.Level.ERROR, "Invalid JSON object received: " + received);
+                Log.log(Log.Level.ERROR, "Invalid JSON object received: " + receivedPrefix());
+            } catch (RuntimeException e) {
+                Log.log(Log.Level.ERROR, "Cannot decode message (" + e + "): " + receivedPrefix());
             }
-            Message msg = Message.buildFromJson(json);
-
-            if(msg != null){
-                if(msg instanceof AuthRequestMessage) {
-                    AuthRequestMessage auth = (AuthRequestMessage) msg;
-                    Log.log(Log.Level.NORMAL, "got authentication: username=" + auth.getUsername() + " password="
-                            + auth.getPassword() + " address=" + s.getInetAddress().getHostAddress());
-                    // check credentials and act accordingly
-                    if (agentManager.auth(auth.getUsername(), auth.getPassword())) {
-                        Log.log(Log.Level.NORMAL, auth.getUsername() + " authentication successful");
-                        sendAuthResponse(s, AuthResponseMessage.OK);
-                        agentManager.handleNewConnection(s, auth.getUsername());
-                    } else {
-                        Log.log(Log.Level.ERROR, "Got invalid authentication from: " + s.getInetAddress().getHostAddress());
-                        sendAuthResponse(s, AuthResponseMessage.FAIL);
-                        try {
-                            s.close();
-                        } catch (IOException ignored) {}
-                    }
-                }
-                else if (msg instanceof StatusRequestMessage) {
-                    Log.log(Log.Level.DEBUG, "Got status request from: " + s.getInetAddress().getHostAddress());
-                    sendStatusResponse(s);
-                }
-                else{
+
+            if (msg instanceof AuthRequestMessage) {
+                auth = (AuthRequestMessage) msg;
+                handshakes.remove(this);
+                key.cancel();
+                handovers.add(this);
+            }
+            else if (msg instanceof StatusRequestMessage) {
+                Log.log(Log.Level.DEBUG, "Got status request from: " + address(channel));
+                statusWriter.reset();
+                buildStatusResponse().writeJson(statusWriter);
+                statusWriter.delimit();
+                reply = ByteBuffer.wrap(statusWriter.toByteArray());
+                key.interestOps(SelectionKey.OP_WRITE);
+                write();
+            }
+            else {
+                if (msg != null)
                     Log.log(Log.Level.ERROR, "Expected AuthRequest, Received message of type: " + msg.getClass());
-                }
+                else
+                    Log.log(Log.Level.ERROR, "Cannot handle message: " + receivedPrefix());
+                reject("Invalid first message from: " + address(channel));
             }
-            else{
-                Log.log(Log.Level.ERROR, "Cannot handle message: " + received);
+        }
+
+        /**
+         * @return the start of the received message (for logging)
+         */
+        private String receivedPrefix() {
+            var length = frames.frameLength();
+            var prefix = new String(frames.buffer(), frames.frameOffset(), Math.min(length, LOGGED_MESSAGE_PREFIX),
+                    StandardCharsets.UTF_8);
+            return length > LOGGED_MESSAGE_PREFIX? prefix + "... (" + length + " bytes)" : prefix;
+        }
+
+        void write() {
+            try {
+                channel.write(reply);
+            } catch (IOException e) {
+                Log.log(Log.Level.CRITICAL, "status-response message could not be sent.");
+                close();
+                return;
             }
-        } catch (IOException e) {
-            Log.log(Log.Level.ERROR, "Error while receiving authentication message");
-            e.printStackTrace();
+            if (!reply.hasRemaining()) {
+                recordHandshake(this);
+                close();
+            }
+        }
+
+        void reject(String reason) {
+            handshakes.remove(this);
+            key.cancel();
+            FrontDesk.this.reject(channel, reason);
+        }
+
+        void close() {
+            handshakes.remove(this);
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
         }
     }
 
@@ -0,0 +1,138 @@
+package massim;
+
+import massim.config.ServerConfig;
+import massim.config.TeamConfig;
+import massim.game.Simulation;
+import massim.protocol.messages.ActionMessage;
+import massim.protocol.messages.RequestActionMessage;
+import massim.protocol.messages.scenario.Actions;
+import massim.util.IOUtil;
+import massim.util.Log;
+import massim.util.RNG;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Runs simulations without any networking: the agents are {@link LocalAgent}s in the same process, which get their
+ * percepts and return their actions directly. Useful for benchmarks, parameter sweeps and profiling the simulation.
+ * There is no monitor, no replay and no timeout (agents are asked one after another).
+ */
+public class HeadlessRunner {
+
+    private final ServerConfig config;
+    private final Function<String, LocalAgent> agentFactory;
+
+    /**
+     * @param config the server configuration holding the simulations to run (and the number of percept workers)
+     * @param agentFactory creates the agent for each agent name (once per match)
+     */
+    public HeadlessRunner(ServerConfig config, Function<String, LocalAgent> agentFactory) {
+        this.config = config;
+        this.agentFactory = agentFactory;
+    }
+
+    public static void main(String[] args) throws IOException {
+        ServerConfig config = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-conf": config = Server.parseServerConfig(IOUtil.readJSONObjectWithImport(args[++i])); break;
+                case "-confString": config = Server.parseServerConfig(new JSONObject(args[++i])); break;
+                default: Log.log(Log.Level.ERROR, "Unknown option: " + args[i]);
+            }
+        }
+        if (config == null) {
+            Log.log(Log.Level.ERROR, "Usage: HeadlessRunner -conf <file>");
+            return;
+        }
+        Server.setLogLevel(config.logLevel);
+        if (config.teamsPerMatch > config.teams.size()) {
+            Log.log(Log.Level.ERROR, "Not enough teams configured.");
+            return;
+        }
+        // the agents just move around randomly
+        var runner = new HeadlessRunner(config, name -> new RandomAgent(name.hashCode()));
+        var result = runner.runMatch(new LinkedHashSet<>(config.teams.subList(0, config.teamsPerMatch)));
+        Log.log(Log.Level.NORMAL, "Result: " + result);
+    }
+
+    /**
+     * Runs all configured simulations with the given teams.
+     * @return the results of the simulations by simulation name
+     */
+    public JSONObject runMatch(Set<TeamConfig> matchTeams) {
+        ExecutorService perceptWorkers = null;
+        if (config.perceptWorkers > 1) {
+            perceptWorkers = Executors.newFixedThreadPool(config.perceptWorkers, r -> {
+                var thread = new Thread(r, "percept-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        var agents = new HashMap<String, LocalAgent>();
+        matchTeams.forEach(team -> team.getAgentNames().forEach(name -> agents.put(name, agentFactory.apply(name))));
+        var result = new JSONObject();
+        try {
+            for (var simConfig : config.simConfigs) {
+                long randomSeed = simConfig.optLong("randomSeed", System.currentTimeMillis());
+                Log.log(Log.Level.NORMAL, "Configuring random seed: " + randomSeed);
+                RNG.initialize(randomSeed);
+                var sim = new Simulation(perceptWorkers, config.perceptWorkers);
+                int steps = simConfig.getInt("steps");
+
+                var start = System.nanoTime();
+                sim.init(steps, simConfig, matchTeams).forEach((name, percept) -> {
+                    if (agents.containsKey(name)) agents.get(name).handleSimStart(percept);
+                });
+                var actionId = 0L;
+                for (int i = 0; i < steps; i++) {
+                    var percepts = sim.preStep(i);
+                    var actions = new HashMap<String, ActionMessage>();
+                    for (var entry : percepts.entrySet()) {
+                        var percept = entry.getValue();
+                        percept.updateIdAndDeadline(actionId++, Long.MAX_VALUE); // no deadline
+                        var agent = agents.get(entry.getKey());
+                        var action = agent == null? null : agent.handleRequestAction(percept);
+                        actions.put(entry.getKey(), action != null? action
+                                : new ActionMessage(Actions.NO_ACTION, percept.getId(), new ArrayList<>()));
+                    }
+                    sim.step(i, actions);
+                }
+                sim.finish().forEach((name, percept) -> {
+                    if (agents.containsKey(name)) agents.get(name).handleSimEnd(percept);
+                });
+                var seconds = (System.nanoTime() - start) / 1e9;
+                Log.log(Log.Level.NORMAL, String.format("Simulation %s: %d steps in %.2f s (%.0f steps/s)",
+                        sim.getName(), steps, seconds, steps / seconds));
+                result.put(sim.getName(), sim.getResult());
+            }
+        } finally {
+            if (perceptWorkers != null) perceptWorkers.shutdown();
+        }
+        return result;
+    }
+
+    /**
+     * Moves in random directions.
+     */
+    private static class RandomAgent implements LocalAgent {
+
+        private static final List<String> DIRECTIONS = List.of("n", "s", "e", "w");
+
+        private final Random random;
+
+        RandomAgent(long seed) {
+            random = new Random(seed);
+        }
+
+        @Override
+        public ActionMessage handleRequestAction(RequestActionMessage request) {
+            return new ActionMessage(Actions.MOVE, request.getId(),
+                    List.of(DIRECTIONS.get(random.nextInt(DIRECTIONS.size()))));
+        }
+    }
+}
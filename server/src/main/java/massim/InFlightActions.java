@@ -0,0 +1,62 @@
+package massim;
+
+import massim.protocol.messages.ActionMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The action requests of one agent that can still be answered. Only the most recent request is kept, so the memory
+ * needed per agent stays the same no matter how many steps and simulations are played.
+ * Answers to the request after its step has been closed and answers to the few requests before it
+ * are recognized as late: they are rejected and counted.
+ */
+class InFlightActions {
+
+    /**
+     * How many action IDs before the current one are still recognized as late answers (and not as invalid ones).
+     */
+    static final int GRACE_WINDOW = 8;
+
+    enum Result { ACCEPTED, LATE, INVALID }
+
+    private volatile Request current;
+    private final AtomicLong lateAnswers = new AtomicLong();
+
+    /**
+     * Makes the given request the current one. IDs have to increase with each request.
+     */
+    void register(long actionId, ActionCollector collector) {
+        current = new Request(actionId, collector);
+    }
+
+    /**
+     * Submits the action to the collector of the request it answers (if that is still possible).
+     */
+    Result answer(String agent, ActionMessage action) {
+        var request = current;
+        var id = action.getId();
+        if (request == null || id < 0 || id > request.actionId || id < request.actionId - GRACE_WINDOW)
+            return Result.INVALID;
+        if (id == request.actionId && request.collector.submit(agent, action)) return Result.ACCEPTED;
+        lateAnswers.incrementAndGet();
+        return Result.LATE;
+    }
+
+    /**
+     * @return the number of answers that came too late so far
+     */
+    long getLateAnswers() {
+        return lateAnswers.get();
+    }
+
+    private static class Request {
+
+        final long actionId;
+        final ActionCollector collector;
+
+        Request(long actionId, ActionCollector collector) {
+            this.actionId = actionId;
+            this.collector = collector;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package massim;
+
+import massim.protocol.messages.ActionMessage;
+import massim.protocol.messages.RequestActionMessage;
+import massim.protocol.messages.SimEndMessage;
+import massim.protocol.messages.SimStartMessage;
+
+/**
+ * An agent running in the same process as the simulation (see {@link HeadlessRunner}).
+ * It gets the same messages a remote agent would get, but as objects (nothing is serialized).
+ * The messages must not be modified.
+ */
+public interface LocalAgent {
+
+    /**
+     * Called once at the start of each simulation.
+     * @param percept the initial percept of the agent
+     */
+    default void handleSimStart(SimStartMessage percept) {}
+
+    /**
+     * Called once in each step to determine the agent's action.
+     * @param request the step percept, holding the action id to answer with
+     * @return the action to perform in this step or null to do nothing
+     */
+    ActionMessage handleRequestAction(RequestActionMessage request);
+
+    /**
+     * Called once at the end of each simulation.
+     * @param result the agent's final percept
+     */
+    default void handleSimEnd(SimEndMessage result) {}
+}
@@ -0,0 +1,277 @@
+package massim;
+
+import massim.protocol.io.DeflateFrameEncoder;
+import massim.protocol.io.FrameDecoder;
+import massim.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking transport for agent connections. A small, fixed number of I/O threads each run one selector,
+ * which serves its share of all connections (instead of two threads per connection).
+ * Messages are 0-terminated byte sequences in both directions.
+ */
+class NioTransport {
+
+    /**
+     * Receives the complete messages (without the 0 byte) read from a connection.
+     */
+    interface FrameHandler {
+        /**
+         * Called on the connection's I/O thread. The bytes are only valid until the method returns.
+         * @param connection the connection the frame has been read from
+         */
+        void handleFrame(Connection connection, byte[] buffer, int offset, int length);
+    }
+
+    private final IoLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final int maxPacketLength;
+
+    /**
+     * @param threads the number of I/O threads to use
+     * @param maxPacketLength the maximum size of packets to process (bigger ones are discarded)
+     */
+    NioTransport(int threads, int maxPacketLength) throws IOException {
+        this.maxPacketLength = maxPacketLength;
+        loops = new IoLoop[Math.max(1, threads)];
+        for (var i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(Selector.open());
+            var thread = new Thread(loops[i], "agent-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Switches the channel to non-blocking mode and lets one of the I/O threads serve it from now on.
+     * @param outbox the queue of packets to send over the connection (only used by this connection)
+     * @param compressor compresses the packets when they are written or null if the connection is uncompressed
+     * @param onClose called (once) when the connection is closed, either locally or by the remote end
+     */
+    Connection register(SocketChannel channel, SendQueue outbox, DeflateFrameEncoder compressor,
+                        FrameHandler handler, Runnable onClose) throws IOException {
+        channel.configureBlocking(false);
+        var loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        var connection = new Connection(channel, outbox, compressor, loop, handler, onClose);
+        loop.execute(connection::open);
+        return connection;
+    }
+
+    /**
+     * Stops all I/O threads and closes all connections that are still open.
+     */
+    void stop() {
+        for (var loop : loops) loop.execute(loop::shutdown);
+    }
+
+    /**
+     * One I/O thread with its selector. Other threads hand it work through its task queue.
+     */
+    private static class IoLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            Log.log(Log.Level.ERROR, "I/O task failed: " + e);
+                        }
+                    }
+                    if (!running) break; // the selector has been closed
+                    for (var key : selector.selectedKeys()) {
+                        var connection = (Connection) key.attachment();
+                        if (!key.isValid()) continue;
+                        try {
+                            if (key.isReadable()) connection.read();
+                            if (key.isValid() && key.isWritable()) connection.write();
+                        } catch (RuntimeException e) {
+                            // e.g. a message that cannot be handled; the other connections of the thread go on
+                            Log.log(Log.Level.ERROR, "Closing connection after error: " + e);
+                            connection.closeNow();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                } catch (IOException | ClosedSelectorException e) {
+                    if (running) Log.log(Log.Level.ERROR, "I/O thread stopped: " + e.getMessage());
+                    break;
+                }
+            }
+        }
+
+        private void shutdown() {
+            running = false;
+            for (var key : selector.keys()) ((Connection) key.attachment()).closeNow();
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * A registered channel. Sending is thread-safe, everything else happens on the connection's I/O thread.
+     */
+    class Connection {
+
+        private final SocketChannel channel;
+        private final IoLoop loop;
+        private final FrameHandler handler;
+        private final Runnable onClose;
+        private SelectionKey key;
+
+        private final FrameDecoder frames = new FrameDecoder(maxPacketLength);
+
+        private final SendQueue outbox;
+        private final DeflateFrameEncoder compressor;
+        private final Queue<Packet> writing = new ArrayDeque<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean closeWhenFlushed;
+
+        private Connection(SocketChannel channel, SendQueue outbox, DeflateFrameEncoder compressor, IoLoop loop,
+                           FrameHandler handler, Runnable onClose) {
+            this.channel = channel;
+            this.outbox = outbox;
+            this.compressor = compressor;
+            this.loop = loop;
+            this.handler = handler;
+            this.onClose = onClose;
+        }
+
+        /**
+         * Puts one encoded message into the outbox and makes sure it is written as soon as the socket accepts it.
+         * The packet is released once it has been written or dropped.
+         */
+        void send(Packet packet) {
+            outbox.put(packet);
+            if (!closed.get() && flushScheduled.compareAndSet(false, true)) loop.execute(this::flush);
+        }
+
+        /**
+         * Closes the connection once all queued messages have been written.
+         */
+        void closeWhenFlushed() {
+            closeWhenFlushed = true;
+            loop.execute(this::flush);
+        }
+
+        /**
+         * Closes the connection, discarding everything that has not been sent yet.
+         */
+        void close() {
+            loop.execute(this::closeNow);
+        }
+
+        boolean isClosed() {
+            return closed.get();
+        }
+
+        private void open() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+            } catch (IOException e) {
+                closeNow();
+            }
+        }
+
+        private void flush() {
+            flushScheduled.set(false);
+            if (closed.get()) return;
+            write();
+        }
+
+        private void write() {
+            try {
+                while (true) {
+                    // packets stay in the outbox while the socket is busy, so that obsolete ones can still be replaced;
+                    // they are compressed only now, as all packets that are written share one compressed stream
+                    Packet packet;
+                    if (writing.isEmpty()) while ((packet = outbox.poll()) != null)
+                        writing.add(compressor == null? packet : packet.deflate(compressor));
+                    if (writing.isEmpty()) break;
+                    channel.write(gather());
+                    while (!writing.isEmpty() && !writing.peek().hasRemaining()) writing.poll().release();
+                    if (!writing.isEmpty()) break; // socket buffer is full
+                }
+            } catch (IOException e) {
+                Log.log(Log.Level.DEBUG, "Error writing to socket: " + e.getMessage());
+                closeNow();
+                return;
+            }
+            if (key == null || !key.isValid()) return;
+            if (writing.isEmpty()) {
+                if (closeWhenFlushed && outbox.isEmpty()) closeNow();
+                else key.interestOps(SelectionKey.OP_READ);
+            }
+            else key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        /**
+         * @return the buffers of all packets that are being written, in order
+         */
+        private ByteBuffer[] gather() {
+            var count = 0;
+            for (var packet : writing) count += packet.buffers().length;
+            var batch = new ByteBuffer[count];
+            var i = 0;
+            for (var packet : writing) {
+                for (var buffer : packet.buffers()) batch[i++] = buffer;
+            }
+            return batch;
+        }
+
+        private void read() {
+            int read;
+            try {
+                // a single read per readiness event, so that a busy connection cannot hold up the others of the thread
+                // (the selector reports whatever is left right away)
+                read = frames.fill(channel);
+                while (frames.nextFrame()) handler.handleFrame(this, frames.buffer(), frames.frameOffset(),
+                        frames.frameLength());
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read < 0) closeNow();
+        }
+
+        private void closeNow() {
+            if (!closed.compareAndSet(false, true)) return;
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+            Packet packet;
+            while ((packet = writing.poll()) != null) packet.release();
+            if (compressor != null) compressor.end();
+            onClose.run();
+        }
+    }
+}
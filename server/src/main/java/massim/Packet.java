@@ -0,0 +1,167 @@
+package massim;
+
+import massim.protocol.io.BinaryWriter;
+import massim.protocol.io.DeflateFrameEncoder;
+import massim.protocol.io.FrameDecoder;
+import massim.protocol.io.JsonWriter;
+import massim.protocol.io.LengthFrameDecoder;
+import massim.protocol.messages.Message;
+import massim.protocol.messages.RequestActionMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * One encoded message on its way to an agent. The message is encoded once when it is queued; the payload and the
+ * 0 byte delimiter are then written with one gathering write, so the delimiter never has to be copied behind it.
+ * Binary messages (see {@link BinaryWriter}) are preceded by their length instead.
+ * A packet either owns a buffer of its agent's {@link Pool}, which is returned once the packet has been written
+ * (or dropped), or shares a read-only payload with the packets of the same message to other agents.
+ */
+class Packet {
+
+    private static final ByteBuffer DELIMITER = ByteBuffer.wrap(new byte[]{FrameDecoder.DELIMITER}).asReadOnlyBuffer();
+
+    private final ByteBuffer payload;
+    private final ByteBuffer[] buffers;
+    private final Pool pool;
+    private final boolean actionRequest;
+
+    private Packet(ByteBuffer payload, boolean binary, Pool pool, boolean actionRequest) {
+        this(payload, binary? new ByteBuffer[]{header(payload.remaining()), payload}
+                : new ByteBuffer[]{payload, DELIMITER.duplicate()}, pool, actionRequest);
+    }
+
+    private Packet(ByteBuffer payload, ByteBuffer[] buffers, Pool pool, boolean actionRequest) {
+        this.payload = payload;
+        this.buffers = buffers;
+        this.pool = pool;
+        this.actionRequest = actionRequest;
+    }
+
+    private static ByteBuffer header(int length) {
+        return ByteBuffer.allocate(LengthFrameDecoder.HEADER_LENGTH).putInt(0, length);
+    }
+
+    /**
+     * Compresses the packet for a connection that uses compression. This packet is released.
+     * @return a packet holding the compressed frame (which replaces the 0 byte delimiter or the length)
+     */
+    Packet deflate(DeflateFrameEncoder encoder) {
+        var frame = encoder.encode(payload);
+        release();
+        return new Packet(frame, new ByteBuffer[]{frame}, null, actionRequest);
+    }
+
+    /**
+     * @return true if the packet holds a request-action message (which becomes obsolete with the next one)
+     */
+    boolean isActionRequest() {
+        return actionRequest;
+    }
+
+    /**
+     * @return the buffers of the frame, positioned at what has not been written yet
+     */
+    ByteBuffer[] buffers() {
+        return buffers;
+    }
+
+    boolean hasRemaining() {
+        return buffers[buffers.length - 1].hasRemaining();
+    }
+
+    /**
+     * Writes the rest of the packet to a blocking channel.
+     */
+    void writeTo(GatheringByteChannel channel) throws IOException {
+        while (hasRemaining()) channel.write(buffers);
+    }
+
+    /**
+     * Returns the packet's buffer to its pool (if it has one). The packet must not be used afterwards.
+     */
+    void release() {
+        if (pool != null) pool.release(payload.array());
+    }
+
+    /**
+     * A message that is sent to more than one agent. It is encoded at most once per format;
+     * use {@link #copy(boolean)} to get a packet for each agent.
+     */
+    static class Shared {
+
+        private final Message message;
+        private ByteBuffer json;
+        private ByteBuffer binary;
+
+        Shared(Message message) {
+            this.message = message;
+        }
+
+        /**
+         * @param binary whether the packet is for a connection using the binary format
+         * @return a new packet sharing the encoded message
+         */
+        synchronized Packet copy(boolean binary) {
+            var payload = binary? this.binary : json;
+            if (payload == null) {
+                var writer = binary? new BinaryWriter(256) : new JsonWriter(256);
+                message.writeJson(writer);
+                payload = ByteBuffer.wrap(writer.buffer(), 0, writer.size()).asReadOnlyBuffer();
+                if (binary) this.binary = payload;
+                else json = payload;
+            }
+            return new Packet(payload.duplicate(), binary, null, message instanceof RequestActionMessage);
+        }
+    }
+
+    /**
+     * Buffers for the packets of one agent. Messages are encoded straight into a buffer of the pool,
+     * so that the encoded bytes are never copied before they are written.
+     */
+    static class Pool {
+
+        private final int bufferSize;
+        private final ArrayBlockingQueue<byte[]> free;
+        private final JsonWriter jsonWriter = new JsonWriter(16);
+        private final BinaryWriter binaryWriter = new BinaryWriter(16);
+
+        /**
+         * @param maxBuffers how many buffers are kept for reuse at most
+         * @param bufferSize the initial size of new buffers (they grow with bigger messages)
+         */
+        Pool(int maxBuffers, int bufferSize) {
+            this.free = new ArrayBlockingQueue<>(maxBuffers);
+            this.bufferSize = bufferSize;
+        }
+
+        /**
+         * Encodes the message into a buffer from the pool.
+         * @param binary whether to use the binary format instead of JSON
+         */
+        Packet encode(Message message, boolean binary) {
+            var buffer = free.poll();
+            if (buffer == null) buffer = new byte[bufferSize];
+            synchronized (this) {
+                var writer = binary? binaryWriter : jsonWriter;
+                message.writeJson(writer.reset(buffer));
+                return new Packet(ByteBuffer.wrap(writer.buffer(), 0, writer.size()), binary, this,
+                        message instanceof RequestActionMessage);
+            }
+        }
+
+        /**
+         * @return the number of buffers that are currently available for reuse
+         */
+        int available() {
+            return free.size();
+        }
+
+        private void release(byte[] buffer) {
+            free.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package massim;
+
+import java.util.ArrayDeque;
+
+/**
+ * The packets waiting to be sent to one agent. At most one request-action is pending at any time: a newer one
+ * replaces it, as the older percept could not be answered anymore anyway. All other (control) messages, like
+ * sim-start, sim-end and bye, are never evicted.
+ * Thread-safe; each connection of the agent gets its own queue, so that a replaced connection cannot take
+ * any packets meant for the new one.
+ */
+class SendQueue {
+
+    private final ArrayDeque<Packet> packets = new ArrayDeque<>();
+    private Packet pendingRequest;
+
+    private long droppedPackets;
+    private int maxDepth;
+
+    SendQueue() {}
+
+    /**
+     * Creates an empty queue that continues the statistics of the given one (i.e. of the agent's previous connection).
+     */
+    SendQueue(SendQueue previous) {
+        synchronized (previous) {
+            droppedPackets = previous.droppedPackets;
+            maxDepth = previous.maxDepth;
+        }
+    }
+
+    /**
+     * Appends the packet, replacing the pending request-action if the packet is a newer one.
+     */
+    synchronized void put(Packet packet) {
+        if (packet.isActionRequest()) {
+            if (pendingRequest != null) {
+                packets.remove(pendingRequest);
+                drop(pendingRequest);
+            }
+            pendingRequest = packet;
+        }
+        packets.add(packet);
+        maxDepth = Math.max(maxDepth, packets.size());
+        notifyAll();
+    }
+
+    /**
+     * @return the next packet or null if the queue is empty
+     */
+    synchronized Packet poll() {
+        var packet = packets.poll();
+        if (packet == pendingRequest) pendingRequest = null;
+        return packet;
+    }
+
+    /**
+     * Waits until a packet is available.
+     */
+    synchronized Packet take() throws InterruptedException {
+        while (packets.isEmpty()) wait();
+        return poll();
+    }
+
+    /**
+     * Drops all packets (e.g. when the agent reconnects).
+     */
+    synchronized void clear() {
+        Packet packet;
+        while ((packet = poll()) != null) drop(packet);
+    }
+
+    /**
+     * @return true if a request-action is waiting, which would be replaced by the next one
+     */
+    synchronized boolean hasPendingRequest() {
+        return pendingRequest != null;
+    }
+
+    synchronized boolean isEmpty() {
+        return packets.isEmpty();
+    }
+
+    synchronized int size() {
+        return packets.size();
+    }
+
+    /**
+     * @return how many packets have been dropped without being sent so far
+     */
+    synchronized long getDroppedPackets() {
+        return droppedPackets;
+    }
+
+    /**
+     * @return the highest number of packets that have been waiting at the same time
+     */
+    synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    private void drop(Packet packet) {
+        droppedPackets++;
+        packet.release();
+    }
+}
@@ -17,6 +17,8 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -35,6 +37,7 @@ public class Server {
     private AgentManager agentManager;
     private Monitor monitor;
     private ReplayWriter replayWriter;
+    private ExecutorService perceptWorkers;
 
     /**
      * whether server should stop after the next match (random mode)
@@ -138,21 +141,30 @@ public class Server {
         Log.log(Log.Level.NORMAL, "All simulations run - server ending now.");
         if (frontDesk != null) frontDesk.close();
         if (agentManager != null) agentManager.stop();
+        if (perceptWorkers != null) perceptWorkers.shutdown();
         inputManager.stop();
     }
 
     /**
-     * Starts server operation according to its configuration.
+     * Sets the level at which to log.
+     * @param level one of "debug", "normal", "error" and "critical"
      */
-    private void go(){
-
-        //setup text I/O
-        switch(config.logLevel){
+    static void setLogLevel(String level) {
+        switch(level){
             case "debug": Log.setLogLevel(Log.Level.DEBUG); break;
             case "error": Log.setLogLevel(Log.Level.ERROR); break;
             case "critical": Log.setLogLevel(Log.Level.CRITICAL); break;
             default: Log.setLogLevel(Log.Level.NORMAL);
         }
+    }
+
+    /**
+     * Starts server operation according to its configuration.
+     */
+    private void go(){
+
+        //setup text I/O
+        setLogLevel(config.logLevel);
         if(config.logPath != null){
             File logFile = new File(config.logPath + File.separator + "MASSim-log-" + timestamp() + ".log");
             File dir = logFile.getParentFile();
@@ -162,7 +174,21 @@ public class Server {
         inputManager.start();
 
         // setup backend
-        agentManager = new AgentManager(config.teams, config.agentTimeout, config.maxPacketLength);
+        try {
+            var ioThreads = config.transport.equals(ServerConfig.TRANSPORT_NIO)? config.ioThreads : 0;
+            agentManager = new AgentManager(config.teams, config.agentTimeout, config.maxPacketLength, ioThreads,
+                    config.keyframeInterval);
+        } catch (IOException e) {
+            Log.log(Log.Level.CRITICAL, "Cannot create agent transport.");
+            return;
+        }
+        if (config.perceptWorkers > 1) {
+            perceptWorkers = Executors.newFixedThreadPool(config.perceptWorkers, r -> {
+                var thread = new Thread(r, "percept-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
         try {
             frontDesk = new FrontDesk(agentManager, config);
             frontDesk.open();
@@ -291,7 +317,7 @@ public class Server {
             Log.log(Log.Level.NORMAL, "Configuring random seed: " + randomSeed);
             RNG.initialize(randomSeed);
             // create and run simulation instance with the given teams
-            Simulation sim = new Simulation();
+            Simulation sim = new Simulation(perceptWorkers, config.perceptWorkers);
 
             int steps = simConfig.getInt("steps");
 
@@ -315,6 +341,8 @@ public class Server {
             // handle final state
             var finalPercepts = sim.finish();
             agentManager.handleFinalPercepts(finalPercepts);
+            agentManager.logStatistics();
+            frontDesk.logStatistics();
             result.put(sim.getName(), sim.getResult());
 
             // pause between simulations
@@ -417,6 +445,22 @@ public class Server {
         Log.log(Log.Level.NORMAL, "Configuring replay path: " + config.replayPath);
         config.waitBetweenSimulations = serverJSON.optInt("waitBetweenSimulations");
         Log.log(Log.Level.NORMAL, "Configuring wait time: " + config.waitBetweenSimulations);
+        config.perceptWorkers = serverJSON.optInt("perceptWorkers", Runtime.getRuntime().availableProcessors());
+        Log.log(Log.Level.NORMAL, "Configuring percept workers: " + config.perceptWorkers);
+        config.transport = serverJSON.optString("transport", ServerConfig.TRANSPORT_BLOCKING);
+        Log.log(Log.Level.NORMAL, "Configuring transport: " + config.transport);
+        config.ioThreads = serverJSON.optInt("ioThreads", config.ioThreads);
+        if (config.transport.equals(ServerConfig.TRANSPORT_NIO))
+            Log.log(Log.Level.NORMAL, "Configuring I/O threads: " + config.ioThreads);
+        config.keyframeInterval = serverJSON.optInt("keyframeInterval", config.keyframeInterval);
+        Log.log(Log.Level.NORMAL, "Configuring keyframe interval: " + config.keyframeInterval);
+        config.unixSocketPath = serverJSON.optString("unixSocket", null);
+        if (config.unixSocketPath != null)
+            Log.log(Log.Level.NORMAL, "Configuring Unix domain socket: " + config.unixSocketPath);
+        config.handshakeTimeout = serverJSON.optLong("handshakeTimeout", config.handshakeTimeout);
+        Log.log(Log.Level.NORMAL, "Configuring handshake timeout: " + config.handshakeTimeout);
+        config.handshakeWorkers = serverJSON.optInt("handshakeWorkers", config.handshakeWorkers);
+        Log.log(Log.Level.NORMAL, "Configuring handshake workers: " + config.handshakeWorkers);
 
         // parse matches
         JSONArray matchJSON = conf.getJSONArray("match");
@@ -15,6 +15,9 @@ public class ServerConfig {
     public final static String MODE_MANUAL = "manual";
     public final static String MODE_RANDOM = "random";
 
+    public final static String TRANSPORT_BLOCKING = "blocking";
+    public final static String TRANSPORT_NIO = "nio";
+
     public String tournamentMode;
     public String launch;
     public int teamsPerMatch;
@@ -57,6 +60,41 @@ public class ServerConfig {
      */
     public int waitBetweenSimulations = 0;
 
+    /**
+     * The number of threads to build the agents' percepts with. 1 builds them serially (on the simulation thread).
+     */
+    public int perceptWorkers = 1;
+
+    /**
+     * How agent connections are served: with two blocking threads per agent or by a few non-blocking I/O threads.
+     */
+    public String transport = TRANSPORT_BLOCKING;
+
+    /**
+     * The number of I/O threads serving all agent connections (for the non-blocking transport).
+     */
+    public int ioThreads = 2;
+
+    /**
+     * The number of delta percepts after which an agent that asked for delta percepts gets a complete one again.
+     */
+    public int keyframeInterval = 20;
+
+    /**
+     * The path of a Unix domain socket to listen on (in addition to the port) or null.
+     */
+    public String unixSocketPath;
+
+    /**
+     * The time (in ms) a new connection has to send its first message before it is closed.
+     */
+    public long handshakeTimeout = 10000;
+
+    /**
+     * The number of threads handling authentication requests.
+     */
+    public int handshakeWorkers = 4;
+
     /**
      * Actual number of agents required in each simulation.
      */
@@ -38,7 +38,7 @@ public class Entity extends Attachable {
     private Task acceptedTask;
 
     public Entity(Position xy, String agentName, String teamName) {
-        super(xy);
+        super(xy, teamName);
         this.agentName = agentName;
         this.teamName = teamName;
         this.energy = maxEnergy;
@@ -58,7 +58,7 @@ public class Entity extends Attachable {
         energy = Math.min(energy + 1, maxEnergy);
     }
 
-    String getTeamName() {
+    public String getTeamName() {
         return teamName;
     }
 
@@ -2,6 +2,7 @@ package massim.game;
 
 import massim.config.TeamConfig;
 import massim.game.environment.*;
+import massim.protocol.data.AreaOffsets;
 import massim.protocol.data.Position;
 import massim.protocol.data.Thing;
 import massim.protocol.messages.RequestActionMessage;
@@ -10,6 +11,7 @@ import massim.protocol.messages.SimStartMessage;
 import massim.protocol.messages.scenario.Actions;
 import massim.protocol.messages.scenario.InitialPercept;
 import massim.protocol.messages.scenario.StepPercept;
+import massim.protocol.messages.scenario.StepTasks;
 import massim.util.Log;
 import massim.util.RNG;
 import massim.util.Util;
@@ -20,6 +22,9 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -66,6 +71,9 @@ class GameState {
 
     private JSONArray logEvents = new JSONArray();
 
+    private ExecutorService perceptWorkers;
+    private int perceptParallelism;
+
     GameState(JSONObject config, Set<TeamConfig> matchTeams) {
         // parse simulation config
         randomFail = config.getInt("randomFail");
@@ -340,11 +348,12 @@ class GameState {
             }
             else {
                 var type = event.getStep() - step <= 2? Marker.Type.CLEAR_IMMEDIATE : Marker.Type.CLEAR;
-                var clearArea = event.getPosition().spanArea(event.getRadius());
-                var clearPerimeter = event.getPosition().spanArea(event.getRadius() + eventCreatePerimeter);
-                clearPerimeter.removeAll(clearArea);
-                for (Position pos: clearArea) grid.createMarker(pos, type);
-                for (Position pos: clearPerimeter) grid.createMarker(pos, Marker.Type.CLEAR_PERIMETER);
+                var center = event.getPosition();
+                center.forEachInArea(event.getRadius(), (x, y) -> grid.createMarker(Position.of(x, y), type));
+                center.forEachInArea(event.getRadius() + eventCreatePerimeter, (x, y) -> {
+                    var pos = Position.of(x, y);
+                    if (pos.distanceTo(center) > event.getRadius()) grid.createMarker(pos, Marker.Type.CLEAR_PERIMETER);
+                });
             }
         }
         clearEvents.removeAll(processedEvents);
@@ -365,44 +374,84 @@ class GameState {
         }
     }
 
+    /**
+     * @param perceptWorkers executor to build the step percepts of the entities in parallel or null to build them serially
+     */
+    void setPerceptWorkers(ExecutorService perceptWorkers, int parallelism) {
+        this.perceptWorkers = perceptWorkers;
+        this.perceptParallelism = parallelism;
+    }
+
     Map<String, RequestActionMessage> getStepPercepts(){
-        Map<String, RequestActionMessage> result = new HashMap<>();
-        var allTasks = tasks.values().stream()
+        var allTasks = new StepTasks(tasks.values().stream()
                 .filter(t -> !t.isCompleted())
                 .map(Task::toPercept)
-                .collect(Collectors.toSet());
-        for (Entity entity : entityToAgent.keySet()) {
-            var pos = entity.getPosition();
-            var visibleThings = new HashSet<Thing>();
-            Map<String, Set<Position>> visibleTerrain = new HashMap<>();
-            Set<Position> attachedThings = new HashSet<>();
-            for (Position currentPos: pos.spanArea(entity.getVision())){
-                getThingsAt(currentPos).forEach(go -> {
-                    visibleThings.add(go.toPercept(pos));
-                    if (go != entity && go instanceof Attachable && ((Attachable)go).isAttachedToAnotherEntity()){
-                        attachedThings.add(go.getPosition().relativeTo(pos));
-                    }
+                .collect(Collectors.toSet()));
+        var entities = new ArrayList<>(entityToAgent.keySet());
+        var percepts = new StepPercept[entities.size()];
+        if (perceptWorkers == null || perceptParallelism < 2 || entities.size() < 2) {
+            for (var i = 0; i < percepts.length; i++) percepts[i] = createStepPercept(entities.get(i), allTasks);
+        }
+        else {
+            // the state is not modified while the percepts are built, so the entities can be processed concurrently
+            var slices = Math.min(perceptParallelism, entities.size());
+            var jobs = new ArrayList<Callable<Void>>(slices);
+            for (var slice = 0; slice < slices; slice++) {
+                var from = slice * entities.size() / slices;
+                var to = (slice + 1) * entities.size() / slices;
+                jobs.add(() -> {
+                    for (var i = from; i < to; i++) percepts[i] = createStepPercept(entities.get(i), allTasks);
+                    return null;
                 });
-                var d = dispensers.get(currentPos);
-                if (d != null) visibleThings.add(d.toPercept(pos));
-                var tb = taskboards.get(currentPos);
-                if (tb != null) visibleThings.add(tb.toPercept(pos));
-                var terrain = grid.getTerrain(currentPos);
-                if (terrain != Terrain.EMPTY) {
-                    visibleTerrain.computeIfAbsent(terrain.name,
-                            t -> new HashSet<>()).add(currentPos.relativeTo(pos));
-                }
             }
-            var percept = new StepPercept(step, teams.get(entity.getTeamName()).getScore(),
-                    visibleThings, visibleTerrain, allTasks, entity.getLastAction(), entity.getLastActionParams(),
-                    entity.getLastActionResult(), attachedThings, entity.getTask());
-            percept.energy = entity.getEnergy();
-            percept.disabled = entity.isDisabled();
-            result.put(entity.getAgentName(), percept);
+            try {
+                for (var future : perceptWorkers.invokeAll(jobs)) future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while creating percepts", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Could not create percepts", e.getCause());
+            }
         }
+        Map<String, RequestActionMessage> result = new HashMap<>();
+        for (var i = 0; i < percepts.length; i++) result.put(entities.get(i).getAgentName(), percepts[i]);
         return result;
     }
 
+    /**
+     * Builds the percept of a single entity. Only reads the game state.
+     */
+    private StepPercept createStepPercept(Entity entity, StepTasks allTasks) {
+        var pos = entity.getPosition();
+        var visibleThings = new HashSet<Thing>();
+        Map<String, Set<Position>> visibleTerrain = new HashMap<>();
+        Set<Position> attachedThings = new HashSet<>();
+        pos.forEachInArea(entity.getVision(), (x, y) -> {
+            grid.forEachThingAt(x, y, go -> {
+                visibleThings.add(go.toPercept(pos));
+                if (go != entity && go instanceof Attachable && ((Attachable)go).isAttachedToAnotherEntity()){
+                    attachedThings.add(go.getPosition().relativeTo(pos));
+                }
+            });
+            var currentPos = Position.of(x, y);
+            var d = dispensers.get(currentPos);
+            if (d != null) visibleThings.add(d.toPercept(pos));
+            var tb = taskboards.get(currentPos);
+            if (tb != null) visibleThings.add(tb.toPercept(pos));
+            var terrain = grid.getTerrain(currentPos);
+            if (terrain != Terrain.EMPTY) {
+                visibleTerrain.computeIfAbsent(terrain.name,
+                        t -> new HashSet<>()).add(currentPos.relativeTo(pos));
+            }
+        });
+        var percept = new StepPercept(step, teams.get(entity.getTeamName()).getScore(),
+                visibleThings, visibleTerrain, allTasks, entity.getLastAction(), entity.getLastActionParams(),
+                entity.getLastActionResult(), attachedThings, entity.getTask());
+        percept.energy = entity.getEnergy();
+        percept.disabled = entity.isDisabled();
+        return percept;
+    }
+
     Map<String, SimEndMessage> getFinalPercepts() {
         var result = new HashMap<String, SimEndMessage>();
         var teamsSorted = new ArrayList<>(teams.values());
@@ -411,9 +460,11 @@ class GameState {
         for (int i = 0; i < teamsSorted.size(); i++) {
             rankings.put(teamsSorted.get(i), i + 1);
         }
+        var teamPercepts = new HashMap<Team, SimEndMessage>(); // agents of the same team share one message
         for (Entity e: entityToAgent.keySet()) {
             var team = teams.get(e.getTeamName());
-            result.put(e.getAgentName(), new SimEndMessage(team.getScore(), rankings.get(team)));
+            result.put(e.getAgentName(), teamPercepts.computeIfAbsent(team,
+                    t -> new SimEndMessage(t.getScore(), rankings.get(t))));
         }
         return result;
     }
@@ -462,8 +513,7 @@ class GameState {
         var attachable1 = getUniqueAttachable(attPos1.translate(entity.getPosition()));
         var attachable2 = getUniqueAttachable(attPos2.translate(entity.getPosition()));
         if (attachable1 == null || attachable2 == null) return Actions.RESULT_F_TARGET;
-        var allAttachments = entity.collectAllAttachments();
-        if (!allAttachments.contains(attachable1) || !allAttachments.contains(attachable2))
+        if (!entity.isConnectedTo(attachable1) || !entity.isConnectedTo(attachable2))
             return Actions.RESULT_F_TARGET;
         if (grid.detachNeighbors(attachable1, attachable2)) return Actions.RESULT_SUCCESS;
         return Actions.RESULT_F_TARGET;
@@ -475,14 +525,12 @@ class GameState {
 
         if(!(block1 instanceof Block) || !(block2 instanceof Block)) return Actions.RESULT_F_TARGET;
 
-        Set<Attachable> attachables = entity.collectAllAttachments();
-        if (attachables.contains(partnerEntity)) return Actions.RESULT_F;
-        if (!attachables.contains(block1)) return Actions.RESULT_F_TARGET;
-        if (attachables.contains(block2)) return Actions.RESULT_F_TARGET;
+        if (entity.isConnectedTo(partnerEntity)) return Actions.RESULT_F;
+        if (!entity.isConnectedTo(block1)) return Actions.RESULT_F_TARGET;
+        if (entity.isConnectedTo(block2)) return Actions.RESULT_F_TARGET;
 
-        Set<Attachable> partnerAttachables = partnerEntity.collectAllAttachments();
-        if (!partnerAttachables.contains(block2)) return Actions.RESULT_F_TARGET;
-        if (partnerAttachables.contains(block1)) return Actions.RESULT_F_TARGET;
+        if (!partnerEntity.isConnectedTo(block2)) return Actions.RESULT_F_TARGET;
+        if (partnerEntity.isConnectedTo(block1)) return Actions.RESULT_F_TARGET;
 
         if(grid.attach(block1, block2)){
             return Actions.RESULT_SUCCESS;
@@ -505,7 +553,6 @@ class GameState {
             return Actions.RESULT_F_TARGET;
         Position ePos = e.getPosition();
         if (grid.getTerrain(ePos) != Terrain.GOAL) return Actions.RESULT_F;
-        Set<Attachable> attachedBlocks = e.collectAllAttachments();
         for (Map.Entry<Position, String> entry : task.getRequirements().entrySet()) {
             var pos = entry.getKey();
             var reqType = entry.getValue();
@@ -513,7 +560,7 @@ class GameState {
             var actualBlock = getUniqueAttachable(checkPos);
             if (actualBlock instanceof Block
                 && ((Block) actualBlock).getBlockType().equals(reqType)
-                && attachedBlocks.contains(actualBlock)) {
+                && e.isConnectedTo(actualBlock)) {
                 continue;
             }
             return Actions.RESULT_F;
@@ -555,7 +602,7 @@ class GameState {
             entity.resetClearCounter();
         }
         else {
-            agentCausedClearMarkers.addAll(target.spanArea(1));
+            target.forEachInArea(1, (x, y) -> agentCausedClearMarkers.add(Position.of(x, y)));
         }
         entity.recordClearAction(step, target);
         return Actions.RESULT_SUCCESS;
@@ -582,7 +629,9 @@ class GameState {
 
     int clearArea(Position center, int radius) {
         var removed = 0;
-        for (var position : center.spanArea(radius)) {
+        var area = AreaOffsets.ofRadius(radius);
+        for (var i = 0; i < area.size(); i++) {
+            var position = Position.wrapped(center.x + area.dx(i), center.y + area.dy(i));
             for (var go : getThingsAt(position)) {
                 if (go instanceof Entity) {
                     ((Entity)go).disable();
@@ -682,24 +731,23 @@ class GameState {
     }
 
     private Attachable getUniqueAttachable(Position pos) {
-        var attachables = getAttachables(pos);
-        if (attachables.size() != 1) return null;
-        return attachables.iterator().next();
-    }
-
-    private Set<Attachable> getAttachables(Position position) {
-        return getThingsAt(position).stream()
-                .filter(go -> go instanceof Attachable)
-                .map(go -> (Attachable)go)
-                .collect(Collectors.toSet());
+        if (grid.countAttachablesAt(pos.x, pos.y) != 1) return null;
+        var result = new Attachable[1];
+        grid.forEachThingAt(pos.x, pos.y, go -> {
+            if (go instanceof Attachable) result[0] = (Attachable) go;
+        });
+        return result[0];
     }
 
+    /**
+     * @return a copy of the things at the given position, for callers that modify the grid while iterating
+     */
     Set<Positionable> getThingsAt(Position pos) {
         return grid.getThings(pos);
     }
 
     private boolean attachedToOpponent(Attachable a, Entity entity) {
-        return a.collectAllAttachments().stream().anyMatch(other -> other instanceof Entity && ofDifferentTeams((Entity) other, entity));
+        return a.getGroup().containsEntityNotOfTeam(entity.getTeamName());
     }
 
     private boolean ofDifferentTeams(Entity e1, Entity e2) {
@@ -756,7 +804,7 @@ class GameState {
             }
             if (o instanceof Attachable) {
                 JSONArray arr = new JSONArray();
-                ((Attachable) o).collectAllAttachments().stream().filter(a -> a != o).forEach(a -> {
+                ((Attachable) o).getGroup().getMembers().stream().filter(a -> a != o).forEach(a -> {
                     JSONObject pos = new JSONObject();
                     pos.put("x", a.getPosition().x);
                     pos.put("y", a.getPosition().y);
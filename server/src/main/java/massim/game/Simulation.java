@@ -15,6 +15,7 @@ import org.json.JSONObject;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 import static massim.protocol.messages.scenario.Actions.*;
@@ -24,10 +25,24 @@ public class Simulation {
     private String name;
     private GameState state;
     private int steps;
+    private ExecutorService perceptWorkers;
+    private int perceptParallelism;
+
+    public Simulation() {}
+
+    /**
+     * @param perceptWorkers executor for building percepts in parallel (or null to build them serially)
+     * @param parallelism the number of threads of the executor
+     */
+    public Simulation(ExecutorService perceptWorkers, int parallelism) {
+        this.perceptWorkers = perceptWorkers;
+        this.perceptParallelism = parallelism;
+    }
 
     public Map<String, SimStartMessage> init(int steps, JSONObject config, Set<TeamConfig> matchTeams) {
         this.steps = steps;
         this.state = new GameState(config, matchTeams);
+        this.state.setPerceptWorkers(perceptWorkers, perceptParallelism);
         this.name = System.currentTimeMillis() + "_" + matchTeams.stream()
                 .map(TeamConfig::getName)
                 .collect(Collectors.joining("_"));
@@ -3,30 +3,59 @@ package massim.game.environment;
 import massim.game.Entity;
 import massim.protocol.data.Position;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
 public abstract class Attachable extends Positionable {
 
     private Set<Attachable> attachments = new HashSet<>();
+    private AttachmentGroup group;
 
     public Attachable(Position position) {
+        this(position, null);
+    }
+
+    /**
+     * @param team the team of the entity (if this is one), which its subclass has not set yet
+     */
+    protected Attachable(Position position, String team) {
         super(position);
+        // each thing starts out in a group of its own, so that reading the group never changes anything
+        group = new AttachmentGroup(this, team);
     }
 
     void attach(Attachable other) {
         attachments.add(other);
         other.requestAttachment(this);
+        var ownGroup = getGroup();
+        var otherGroup = other.getGroup();
+        if (ownGroup == otherGroup) return;
+        var larger = ownGroup.size() >= otherGroup.size()? ownGroup : otherGroup;
+        var smaller = larger == ownGroup? otherGroup : ownGroup;
+        for (var member : smaller.getMembers()) {
+            member.group = larger;
+            larger.add(member);
+        }
     }
 
     void detach(Attachable other) {
-        attachments.remove(other);
+        if (!attachments.remove(other)) return;
         other.requestDetachment(this);
+        var separated = collectUnlessConnectedTo(other);
+        if (separated == null) return;
+        var oldGroup = group;
+        var newGroup = new AttachmentGroup();
+        for (var member : separated) {
+            oldGroup.remove(member);
+            member.group = newGroup;
+            newGroup.add(member);
+        }
     }
 
+    /**
+     * @return an unmodifiable view of the things directly attached to this one
+     */
     Set<Attachable> getAttachments() {
-        return new HashSet<>(attachments);
+        return Collections.unmodifiableSet(attachments);
     }
 
     public void detachAll() {
@@ -41,27 +70,46 @@ public abstract class Attachable extends Positionable {
         attachments.remove(requester);
     }
 
+    /**
+     * @return the group of all things that are (directly or indirectly) attached to this one, including this one
+     */
+    public AttachmentGroup getGroup() {
+        return group;
+    }
+
+    /**
+     * @return true if the other thing is (directly or indirectly) attached to this one (or the same)
+     */
+    public boolean isConnectedTo(Attachable other) {
+        return other != null && getGroup() == other.getGroup();
+    }
+
     /**
      * @return a set of all attachments and attachments attached to these attachments (and so on)
      * including this Attachable
      */
     public Set<Attachable> collectAllAttachments() {
-        var attachables = new HashSet<Attachable>();
-        attachables.add(this);
-        Set<Attachable> newAttachables = new HashSet<>(attachables);
-        while (!newAttachables.isEmpty()) {
-            var tempAttachables = new HashSet<Attachable>();
-            for (Attachable a : newAttachables) {
-                for (Attachable a2 : a.getAttachments()) {
-                    if (attachables.add(a2)) tempAttachables.add(a2);
-                }
-            }
-            newAttachables = tempAttachables;
-        }
-        return attachables;
+        return new HashSet<>(getGroup().getMembers());
     }
 
     public boolean isAttachedToAnotherEntity() {
-        return collectAllAttachments().stream().anyMatch(a -> a instanceof Entity && a != this);
+        return getGroup().getEntityCount() > (this instanceof Entity? 1 : 0);
+    }
+
+    /**
+     * @return all things reachable from this one via attachments or null if the target is among them
+     */
+    private Set<Attachable> collectUnlessConnectedTo(Attachable target) {
+        var reached = new HashSet<Attachable>();
+        reached.add(this);
+        var queue = new ArrayDeque<Attachable>();
+        queue.add(this);
+        while (!queue.isEmpty()) {
+            for (var next : queue.poll().attachments) {
+                if (next == target) return null;
+                if (reached.add(next)) queue.add(next);
+            }
+        }
+        return reached;
     }
 }
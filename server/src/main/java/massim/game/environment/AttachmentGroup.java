@@ -0,0 +1,85 @@
+package massim.game.environment;
+
+import massim.game.Entity;
+
+import java.util.*;
+
+/**
+ * A connected component of attached things, i.e. everything that is (directly or indirectly) attached to each other.
+ * Groups are maintained incrementally by {@link Attachable}: they are joined on attach and split on detach if necessary.
+ */
+public final class AttachmentGroup {
+
+    private final Set<Attachable> members = new HashSet<>();
+    private final Set<Attachable> membersView = Collections.unmodifiableSet(members);
+    /** number of entities in the group per team */
+    private final Map<String, Integer> teams = new HashMap<>();
+    private int entityCount;
+
+    AttachmentGroup() {}
+
+    /**
+     * Creates the group of a single thing, which may still be under construction.
+     * @param team the team of the thing if it is an entity
+     */
+    AttachmentGroup(Attachable first, String team) {
+        members.add(first);
+        if (first instanceof Entity) {
+            entityCount = 1;
+            teams.put(team, 1);
+        }
+    }
+
+    void add(Attachable a) {
+        if (!members.add(a)) return;
+        if (a instanceof Entity) {
+            entityCount++;
+            teams.merge(((Entity) a).getTeamName(), 1, Integer::sum);
+        }
+    }
+
+    void remove(Attachable a) {
+        if (!members.remove(a)) return;
+        if (a instanceof Entity) {
+            entityCount--;
+            teams.computeIfPresent(((Entity) a).getTeamName(), (team, n) -> n == 1? null : n - 1);
+        }
+    }
+
+    /**
+     * @return an unmodifiable view of all things in the group
+     */
+    public Set<Attachable> getMembers() {
+        return membersView;
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    public boolean contains(Attachable a) {
+        return members.contains(a);
+    }
+
+    public boolean containsEntity() {
+        return entityCount > 0;
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    /**
+     * @return the names of all teams that have an entity in this group
+     */
+    public Set<String> getTeams() {
+        return Collections.unmodifiableSet(teams.keySet());
+    }
+
+    /**
+     * @return true if the group contains an entity that does not belong to the given team
+     */
+    public boolean containsEntityNotOfTeam(String team) {
+        return teams.size() > 1 || (teams.size() == 1 && !teams.containsKey(team));
+    }
+}
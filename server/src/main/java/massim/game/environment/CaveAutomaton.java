@@ -0,0 +1,189 @@
+package massim.game.environment;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Cellular automaton behind the "cave" grid instruction.
+ * The terrain is kept in two generations of chunks (as in the {@link TerrainMap} of the same {@link CellLayout}),
+ * which are swapped after each iteration. In the chunked layout, chunks without any terrain need no storage.
+ * The grid is processed tile by tile: each tile is copied into a small window together with its neighbouring cells.
+ * Each iteration only reads the current generation, so bands of tiles can be processed in parallel
+ * while the result stays identical to a serial run.
+ */
+class CaveAutomaton {
+
+    /** minimum number of cells per band for splitting the work further */
+    static final int MIN_BAND_CELLS = 1 << 14;
+
+    private static final int TILE = CellLayout.TILE_SIZE;
+    private static final int WINDOW = TILE + 2;
+    private static final byte EMPTY = (byte) Terrain.EMPTY.id;
+    private static final byte OBSTACLE = (byte) Terrain.OBSTACLE.id;
+
+    private final CellLayout layout;
+    private final int dimX;
+    private final int dimY;
+    private final int tilesX;
+    private final int tileCount;
+    private final ForkJoinPool pool;
+    private final int minBandCells;
+    /** per chunk, null if all cells of the chunk are empty (only in the chunked layout) */
+    private byte[][] current;
+    private byte[][] next;
+
+    /**
+     * @param pool the pool to run the bands on or null to run serially
+     */
+    CaveAutomaton(CellLayout layout, ForkJoinPool pool, int minBandCells) {
+        this.layout = layout;
+        this.dimX = layout.dimX();
+        this.dimY = layout.dimY();
+        this.tilesX = (dimX + TILE - 1) / TILE;
+        this.tileCount = tilesX * ((dimY + TILE - 1) / TILE);
+        this.pool = pool;
+        this.minBandCells = minBandCells;
+        this.current = new byte[layout.chunkCount()][];
+        this.next = new byte[layout.chunkCount()][];
+        if (!layout.isChunked()) {
+            // all tiles write to the one chunk concurrently
+            current[0] = new byte[layout.chunkSize()];
+            next[0] = new byte[layout.chunkSize()];
+        }
+    }
+
+    CaveAutomaton(CellLayout layout) {
+        this(layout, ForkJoinPool.commonPool(), MIN_BAND_CELLS);
+    }
+
+    /**
+     * @param terrain a terrain map with the same layout
+     */
+    void load(TerrainMap terrain) {
+        for (var c = 0; c < current.length; c++) {
+            var chunk = terrain.chunk(c);
+            if (chunk != null) current[c] = chunk.clone();
+            else if (layout.isChunked()) current[c] = null;
+            else current[c] = new byte[layout.chunkSize()];
+        }
+    }
+
+    /**
+     * Hands the chunks of the current generation over to the terrain map (with the same layout),
+     * after which the automaton must not be used anymore.
+     */
+    void store(TerrainMap terrain) {
+        for (var c = 0; c < current.length; c++) terrain.setChunk(c, current[c]);
+    }
+
+    void setObstacle(int x, int y) {
+        var c = layout.chunk(x, y);
+        if (current[c] == null) current[c] = new byte[layout.chunkSize()];
+        current[c][layout.offset(x, y)] = OBSTACLE;
+    }
+
+    void run(int iterations, int createLimit, int destroyLimit) {
+        for (var it = 0; it < iterations; it++) {
+            if (pool == null || dimX * dimY <= minBandCells) iterate(0, tileCount, createLimit, destroyLimit);
+            else pool.invoke(new Band(0, tileCount, createLimit, destroyLimit));
+            var swap = current;
+            current = next;
+            next = swap;
+        }
+    }
+
+    /**
+     * Computes the next state of all tiles in [fromTile, toTile).
+     */
+    private void iterate(int fromTile, int toTile, int createLimit, int destroyLimit) {
+        var window = new byte[WINDOW * WINDOW];
+        for (var tile = fromTile; tile < toTile; tile++) {
+            var x0 = (tile % tilesX) * TILE;
+            var y0 = (tile / tilesX) * TILE;
+            var width = Math.min(TILE, dimX - x0);
+            var height = Math.min(TILE, dimY - y0);
+            fillWindow(window, x0, y0, width, height);
+
+            var c = layout.chunk(x0, y0);
+            var result = next[c];
+            var anyTerrain = false;
+            for (var ly = 0; ly < height; ly++) {
+                var offset = layout.offset(x0, y0 + ly);
+                for (var lx = 0; lx < width; lx++) {
+                    var i = (ly + 1) * WINDOW + lx + 1;
+                    var n = obstacle(window, i - WINDOW - 1) + obstacle(window, i - WINDOW)
+                            + obstacle(window, i - WINDOW + 1) + obstacle(window, i - 1) + obstacle(window, i + 1)
+                            + obstacle(window, i + WINDOW - 1) + obstacle(window, i + WINDOW)
+                            + obstacle(window, i + WINDOW + 1);
+                    var terrain = window[i];
+                    byte value;
+                    if (terrain == OBSTACLE) value = n < destroyLimit? EMPTY : OBSTACLE;
+                    else if (terrain == EMPTY) value = n > createLimit? OBSTACLE : EMPTY;
+                    else value = terrain;
+                    if (value != EMPTY) anyTerrain = true;
+                    if (result == null) {
+                        if (value == EMPTY) continue;
+                        result = new byte[layout.chunkSize()];
+                    }
+                    result[offset + lx] = value;
+                }
+            }
+            // in the chunked layout, each tile is a chunk of its own
+            if (layout.isChunked()) next[c] = anyTerrain? result : null;
+        }
+    }
+
+    /**
+     * Copies the tile's cells and the cells around it (wrapping around at the grid's edges) into the window.
+     */
+    private void fillWindow(byte[] window, int x0, int y0, int width, int height) {
+        var left = Math.floorMod(x0 - 1, dimX);
+        var right = Math.floorMod(x0 + width, dimX);
+        for (var wy = 0; wy < height + 2; wy++) {
+            var y = Math.floorMod(y0 - 1 + wy, dimY);
+            var row = wy * WINDOW;
+            window[row] = get(left, y);
+            var chunk = current[layout.chunk(x0, y)];
+            if (chunk == null) {
+                for (var lx = 1; lx <= width; lx++) window[row + lx] = EMPTY;
+            }
+            else System.arraycopy(chunk, layout.offset(x0, y), window, row + 1, width);
+            window[row + width + 1] = get(right, y);
+        }
+    }
+
+    private byte get(int x, int y) {
+        var chunk = current[layout.chunk(x, y)];
+        return chunk == null? EMPTY : chunk[layout.offset(x, y)];
+    }
+
+    private static int obstacle(byte[] cells, int i) {
+        return cells[i] == OBSTACLE? 1 : 0;
+    }
+
+    private class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromTile;
+        private final int toTile;
+        private final int createLimit;
+        private final int destroyLimit;
+
+        Band(int fromTile, int toTile, int createLimit, int destroyLimit) {
+            this.fromTile = fromTile;
+            this.toTile = toTile;
+            this.createLimit = createLimit;
+            this.destroyLimit = destroyLimit;
+        }
+
+        @Override
+        protected void compute() {
+            if ((toTile - fromTile) * TILE * TILE <= minBandCells || toTile - fromTile < 2) {
+                iterate(fromTile, toTile, createLimit, destroyLimit);
+                return;
+            }
+            var mid = (fromTile + toTile) >>> 1;
+            invokeAll(new Band(fromTile, mid, createLimit, destroyLimit), new Band(mid, toTile, createLimit, destroyLimit));
+        }
+    }
+}
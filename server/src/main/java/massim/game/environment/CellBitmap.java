@@ -0,0 +1,133 @@
+package massim.game.environment;
+
+import java.util.Arrays;
+
+/**
+ * A bitset with one bit per grid cell. Storage for a chunk is only allocated once one of its bits is set.
+ * In the chunked layout, chunks with all bits set share a single full chunk, which is only copied when one of
+ * its bits is cleared again (so that mostly set bitmaps like the free cells take little memory as well).
+ * Cells can also be addressed by their index {@code y * dimX + x}, i.e. in the order in which the placement
+ * routines scan the grid.
+ */
+class CellBitmap {
+
+    private final CellLayout layout;
+    private final long[][] chunks;
+    /** the number of set bits in each chunk */
+    private final int[] counts;
+    private final long[] full;
+    private int count;
+
+    CellBitmap(CellLayout layout) {
+        this.layout = layout;
+        this.chunks = new long[layout.chunkCount()][];
+        this.counts = new int[layout.chunkCount()];
+        this.full = new long[layout.isChunked()? (layout.chunkSize() + 63) >>> 6 : 0];
+        Arrays.fill(full, -1L);
+    }
+
+    boolean get(int x, int y) {
+        var chunk = chunks[layout.chunk(x, y)];
+        if (chunk == null) return false;
+        var i = layout.offset(x, y);
+        return (chunk[i >>> 6] & (1L << i)) != 0;
+    }
+
+    void set(int x, int y, boolean value) {
+        var c = layout.chunk(x, y);
+        var chunk = chunks[c];
+        var i = layout.offset(x, y);
+        if (chunk == null) {
+            if (!value) return;
+            chunk = new long[(layout.chunkSize() + 63) >>> 6];
+        }
+        else if (((chunk[i >>> 6] & (1L << i)) != 0) == value) return;
+        else if (chunk == full) chunk = full.clone();
+        if (value) {
+            chunk[i >>> 6] |= 1L << i;
+            counts[c]++;
+            count++;
+        }
+        else {
+            chunk[i >>> 6] &= ~(1L << i);
+            counts[c]--;
+            count--;
+        }
+        var shared = layout.isChunked() && counts[c] == layout.width(c) * layout.height(c);
+        chunks[c] = shared? full : chunk;
+    }
+
+    /**
+     * @return the number of set bits
+     */
+    int count() {
+        return count;
+    }
+
+    int index(int x, int y) {
+        return y * layout.dimX() + x;
+    }
+
+    int x(int index) {
+        return index % layout.dimX();
+    }
+
+    int y(int index) {
+        return index / layout.dimX();
+    }
+
+    /**
+     * @return the number of cells (i.e. the exclusive upper bound for indices)
+     */
+    int size() {
+        return layout.dimX() * layout.dimY();
+    }
+
+    /**
+     * Scans the cells run by run, a word at a time, skipping runs in chunks without storage or in the full chunk.
+     * @return the index of the first cell in [from, to) whose bit has the given value or -1 if there is none
+     */
+    int next(boolean value, int from, int to) {
+        var i = from;
+        while (i < to) {
+            var x = x(i);
+            var y = y(i);
+            var length = Math.min(layout.run(x, y), to - i);
+            var chunk = chunks[layout.chunk(x, y)];
+            if (chunk == null || chunk == full) {
+                if (value == (chunk == full)) return i;
+            }
+            else {
+                var offset = layout.offset(x, y);
+                var found = scan(chunk, value, offset, offset + length);
+                if (found >= 0) return i + found - offset;
+            }
+            i += length;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first cell at or after the start index whose bit has the given value, wrapping around at the end,
+     * or -1 if there is none
+     */
+    int nextWrapped(boolean value, int start) {
+        var i = next(value, start, size());
+        return i >= 0? i : next(value, 0, start);
+    }
+
+    /**
+     * @return the first offset in [from, to) whose bit has the given value or -1 if there is none
+     */
+    private static int scan(long[] chunk, boolean value, int from, int to) {
+        for (var w = from >>> 6; w << 6 < to; w++) {
+            var word = value? chunk[w] : ~chunk[w];
+            if (w == from >>> 6) word &= -1L << from;
+            if (word != 0) {
+                var i = (w << 6) + Long.numberOfTrailingZeros(word);
+                return i < to? i : -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,119 @@
+package massim.game.environment;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Store of the things occupying each cell of the grid, addressed through a {@link CellLayout}.
+ * Each cell holds a compact list of its occupants (in insertion order), which is only allocated once something
+ * is placed there. Likewise, the per-cell tables of a chunk are only allocated once the chunk gets its first occupant.
+ */
+class CellIndex {
+
+    private static final int INITIAL_CELL_CAPACITY = 2;
+
+    private final CellLayout layout;
+    private final Positionable[][][] occupants;
+    private final int[][] counts;
+
+    CellIndex(CellLayout layout) {
+        this.layout = layout;
+        this.occupants = new Positionable[layout.chunkCount()][][];
+        this.counts = new int[layout.chunkCount()][];
+    }
+
+    void add(int x, int y, Positionable thing) {
+        var c = layout.chunk(x, y);
+        if (occupants[c] == null) {
+            occupants[c] = new Positionable[layout.chunkSize()][];
+            counts[c] = new int[layout.chunkSize()];
+        }
+        var chunk = occupants[c];
+        var chunkCounts = counts[c];
+        var i = layout.offset(x, y);
+        var cell = chunk[i];
+        if (cell == null) {
+            cell = new Positionable[INITIAL_CELL_CAPACITY];
+            chunk[i] = cell;
+        }
+        else if (chunkCounts[i] == cell.length) {
+            var grown = new Positionable[cell.length * 2];
+            System.arraycopy(cell, 0, grown, 0, cell.length);
+            cell = grown;
+            chunk[i] = cell;
+        }
+        cell[chunkCounts[i]++] = thing;
+    }
+
+    /**
+     * @return true if the thing was found in the cell and removed
+     */
+    boolean remove(int x, int y, Positionable thing) {
+        var c = layout.chunk(x, y);
+        if (occupants[c] == null) return false;
+        var i = layout.offset(x, y);
+        var cell = occupants[c][i];
+        var count = counts[c][i];
+        for (var j = 0; j < count; j++) {
+            if (cell[j] == thing) {
+                System.arraycopy(cell, j + 1, cell, j, count - j - 1);
+                cell[--counts[c][i]] = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of things in the cell
+     */
+    int count(int x, int y) {
+        var chunkCounts = counts[layout.chunk(x, y)];
+        return chunkCounts == null? 0 : chunkCounts[layout.offset(x, y)];
+    }
+
+    /**
+     * @return the n-th thing in the cell (no bounds check against the cell's count)
+     */
+    Positionable get(int x, int y, int n) {
+        return occupants[layout.chunk(x, y)][layout.offset(x, y)][n];
+    }
+
+    /**
+     * Passes each thing in the cell to the consumer. The cell must not be modified meanwhile.
+     */
+    void forEach(int x, int y, Consumer<Positionable> consumer) {
+        var c = layout.chunk(x, y);
+        if (occupants[c] == null) return;
+        var i = layout.offset(x, y);
+        var cell = occupants[c][i];
+        var count = counts[c][i];
+        for (var j = 0; j < count; j++) consumer.accept(cell[j]);
+    }
+
+    /**
+     * @return true if any thing in the cell matches the predicate
+     */
+    boolean any(int x, int y, Predicate<Positionable> predicate) {
+        var c = layout.chunk(x, y);
+        if (occupants[c] == null) return false;
+        var i = layout.offset(x, y);
+        var cell = occupants[c][i];
+        var count = counts[c][i];
+        for (var j = 0; j < count; j++) {
+            if (predicate.test(cell[j])) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return a new set containing all things in the cell
+     */
+    Set<Positionable> copy(int x, int y) {
+        var result = new HashSet<Positionable>();
+        forEach(x, y, result::add);
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+package massim.game.environment;
+
+/**
+ * Maps grid cells to storage locations (a chunk and an offset within that chunk).
+ * In the dense layout, all cells live in a single chunk and are addressed by {@code y * dimX + x}.
+ * In the chunked layout, the grid is split into square tiles which are stored separately,
+ * so that tiles without any content need no storage of their own.
+ * Both layouts store the cells of a row next to each other (within a tile), so that the grid can be scanned
+ * in the order of the placement routines (x first, then y) run by run.
+ */
+final class CellLayout {
+
+    static final String DENSE = "dense";
+    static final String CHUNKED = "chunked";
+
+    private static final int TILE_BITS = 5;
+    /** width and height of a tile (which is also a chunk in the chunked layout) */
+    static final int TILE_SIZE = 1 << TILE_BITS;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    private final boolean chunked;
+    private final int dimX;
+    private final int dimY;
+    private final int tilesX;
+    private final int chunkCount;
+    private final int chunkSize;
+
+    private CellLayout(boolean chunked, int dimX, int dimY) {
+        this.chunked = chunked;
+        this.dimX = dimX;
+        this.dimY = dimY;
+        if (chunked) {
+            this.tilesX = (dimX + TILE_MASK) >> TILE_BITS;
+            this.chunkCount = tilesX * ((dimY + TILE_MASK) >> TILE_BITS);
+            this.chunkSize = 1 << (2 * TILE_BITS);
+        }
+        else {
+            this.tilesX = 1;
+            this.chunkCount = 1;
+            this.chunkSize = dimX * dimY;
+        }
+    }
+
+    static CellLayout dense(int dimX, int dimY) {
+        return new CellLayout(false, dimX, dimY);
+    }
+
+    static CellLayout chunked(int dimX, int dimY) {
+        return new CellLayout(true, dimX, dimY);
+    }
+
+    int chunk(int x, int y) {
+        return chunked? (y >> TILE_BITS) * tilesX + (x >> TILE_BITS) : 0;
+    }
+
+    int offset(int x, int y) {
+        return chunked? ((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK) : y * dimX + x;
+    }
+
+    /**
+     * @return the number of cells from the given one onwards (x first, then y) which directly follow each other
+     * in the same chunk
+     */
+    int run(int x, int y) {
+        return chunked? Math.min(TILE_SIZE - (x & TILE_MASK), dimX - x) : (dimY - y) * dimX - x;
+    }
+
+    boolean isChunked() {
+        return chunked;
+    }
+
+    /**
+     * @return the smallest x coordinate of the cells in the chunk
+     */
+    int originX(int chunk) {
+        return chunked? (chunk % tilesX) << TILE_BITS : 0;
+    }
+
+    /**
+     * @return the smallest y coordinate of the cells in the chunk
+     */
+    int originY(int chunk) {
+        return chunked? (chunk / tilesX) << TILE_BITS : 0;
+    }
+
+    /**
+     * @return the number of columns of the grid in the chunk (tiles at the edge of the grid may be cut off)
+     */
+    int width(int chunk) {
+        return chunked? Math.min(TILE_SIZE, dimX - originX(chunk)) : dimX;
+    }
+
+    /**
+     * @return the number of rows of the grid in the chunk
+     */
+    int height(int chunk) {
+        return chunked? Math.min(TILE_SIZE, dimY - originY(chunk)) : dimY;
+    }
+
+    int dimX() {
+        return dimX;
+    }
+
+    int dimY() {
+        return dimY;
+    }
+
+    int chunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * @return the number of cells per chunk
+     */
+    int chunkSize() {
+        return chunkSize;
+    }
+}
@@ -0,0 +1,90 @@
+package massim.game.environment;
+
+import java.util.Arrays;
+
+/**
+ * Running counts of empty terrain cells along each row of the grid, restarting every {@link CellLayout#TILE_SIZE}
+ * cells, for counting the empty cells within a radius in O(radius) instead of O(radius^2).
+ * The counts are stored per chunk of the {@link CellLayout} with a byte per cell. They are built lazily for each
+ * chunk and have to be invalidated whenever the terrain changes. Chunks of the chunked layout without any terrain
+ * share a single table.
+ */
+class EmptyTerrainCounts {
+
+    private static final int BLOCK = CellLayout.TILE_SIZE;
+
+    private final CellLayout layout;
+    private final int dimX;
+    private final int dimY;
+    /** per chunk: for each cell, the number of empty cells from the start of its block up to and including itself */
+    private final byte[][] tables;
+    private byte[] emptyTable;
+
+    EmptyTerrainCounts(CellLayout layout) {
+        this.layout = layout;
+        this.dimX = layout.dimX();
+        this.dimY = layout.dimY();
+        this.tables = new byte[layout.chunkCount()][];
+    }
+
+    void invalidate() {
+        Arrays.fill(tables, null);
+    }
+
+    /**
+     * @return the number of empty cells within the given (manhattan) radius around the center, counting a cell
+     * multiple times if the area wraps around onto itself (like iterating over the area would)
+     */
+    int countInArea(TerrainMap terrain, int cx, int cy, int radius) {
+        var count = 0;
+        for (var dy = -radius; dy <= radius; dy++) {
+            var halfWidth = radius - Math.abs(dy);
+            count += countInRow(terrain, Math.floorMod(cy + dy, dimY), cx - halfWidth, 2 * halfWidth + 1);
+        }
+        return count;
+    }
+
+    private int countInRow(TerrainMap terrain, int y, int fromX, int length) {
+        var count = 0;
+        var x = Math.floorMod(fromX, dimX);
+        while (length > 0) {
+            // the part of the row in the block of x
+            var n = Math.min(length, Math.min(BLOCK - x % BLOCK, dimX - x));
+            var c = layout.chunk(x, y);
+            var table = tables[c];
+            if (table == null) table = build(terrain, c);
+            var offset = layout.offset(x, y);
+            count += table[offset + n - 1];
+            if (x % BLOCK != 0) count -= table[offset - 1];
+            length -= n;
+            x += n;
+            if (x == dimX) x = 0;
+        }
+        return count;
+    }
+
+    private byte[] build(TerrainMap terrain, int c) {
+        var chunk = terrain.chunk(c);
+        if (chunk == null && layout.isChunked()) {
+            if (emptyTable == null) {
+                emptyTable = new byte[layout.chunkSize()];
+                for (var i = 0; i < emptyTable.length; i++) emptyTable[i] = (byte) (i % BLOCK + 1);
+            }
+            tables[c] = emptyTable;
+            return emptyTable;
+        }
+        var table = new byte[layout.chunkSize()];
+        var originX = layout.originX(c);
+        var originY = layout.originY(c);
+        for (var y = originY; y < originY + layout.height(c); y++) {
+            var count = 0;
+            for (var x = originX; x < originX + layout.width(c); x++) {
+                if (x % BLOCK == 0) count = 0;
+                if (chunk == null || chunk[layout.offset(x, y)] == Terrain.EMPTY.id) count++;
+                table[layout.offset(x, y)] = (byte) count;
+            }
+        }
+        tables[c] = table;
+        return table;
+    }
+}
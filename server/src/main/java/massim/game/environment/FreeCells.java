@@ -0,0 +1,61 @@
+package massim.game.environment;
+
+/**
+ * The free cells of the grid (empty terrain and nothing attachable in it), indexed in the order in which
+ * the placement routines scan the grid, i.e. x first, then y (index {@code y * dimX + x}).
+ * Stored in a {@link CellBitmap}, so that finding the next free cell skips chunks that are completely free or blocked
+ * a run at a time, and a chunked grid only needs storage for the chunks with both free and blocked cells.
+ * Inserting and removing a cell are O(1).
+ */
+class FreeCells {
+
+    private final CellBitmap cells;
+
+    FreeCells(CellLayout layout) {
+        this.cells = new CellBitmap(layout);
+    }
+
+    int index(int x, int y) {
+        return cells.index(x, y);
+    }
+
+    int x(int index) {
+        return cells.x(index);
+    }
+
+    int y(int index) {
+        return cells.y(index);
+    }
+
+    /**
+     * @return the number of cells (i.e. the exclusive upper bound for indices)
+     */
+    int size() {
+        return cells.size();
+    }
+
+    /**
+     * @return the number of free cells
+     */
+    int count() {
+        return cells.count();
+    }
+
+    void set(int x, int y, boolean free) {
+        cells.set(x, y, free);
+    }
+
+    /**
+     * @return the index of the first free cell in [from, to) or -1 if there is none
+     */
+    int next(int from, int to) {
+        return cells.next(true, from, to);
+    }
+
+    /**
+     * @return the first free cell at or after the start index, wrapping around at the end, or -1 if there is none
+     */
+    int nextWrapped(int start) {
+        return cells.nextWrapped(true, start);
+    }
+}
@@ -13,6 +13,8 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class Grid {
 
@@ -24,19 +26,41 @@ public class Grid {
     private int dimX;
     private int dimY;
     private int attachLimit;
-    private Map<Position, Set<Positionable>> thingsMap;
-    private Terrain[][] terrainMap;
+    private CellIndex cells;
+    /** cells that are blocked by an obstacle or an attachable */
+    private CellBitmap blocked;
+    /** cells with empty terrain that are not blocked */
+    private FreeCells freeCells;
+    private EmptyTerrainCounts emptyTerrainCounts;
+    private CellLayout layout;
+    private TerrainMap terrainMap;
     private List<Marker> markers = new ArrayList<>();
-    private Map<String,Boolean> blockedForTaskBoards = new HashMap<>();
+    /** cells too close to a goal zone for placing a task board */
+    private CellBitmap blockedForTaskBoards;
 
     public Grid(JSONObject gridConf, int attachLimit, int distanceToTaskboards) {
         this.attachLimit = attachLimit;
         dimX = gridConf.getInt("width");
         dimY = gridConf.getInt("height");
         Position.setGridDimensions(dimX, dimY);
-        thingsMap = new HashMap<>();
-        terrainMap = new Terrain[dimX][dimY];
-        for (Terrain[] col : terrainMap) Arrays.fill(col, Terrain.EMPTY);
+        var storage = gridConf.optString("storage", CellLayout.DENSE);
+        switch (storage) {
+            case CellLayout.CHUNKED:
+                layout = CellLayout.chunked(dimX, dimY);
+                break;
+            case CellLayout.DENSE:
+                layout = CellLayout.dense(dimX, dimY);
+                break;
+            default:
+                Log.log(Log.Level.ERROR, "Unknown grid storage " + storage + ", using " + CellLayout.DENSE);
+                layout = CellLayout.dense(dimX, dimY);
+        }
+        cells = new CellIndex(layout);
+        blocked = new CellBitmap(layout);
+        freeCells = new FreeCells(layout);
+        emptyTerrainCounts = new EmptyTerrainCounts(layout);
+        blockedForTaskBoards = new CellBitmap(layout);
+        terrainMap = new TerrainMap(layout);
 
         // terrain from bitmap
         String mapFilePath = gridConf.optString("file");
@@ -73,18 +97,21 @@ public class Grid {
                     break;
                 case "cave":
                     var chanceAlive = instruction.getDouble(1);
+                    var cave = new CaveAutomaton(layout);
+                    cave.load(terrainMap);
                     for (int x = 0; x < dimX; x++) { for (int y = 0; y < dimY; y++) {
-                        if (RNG.nextDouble() < chanceAlive) terrainMap[x][y] = Terrain.OBSTACLE;
+                        if (RNG.nextDouble() < chanceAlive) cave.setObstacle(x, y);
                     }}
                     var iterations = instruction.getInt(2);
                     var createLimit = instruction.getInt(3);
                     var destroyLimit = instruction.getInt(4);
-                    for (var it = 0; it < iterations; it++) {
-                        doCaveIteration(createLimit, destroyLimit);
-                    }
+                    cave.run(iterations, createLimit, destroyLimit);
+                    cave.store(terrainMap);
+                    emptyTerrainCounts.invalidate();
                     break;
             }
         }
+        for (var x = 0; x < dimX; x++) { for (var y = 0; y < dimY; y++) updateBlocked(x, y); }
 
         // goal terrain
         var goalConf = gridConf.getJSONObject("goals");
@@ -95,63 +122,21 @@ public class Grid {
         for (var i = 0; i < goalNumber; i++) {
             var centerPos = findRandomFreePosition();
             var size = RNG.betweenClosed(goalSizeMin, goalSizeMax);
-            for (var pos : centerPos.spanArea(size)) setTerrain(pos, Terrain.GOAL);
+            centerPos.forEachInArea(size, (x, y) -> setTerrain(Position.of(x, y), Terrain.GOAL));
 
-            for (var pos : centerPos.spanArea(size + distanceToTaskboards))
-                blockedForTaskBoards.put(pos.toString(), true);
+            centerPos.forEachInArea(size + distanceToTaskboards,
+                    (x, y) -> blockedForTaskBoards.set(x, y, true));
         }
     }
 
     public Position findNewTaskboardPosition() {
         var start = findRandomFreePosition();
-        var pos = start;
-        while (blockedForTaskBoards.getOrDefault(pos.toString(), false)) {
-            var x = pos.x + 1;
-            var y = pos.y;
-            if (x >= dimX) {
-                x = 0;
-                y += 1;
-                if (y >= dimY) {
-                    y = 0;
-                }
-            }
-            pos = Position.of(x,y);
-            if (pos.equals(start)) {
-                Log.log(Log.Level.ERROR, "Grid too small to place all things.");
-                return null;
-            }
+        var i = blockedForTaskBoards.nextWrapped(false, blockedForTaskBoards.index(start.x, start.y));
+        if (i < 0) {
+            Log.log(Log.Level.ERROR, "Grid too small to place all things.");
+            return null;
         }
-        return pos;
-    }
-
-    private void doCaveIteration(int createLimit, int destroyLimit) {
-        var newTerrain = new Terrain[dimX][dimY];
-        for (var x = 0; x < dimX; x++) { for (var y = 0; y < dimY; y++) {
-            var n = countObstacleNeighbours(x,y);
-            if (terrainMap[x][y] == Terrain.OBSTACLE) {
-                if (n < destroyLimit) newTerrain[x][y] = Terrain.EMPTY;
-                else newTerrain[x][y] = Terrain.OBSTACLE;
-            }
-            else if (terrainMap[x][y] == Terrain.EMPTY) {
-                if (n > createLimit) newTerrain[x][y] = Terrain.OBSTACLE;
-                else newTerrain[x][y] = Terrain.EMPTY;
-            }
-            else {
-                newTerrain[x][y] = terrainMap[x][y];
-            }
-        }}
-        terrainMap = newTerrain;
-    }
-
-    private int countObstacleNeighbours(int cx, int cy) {
-        var count = 0;
-        for (var x = cx - 1; x <= cx + 1; x++) { for (var y = cy - 1; y <= cy + 1; y++) {
-            if (x != cx || y != cy) {
-                var pos = Position.wrapped(x, y);
-                if (terrainMap[pos.x][pos.y] == Terrain.OBSTACLE) count++;
-            }
-        }}
-        return count;
+        return Position.of(blockedForTaskBoards.x(i), blockedForTaskBoards.y(i));
     }
 
     /**
@@ -159,12 +144,12 @@ public class Grid {
      */
     private void createLineBorder(int offset) {
         for (int x = offset; x < dimX - offset; x++) {
-            terrainMap[x][offset] = Terrain.OBSTACLE;
-            terrainMap[x][dimY - (offset + 1)] = Terrain.OBSTACLE;
+            terrainMap.set(x, offset, Terrain.OBSTACLE);
+            terrainMap.set(x, dimY - (offset + 1), Terrain.OBSTACLE);
         }
         for (int y = offset; y < dimY - offset; y++) {
-            terrainMap[offset][y] = Terrain.OBSTACLE;
-            terrainMap[dimX - (offset + 1)][y] = Terrain.OBSTACLE;
+            terrainMap.set(offset, y, Terrain.OBSTACLE);
+            terrainMap.set(dimX - (offset + 1), y, Terrain.OBSTACLE);
         }
     }
 
@@ -172,22 +157,22 @@ public class Grid {
         var currentWidth = width;
         for (var x = 0; x < dimX; x++) {
             currentWidth = Math.max(currentWidth - 1 + RNG.nextInt(3), 1);
-            for (var i = 0; i < currentWidth; i++) terrainMap[x][i] = Terrain.OBSTACLE;
+            for (var i = 0; i < currentWidth; i++) terrainMap.set(x, i, Terrain.OBSTACLE);
         }
         currentWidth = width;
         for (var x = 0; x < dimX; x++) {
             currentWidth = Math.max(currentWidth - 1 + RNG.nextInt(3), 1);
-            for (var i = 0; i < currentWidth; i++) terrainMap[x][dimY - (i + 1)] = Terrain.OBSTACLE;
+            for (var i = 0; i < currentWidth; i++) terrainMap.set(x, dimY - (i + 1), Terrain.OBSTACLE);
         }
         currentWidth = width;
         for (var y = 0; y < dimY; y++) {
             currentWidth = Math.max(currentWidth - 1 + RNG.nextInt(3), 1);
-            for (var i = 0; i < currentWidth; i++) terrainMap[i][y] = Terrain.OBSTACLE;
+            for (var i = 0; i < currentWidth; i++) terrainMap.set(i, y, Terrain.OBSTACLE);
         }
         currentWidth = width;
         for (var y = 0; y < dimY; y++) {
             currentWidth = Math.max(currentWidth - 1 + RNG.nextInt(3), 1);
-            for (var i = 0; i < currentWidth; i++) terrainMap[dimX - (i + 1)][y] = Terrain.OBSTACLE;
+            for (var i = 0; i < currentWidth; i++) terrainMap.set(dimX - (i + 1), y, Terrain.OBSTACLE);
         }
     }
 
@@ -215,32 +200,90 @@ public class Grid {
     public void destroyThing(Positionable a) {
         if (a == null) return;
         if (a instanceof Attachable) ((Attachable) a).detachAll();
-        var things = thingsMap.get(a.getPosition());
-        if (things != null) things.remove(a);
+        removeThing(a);
+    }
+
+    /**
+     * Passes all things at the given cell to the consumer without copying them.
+     * The consumer must not add, remove or move things on the grid (use {@link #getThings(Position)} for that).
+     * Nothing happens for cells that are out of bounds.
+     */
+    public void forEachThingAt(int x, int y, Consumer<Positionable> consumer) {
+        if (outOfBounds(x, y)) return;
+        cells.forEach(x, y, consumer);
     }
 
     /**
-     * @return a copy of the set of things at the given position
+     * @return true if any thing at the given cell matches the predicate (false for cells out of bounds)
+     */
+    public boolean anyThingAt(int x, int y, Predicate<Positionable> predicate) {
+        if (outOfBounds(x, y)) return false;
+        return cells.any(x, y, predicate);
+    }
+
+    /**
+     * @return the number of attachables at the given cell (0 for cells out of bounds)
+     */
+    public int countAttachablesAt(int x, int y) {
+        if (outOfBounds(x, y)) return 0;
+        var count = 0;
+        for (var i = 0; i < cells.count(x, y); i++) {
+            if (cells.get(x, y, i) instanceof Attachable) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return a copy of the set of things at the given position (safe to modify the grid while iterating it)
      */
     public Set<Positionable> getThings(Position pos) {
-        return new HashSet<>(thingsMap.computeIfAbsent(pos, kPos -> new HashSet<>()));
+        if (outOfBounds(pos)) return new HashSet<>();
+        return cells.copy(pos.x, pos.y);
     }
 
     private boolean insertThing(Positionable thing) {
-        if (outOfBounds(thing.getPosition())) return false;
-        thingsMap.computeIfAbsent(thing.getPosition(), pos -> new HashSet<>()).add(thing);
+        var pos = thing.getPosition();
+        if (outOfBounds(pos)) return false;
+        cells.add(pos.x, pos.y, thing);
+        if (thing instanceof Attachable) {
+            blocked.set(pos.x, pos.y, true);
+            freeCells.set(pos.x, pos.y, false);
+        }
         return true;
     }
 
+    /**
+     * Removes the thing from the cell it currently occupies (if it is on the grid at all).
+     */
+    private void removeThing(Positionable thing) {
+        var pos = thing.getPosition();
+        if (outOfBounds(pos)) return;
+        if (cells.remove(pos.x, pos.y, thing) && thing instanceof Attachable) updateBlocked(pos.x, pos.y);
+    }
+
+    /**
+     * Recomputes whether the cell is blocked (and whether it is free) from its terrain and occupants.
+     */
+    private void updateBlocked(int x, int y) {
+        var terrain = terrainMap.get(x, y);
+        var isBlocked = terrain == Terrain.OBSTACLE || cells.any(x, y, t -> t instanceof Attachable);
+        blocked.set(x, y, isBlocked);
+        freeCells.set(x, y, !isBlocked && terrain == Terrain.EMPTY);
+    }
+
     /**
      * @return true if a position is out of the grid's bounds (it could be wrapped back in though).
      */
     public boolean outOfBounds(Position pos) {
-        return pos == null || pos.x < 0 || pos.y < 0 || pos.x >= dimX || pos.y >= dimY;
+        return pos == null || outOfBounds(pos.x, pos.y);
+    }
+
+    private boolean outOfBounds(int x, int y) {
+        return x < 0 || y < 0 || x >= dimX || y >= dimY;
     }
 
-    private void move(Set<Positionable> things, Map<Positionable, Position> newPositions) {
-        things.forEach(t -> thingsMap.getOrDefault(t.getPosition(), Collections.emptySet()).remove(t));
+    private void move(Collection<? extends Positionable> things, Map<Positionable, Position> newPositions) {
+        things.forEach(this::removeThing);
         for (Positionable thing : things) {
             var newPos = newPositions.get(thing);
             thing.setPosition(newPos);
@@ -264,9 +307,10 @@ public class Grid {
         if (a1 == null || a2 == null) return false;
         if (a1.getPosition().distanceTo(a2.getPosition()) != 1) return false;
 
-        var attachments = a1.collectAllAttachments();
-        attachments.addAll(a2.collectAllAttachments());
-        if (attachments.size() > attachLimit) return false;
+        var group1 = a1.getGroup();
+        var group2 = a2.getGroup();
+        var size = group1 == group2? group1.size() : group1.size() + group2.size();
+        if (size > attachLimit) return false;
 
         a1.attach(a2);
         return true;
@@ -284,7 +328,7 @@ public class Grid {
         var sb = new StringBuilder(dimX * dimY * 3 + dimY);
         for (int row = 0; row < dimY; row++){
             for (int col = 0; col < dimX; col++){
-                sb.append("[").append(getThings(Position.of(col, row)).size()).append("]");
+                sb.append("[").append(cells.count(col, row)).append("]");
             }
             sb.append("\n");
         }
@@ -295,7 +339,7 @@ public class Grid {
      * @return whether the movement succeeded
      */
     public boolean moveWithAttached(Attachable anchor, String direction, int distance) {
-        var things = new HashSet<Positionable>(anchor.collectAllAttachments());
+        var things = anchor.getGroup().getMembers();
         var newPositions = canMove(things, direction, distance);
         if (newPositions == null) return false;
         move(things, newPositions);
@@ -318,10 +362,10 @@ public class Grid {
      * @return a map from the element and all attachments to their new positions after rotation or null if anything is blocked
      */
     private Map<Positionable, Position> canRotate(Attachable anchor, boolean clockwise) {
-        var attachments = new HashSet<Positionable>(anchor.collectAllAttachments());
-        if(attachments.stream().anyMatch(a -> a != anchor && a instanceof Entity)) return null;
+        if (anchor.isAttachedToAnotherEntity()) return null;
+        var attachments = anchor.getGroup().getMembers();
         var newPositions = new HashMap<Positionable, Position>();
-        for (Positionable a : attachments) {
+        for (Attachable a : attachments) {
             var rotatedPos = a.getPosition().rotated90(anchor.getPosition(), clockwise);
             if(!isUnblocked(rotatedPos, attachments)) return null;
             newPositions.put(a, rotatedPos);
@@ -329,7 +373,7 @@ public class Grid {
         return newPositions;
     }
 
-    private Map<Positionable, Position> canMove(Set<Positionable> things, String direction, int distance) {
+    private Map<Positionable, Position> canMove(Set<? extends Positionable> things, String direction, int distance) {
         var newPositions = new HashMap<Positionable, Position>();
         for (Positionable thing : things) {
             for (int i = 1; i <= distance; i++) {
@@ -344,19 +388,12 @@ public class Grid {
     public Position findRandomFreePosition() {
         int x = RNG.nextInt(dimX);
         int y = RNG.nextInt(dimY);
-        final int startX = x;
-        final int startY = y;
-        while (!isUnblocked(Position.of(x,y)) || terrainMap[x][y] != Terrain.EMPTY) {
-            if (++x >= dimX) {
-                x = 0;
-                if (++y >= dimY) y = 0;
-            }
-            if (x == startX && y == startY) {
-                Log.log(Log.Level.ERROR, "No free position");
-                return null;
-            }
+        var i = freeCells.nextWrapped(freeCells.index(x, y));
+        if (i < 0) {
+            Log.log(Log.Level.ERROR, "No free position");
+            return null;
         }
-        return Position.of(x, y);
+        return Position.of(freeCells.x(i), freeCells.y(i));
     }
     
     public ArrayList<Position> findRandomFreeClusterPosition(int clusterSize) {
@@ -364,30 +401,27 @@ public class Grid {
         int x = RNG.nextInt(dimX);
         int y = RNG.nextInt(dimY);
         final int radius = (int) (Math.log(clusterSize)/Math.log(2)); 
-        final int startX = x;
-        final int startY = y;
-        
-        while (!isUnblocked(Position.of(x,y)) || terrainMap[x][y] != Terrain.EMPTY || !hasEnoughFreeSpots(Position.of(x,y),radius,clusterSize)) {
-            if (++x >= dimX) {
-                x = 0;
-                if (++y >= dimY) y = 0;
-            }
-            if (x == startX && y == startY) {
-                Log.log(Log.Level.ERROR, "No free position");
-                return null;
-            }
+        final int start = freeCells.index(x, y);
+
+        var i = freeCells.next(start, freeCells.size());
+        while (i >= 0 && !hasEnoughFreeSpots(freeCells.x(i), freeCells.y(i), radius, clusterSize))
+            i = freeCells.next(i + 1, freeCells.size());
+        if (i < 0) {
+            i = freeCells.next(0, start);
+            while (i >= 0 && !hasEnoughFreeSpots(freeCells.x(i), freeCells.y(i), radius, clusterSize))
+                i = freeCells.next(i + 1, start);
+        }
+        if (i < 0) {
+            Log.log(Log.Level.ERROR, "No free position");
+            return null;
         }
 
-        Position.of(x, y).spanArea(radius).forEach((p) -> {if(cluster.size() == clusterSize) return;  if(getTerrain(p) == Terrain.EMPTY) cluster.add(p);});
+        Position.of(freeCells.x(i), freeCells.y(i)).spanArea(radius).forEach((p) -> {if(cluster.size() == clusterSize) return;  if(getTerrain(p) == Terrain.EMPTY) cluster.add(p);});
 
         return cluster;
     }
-    private boolean hasEnoughFreeSpots(Position origin, int radius, int numberPositionNeeded){
-        int freeSpots = 0;
-        for (Position p : origin.spanArea(radius)) 
-            if (getTerrain(p) == Terrain.EMPTY)
-                freeSpots++;
-        return freeSpots >= numberPositionNeeded;
+    private boolean hasEnoughFreeSpots(int x, int y, int radius, int numberPositionNeeded){
+        return emptyTerrainCounts.countInArea(terrainMap, x, y, radius) >= numberPositionNeeded;
     }
 
     public Position findRandomFreePosition(Position center, int maxDistance) {
@@ -411,21 +445,27 @@ public class Grid {
         return isUnblocked(xy, Collections.emptySet());
     }
 
-    private boolean isUnblocked(Position xy, Set<Positionable> excludedObjects) {
+    /**
+     * @param excludedObjects things that do not count as blocking (e.g. the structure that is being moved)
+     */
+    private boolean isUnblocked(Position xy, Set<? extends Positionable> excludedObjects) {
         if (outOfBounds(xy)) xy = xy.wrapped();
-        if (terrainMap[xy.x][xy.y] == Terrain.OBSTACLE) return false;
+        if (!blocked.get(xy.x, xy.y)) return true;
+        if (excludedObjects.isEmpty() || terrainMap.get(xy.x, xy.y) == Terrain.OBSTACLE) return false;
 
-        return getThings(xy).stream().noneMatch(t -> t instanceof Attachable && !excludedObjects.contains(t));
+        return !cells.any(xy.x, xy.y, t -> t instanceof Attachable && !excludedObjects.contains(t));
     }
 
     public void setTerrain(Position pos, Terrain terrainType) {
         if (outOfBounds(pos)) pos = pos.wrapped();
-        terrainMap[pos.x][pos.y] = terrainType;
+        terrainMap.set(pos.x, pos.y, terrainType);
+        emptyTerrainCounts.invalidate();
+        updateBlocked(pos.x, pos.y);
     }
 
     public Terrain getTerrain(Position pos) {
         if (outOfBounds(pos)) pos = pos.wrapped();
-        return terrainMap[pos.x][pos.y];
+        return terrainMap.get(pos.x, pos.y);
     }
 
     public void createMarker(Position position, Marker.Type type) {
@@ -5,6 +5,8 @@ public enum Terrain {
     GOAL(1, "goal"),
     OBSTACLE(2, "obstacle");
 
+    private static final Terrain[] BY_ID = {EMPTY, GOAL, OBSTACLE};
+
     public final int id;
     public final String name;
 
@@ -12,4 +14,8 @@ public enum Terrain {
         this.id = id;
         this.name = name;
     }
+
+    static Terrain byId(int id) {
+        return BY_ID[id];
+    }
 }
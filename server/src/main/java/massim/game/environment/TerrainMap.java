@@ -0,0 +1,52 @@
+package massim.game.environment;
+
+import java.util.Arrays;
+
+/**
+ * Stores the terrain of each grid cell as its byte-sized {@link Terrain#id}.
+ * All chunks start out as one shared all-empty chunk, which is only copied when a cell in it gets another terrain.
+ */
+class TerrainMap {
+
+    private final CellLayout layout;
+    private final byte[] empty;
+    private final byte[][] chunks;
+
+    TerrainMap(CellLayout layout) {
+        this.layout = layout;
+        this.empty = new byte[layout.chunkSize()]; // all zero, i.e. Terrain.EMPTY
+        this.chunks = new byte[layout.chunkCount()][];
+        Arrays.fill(chunks, empty);
+    }
+
+    Terrain get(int x, int y) {
+        return Terrain.byId(chunks[layout.chunk(x, y)][layout.offset(x, y)]);
+    }
+
+    void set(int x, int y, Terrain terrain) {
+        var c = layout.chunk(x, y);
+        var chunk = chunks[c];
+        if (chunk == empty) {
+            if (terrain == Terrain.EMPTY) return;
+            chunk = new byte[layout.chunkSize()];
+            chunks[c] = chunk;
+        }
+        chunk[layout.offset(x, y)] = (byte) terrain.id;
+    }
+
+    /**
+     * @return the terrain ids of the chunk's cells (indexed by their offsets) or null if all of them are empty
+     */
+    byte[] chunk(int c) {
+        var chunk = chunks[c];
+        return chunk == empty? null : chunk;
+    }
+
+    /**
+     * Replaces the terrain of a whole chunk.
+     * @param terrain the terrain ids (which are not copied) or null if all cells are empty
+     */
+    void setChunk(int c, byte[] terrain) {
+        chunks[c] = terrain == null? empty : terrain;
+    }
+}
@@ -0,0 +1,58 @@
+package massim;
+
+import massim.protocol.messages.ActionMessage;
+import massim.protocol.messages.scenario.Actions;
+
+import java.util.List;
+
+public class ActionCollectorTest {
+
+    @org.junit.Test
+    public void stepClosesWithLastAnswer() throws InterruptedException {
+        var collector = new ActionCollector(List.of("a1", "a2"), 10_000);
+        collector.setActionId("a1", 1);
+        collector.setActionId("a2", 2);
+        var answering = new Thread(() -> {
+            assert collector.submit("a1", new ActionMessage("move", 1, List.of("n")));
+            assert !collector.submit("a1", new ActionMessage("move", 1, List.of("s")));
+            assert collector.submit("a2", new ActionMessage("skip", 2, List.of()));
+        });
+        var start = System.currentTimeMillis();
+        answering.start();
+        var actions = collector.await();
+        answering.join();
+        assert System.currentTimeMillis() - start < 5_000;
+        assert actions.get("a1").getParams().equals(List.of("n"));
+        assert actions.get("a2").getActionType().equals("skip");
+    }
+
+    @org.junit.Test
+    public void missingAgentsGetNoActionAtDeadline() {
+        var collector = new ActionCollector(List.of("a1", "a2"), 50);
+        collector.setActionId("a1", 7);
+        collector.setActionId("a2", 8);
+        assert collector.submit("a2", new ActionMessage("skip", 8, List.of()));
+        var actions = collector.await();
+        assert actions.get("a1").getActionType().equals(Actions.NO_ACTION);
+        assert actions.get("a1").getId() == 7;
+        assert actions.get("a2").getActionType().equals("skip");
+        assert !collector.submit("a1", new ActionMessage("move", 7, List.of("n")));
+        assert !collector.submit("unknown", new ActionMessage("move", 7, List.of("n")));
+    }
+
+    @org.junit.Test
+    public void interruptedCollectorStopsWaiting() {
+        var collector = new ActionCollector(List.of("a1"), 10_000);
+        collector.setActionId("a1", 3);
+        var start = System.currentTimeMillis();
+        Thread.currentThread().interrupt();
+        try {
+            var actions = collector.await();
+            assert System.currentTimeMillis() - start < 5_000;
+            assert actions.get("a1").getActionType().equals(Actions.NO_ACTION);
+            assert Thread.currentThread().isInterrupted();
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
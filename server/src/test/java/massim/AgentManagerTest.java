@@ -0,0 +1,118 @@
+package massim;
+
+import massim.config.TeamConfig;
+import massim.protocol.io.BinaryReader;
+import massim.protocol.io.DeflateFrameDecoder;
+import massim.protocol.io.DocumentReader;
+import massim.protocol.io.JsonReader;
+import massim.protocol.io.LengthFrameDecoder;
+import massim.protocol.messages.ActionMessage;
+import massim.protocol.messages.AuthRequestMessage;
+import massim.protocol.messages.AuthResponseMessage;
+import massim.protocol.messages.Message;
+import massim.protocol.messages.RequestActionMessage;
+import massim.protocol.messages.scenario.Actions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class AgentManagerTest {
+
+    @org.junit.Test
+    public void actionsAreCollectedWithBlockingTransport() throws Exception {
+        collectActions(0, false, false);
+    }
+
+    @org.junit.Test
+    public void actionsAreCollectedWithNioTransport() throws Exception {
+        collectActions(2, false, false);
+    }
+
+    @org.junit.Test
+    public void compressedPerceptsCanBeDecoded() throws Exception {
+        collectActions(0, true, false);
+        collectActions(2, true, false);
+    }
+
+    @org.junit.Test
+    public void binaryPerceptsCanBeDecoded() throws Exception {
+        collectActions(0, false, true);
+        collectActions(2, false, true);
+        collectActions(2, true, true);
+    }
+
+    private void collectActions(int ioThreads, boolean compressed, boolean binary) throws Exception {
+        var team = new TeamConfig("A");
+        team.addAgent("agentA1", "1");
+        team.addAgent("agentA2", "1");
+        var manager = new AgentManager(List.of(team), 300, 65536, ioThreads, 20);
+        try (var server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            var client1 = connect(server, manager, "agentA1", compressed, binary);
+            var client2 = connect(server, manager, "agentA2", compressed, binary);
+            var frames1 = decoder(compressed, binary);
+            var frames2 = decoder(compressed, binary);
+            var reader = binary? new BinaryReader() : new JsonReader(new byte[0]);
+
+            for (var step = 0; step < 3; step++) {
+                // agentA1 answers every request, agentA2 never does
+                var answering = new Thread(() -> {
+                    try {
+                        var request = (RequestActionMessage) receive(client1, frames1, reader);
+                        var action = new ActionMessage("move", request.getId(), List.of("n"));
+                        client1.getOutputStream().write(action.toJson().toString().getBytes(StandardCharsets.UTF_8));
+                        client1.getOutputStream().write(0);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+                answering.start();
+                var percept = TestPercepts.emptyPercept(step);
+                var actions = manager.requestActions(Map.of("agentA1", percept, "agentA2", percept));
+                answering.join();
+                assert actions.get("agentA1").getActionType().equals("move");
+                assert actions.get("agentA1").getParams().equals(List.of("n"));
+                assert actions.get("agentA2").getActionType().equals(Actions.NO_ACTION);
+                assert ((RequestActionMessage) receive(client2, frames2, reader)).getStep() == step;
+            }
+            client1.close();
+            client2.close();
+        } finally {
+            manager.stop();
+        }
+    }
+
+    private static Socket connect(ServerSocketChannel server, AgentManager manager, String agent, boolean compressed,
+                                  boolean binary) throws IOException {
+        var client = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+        manager.handleNewConnection(server.accept(), agent, new AuthResponseMessage(0, AuthResponseMessage.OK,
+                compressed? AuthRequestMessage.COMPRESSION_DEFLATE : null,
+                binary? AuthRequestMessage.PROTOCOL_BINARY : AuthRequestMessage.PROTOCOL_JSON));
+        return client;
+    }
+
+    /**
+     * @return the decoder for length-prefixed frames or null for 0-terminated JSON
+     */
+    private static LengthFrameDecoder decoder(boolean compressed, boolean binary) {
+        if (compressed) return new DeflateFrameDecoder();
+        return binary? new LengthFrameDecoder() : null;
+    }
+
+    private static Message receive(Socket socket, LengthFrameDecoder frames, DocumentReader reader) throws IOException {
+        if (frames != null) {
+            assert frames.readFrame(socket.getInputStream());
+            return Message.readFrom(reader.reset(frames.buffer(), frames.frameOffset(), frames.frameLength()));
+        }
+        var buffer = new ByteArrayOutputStream();
+        int b;
+        while ((b = socket.getInputStream().read()) > 0) buffer.write(b);
+        return Message.readFrom(reader.reset(buffer.toByteArray(), 0, buffer.size()));
+    }
+}
@@ -0,0 +1,250 @@
+package massim;
+
+import massim.config.ServerConfig;
+import massim.config.TeamConfig;
+import massim.protocol.io.JsonReader;
+import massim.protocol.io.UnixDomainSockets;
+import massim.protocol.messages.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+public class FrontDeskTest {
+
+    @org.junit.Test
+    public void statusRequestsAreAnsweredRightAway() throws Exception {
+        var frontDesk = new FrontDesk(new AgentManager(List.of(), 300, 65536, 0, 20), config());
+        frontDesk.open();
+        try {
+            frontDesk.setCurrentSimulation(3);
+            for (var i = 0; i < 2; i++) {
+                try (var client = connect(frontDesk)) {
+                    send(client, new StatusRequestMessage());
+                    var status = receive(client);
+                    assert status instanceof StatusResponseMessage;
+                    var content = status.toJson().getJSONObject("content");
+                    assert content.getInt("currentSimulation") == 3;
+                    assert content.getJSONArray("teamSizes").getInt(0) == 2;
+                    assert client.getInputStream().read() == -1; // closed afterwards
+                }
+            }
+            assert frontDesk.getCompletedHandshakes() == 2;
+            assert frontDesk.getRejectedConnections() == 0;
+        } finally {
+            frontDesk.close();
+        }
+    }
+
+    @org.junit.Test
+    public void silentConnectionsAreClosedAfterTheDeadline() throws Exception {
+        var frontDesk = new FrontDesk(new AgentManager(List.of(), 300, 65536, 0, 20), config());
+        frontDesk.open();
+        try (var silent = connect(frontDesk)) {
+            var start = System.currentTimeMillis();
+            assert silent.getInputStream().read() == -1;
+            assert System.currentTimeMillis() - start < 3000;
+            assert frontDesk.getAcceptedConnections() == 1;
+            assert frontDesk.getRejectedConnections() == 1;
+        } finally {
+            frontDesk.close();
+        }
+    }
+
+    @org.junit.Test
+    public void undecodableMessagesOnlyCloseTheirConnection() throws Exception {
+        var frontDesk = new FrontDesk(new AgentManager(List.of(), 300, 65536, 0, 20), config());
+        frontDesk.open();
+        try {
+            try (var client = connect(frontDesk)) {
+                var out = client.getOutputStream();
+                out.write("{\"type\":\"auth-request\",\"content\":".getBytes(StandardCharsets.UTF_8));
+                out.write("[".repeat(16384).getBytes(StandardCharsets.UTF_8));
+                out.write(0);
+                assert client.getInputStream().read() == -1;
+            }
+            try (var client = connect(frontDesk)) {
+                send(client, new StatusRequestMessage());
+                assert receive(client) instanceof StatusResponseMessage;
+            }
+            assert frontDesk.getRejectedConnections() == 1;
+        } finally {
+            frontDesk.close();
+        }
+    }
+
+    @org.junit.Test
+    public void authenticatedConnectionsAreHandedOver() throws Exception {
+        authenticate(0);
+        authenticate(2);
+    }
+
+    private void authenticate(int ioThreads) throws Exception {
+        var team = new TeamConfig("A");
+        team.addAgent("agentA1", "1");
+        var manager = new AgentManager(List.of(team), 300, 65536, ioThreads, 20);
+        var frontDesk = new FrontDesk(manager, config());
+        frontDesk.open();
+        try (var intruder = connect(frontDesk)) {
+            send(intruder, new AuthRequestMessage("agentA1", "wrong"));
+            var denied = (AuthResponseMessage) receive(intruder);
+            assert denied.getResult().equals(AuthResponseMessage.FAIL);
+            assert intruder.getInputStream().read() == -1;
+        }
+        try (var client = connect(frontDesk)) {
+            send(client, new AuthRequestMessage("agentA1", "1"));
+            var response = (AuthResponseMessage) receive(client);
+            assert response.getResult().equals(AuthResponseMessage.OK);
+            // the response is sent before the connection is handed over
+            for (var i = 0; i < 100 && frontDesk.getCompletedHandshakes() < 2; i++) Thread.sleep(10);
+            var percept = TestPercepts.emptyPercept(0);
+            var answering = new Thread(() -> {
+                try {
+                    var request = (RequestActionMessage) receive(client);
+                    send(client, new ActionMessage("skip", request.getId(), List.of()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            answering.start();
+            var actions = manager.requestActions(Map.of("agentA1", percept));
+            answering.join();
+            assert actions.get("agentA1").getActionType().equals("skip");
+        } finally {
+            frontDesk.close();
+            manager.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void agentsCanConnectThroughAUnixDomainSocket() throws Exception {
+        if (!UnixDomainSockets.isSupported()) return;
+        var path = Files.createTempDirectory("massim").resolve("server.sock");
+        var team = new TeamConfig("A");
+        team.addAgent("agentA1", "1");
+        var manager = new AgentManager(List.of(team), 300, 65536, 2, 20);
+        var config = config();
+        config.unixSocketPath = path.toString();
+        var frontDesk = new FrontDesk(manager, config);
+        frontDesk.open();
+        try (var client = UnixDomainSockets.connect(path.toString())) {
+            var in = UnixDomainSockets.inputStream(client);
+            var out = UnixDomainSockets.outputStream(client);
+            send(out, new AuthRequestMessage("agentA1", "1"));
+            assert ((AuthResponseMessage) receive(in)).getResult().equals(AuthResponseMessage.OK);
+            for (var i = 0; i < 100 && frontDesk.getCompletedHandshakes() < 1; i++) Thread.sleep(10);
+            var answering = new Thread(() -> {
+                try {
+                    var request = (RequestActionMessage) receive(in);
+                    send(out, new ActionMessage("skip", request.getId(), List.of()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            answering.start();
+            var percept = TestPercepts.emptyPercept(0);
+            var actions = manager.requestActions(Map.of("agentA1", percept));
+            answering.join();
+            assert actions.get("agentA1").getActionType().equals("skip");
+        } finally {
+            frontDesk.close();
+            manager.stop();
+        }
+        assert !Files.exists(path);
+    }
+
+    @org.junit.Test
+    public void onlyStaleSocketFilesAreReplaced() throws Exception {
+        if (!UnixDomainSockets.isSupported()) return;
+        var path = Files.createTempDirectory("massim").resolve("server.sock");
+        // a socket left over by an earlier run
+        UnixDomainSockets.bind(path.toString(), 1).close();
+        assert Files.exists(path);
+        UnixDomainSockets.bind(path.toString(), 1).close();
+
+        Files.delete(path);
+        Files.writeString(path, "not a socket");
+        try {
+            UnixDomainSockets.bind(path.toString(), 1).close();
+            assert false;
+        } catch (IOException e) {
+            assert Files.readString(path).equals("not a socket");
+        }
+    }
+
+    @org.junit.Test
+    public void runningServersKeepTheirSocket() throws Exception {
+        if (!UnixDomainSockets.isSupported()) return;
+        var path = Files.createTempDirectory("massim").resolve("server.sock");
+        var config = config();
+        config.unixSocketPath = path.toString();
+        var first = new FrontDesk(new AgentManager(List.of(), 300, 65536, 0, 20), config);
+        first.open();
+        try {
+            try {
+                new FrontDesk(new AgentManager(List.of(), 300, 65536, 0, 20), config);
+                assert false;
+            } catch (IOException e) {
+                // the first server is still listening
+            }
+            try (var client = UnixDomainSockets.connect(path.toString())) {
+                send(UnixDomainSockets.outputStream(client), new StatusRequestMessage());
+                assert receive(UnixDomainSockets.inputStream(client)) instanceof StatusResponseMessage;
+            }
+
+            // a socket file that has been replaced meanwhile is left alone
+            Files.delete(path);
+            UnixDomainSockets.bind(path.toString(), 1).close();
+            var replaced = UnixDomainSockets.fileKey(path.toString());
+            first.close();
+            assert UnixDomainSockets.fileKey(path.toString()).equals(replaced);
+        } finally {
+            first.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private static ServerConfig config() {
+        var config = new ServerConfig();
+        config.port = 0;
+        config.backlog = 10;
+        config.maxPacketLength = 65536;
+        config.handshakeTimeout = 300;
+        config.handshakeWorkers = 1;
+        config.teamSizes = List.of(2);
+        return config;
+    }
+
+    private static Socket connect(FrontDesk frontDesk) throws IOException {
+        var socket = new Socket(InetAddress.getLoopbackAddress(), frontDesk.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, Message message) throws IOException {
+        send(socket.getOutputStream(), message);
+    }
+
+    private static void send(OutputStream out, Message message) throws IOException {
+        out.write(message.toJson().toString().getBytes(StandardCharsets.UTF_8));
+        out.write(0);
+    }
+
+    private static Message receive(Socket socket) throws IOException {
+        return receive(socket.getInputStream());
+    }
+
+    private static Message receive(InputStream in) throws IOException {
+        var buffer = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) > 0) buffer.write(b);
+        return Message.readFrom(new JsonReader(buffer.toByteArray(), 0, buffer.size()));
+    }
+}
@@ -0,0 +1,101 @@
+package massim;
+
+import massim.config.ServerConfig;
+import massim.config.TeamConfig;
+import massim.protocol.messages.ActionMessage;
+import massim.protocol.messages.RequestActionMessage;
+import massim.protocol.messages.SimEndMessage;
+import massim.protocol.messages.SimStartMessage;
+import massim.protocol.messages.scenario.Actions;
+import massim.protocol.messages.scenario.StepPercept;
+import massim.util.IOUtil;
+import massim.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+public class HeadlessRunnerTest {
+
+    @org.junit.Test
+    public void localAgentsPlayTheWholeSimulation() throws IOException {
+        Log.setLogLevel(Log.Level.ERROR);
+        var simConfig = IOUtil.readJSONObject("conf/sim-test/small-world.json");
+        simConfig.put("steps", 20);
+        var config = new ServerConfig();
+        config.simConfigs.add(simConfig);
+        config.perceptWorkers = 1;
+
+        var teams = new LinkedHashSet<TeamConfig>();
+        for (var name : List.of("A", "B")) {
+            var team = new TeamConfig(name);
+            for (var i = 1; i <= 30; i++) team.addAgent("agent" + name + i, "1");
+            teams.add(team);
+        }
+
+        var agents = new HashMap<String, CountingAgent>();
+        var runner = new HeadlessRunner(config, name -> {
+            var agent = new CountingAgent(name.startsWith("agentA"));
+            agents.put(name, agent);
+            return agent;
+        });
+        var result = runner.runMatch(teams);
+
+        assert result.length() == 1;
+        assert agents.size() == 60;
+        for (var agent : agents.values()) {
+            assert agent.started;
+            assert agent.ended;
+            assert agent.requests == 20;
+        }
+        // the actions of team A were executed, team B did nothing
+        assert agents.entrySet().stream().anyMatch(e -> e.getKey().startsWith("agentA") && e.getValue().moved);
+        agents.forEach((name, agent) -> {
+            if (name.startsWith("agentB")) assert agent.lastAction.equals(Actions.NO_ACTION);
+        });
+    }
+
+    /**
+     * Moves north if active (does nothing otherwise) and checks that each request has a new action id.
+     */
+    private static class CountingAgent implements LocalAgent {
+
+        private final boolean active;
+        private boolean started;
+        private boolean ended;
+        private boolean moved;
+        private int requests;
+        private long lastId = -1;
+        private String lastAction;
+
+        CountingAgent(boolean active) {
+            this.active = active;
+        }
+
+        @Override
+        public void handleSimStart(SimStartMessage percept) {
+            assert !started;
+            started = true;
+        }
+
+        @Override
+        public ActionMessage handleRequestAction(RequestActionMessage request) {
+            assert started && !ended;
+            assert request.getId() > lastId;
+            lastId = request.getId();
+            requests++;
+            var percept = (StepPercept) request;
+            lastAction = percept.lastAction;
+            if (lastAction.equals(Actions.MOVE) && percept.lastActionResult.equals(Actions.RESULT_SUCCESS)) moved = true;
+            if (!active) return null;
+            return new ActionMessage(Actions.MOVE, request.getId(), List.of("n"));
+        }
+
+        @Override
+        public void handleSimEnd(SimEndMessage result) {
+            assert started && !ended;
+            ended = true;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package massim;
+
+import massim.protocol.messages.ActionMessage;
+
+import java.util.List;
+
+import static massim.InFlightActions.Result.*;
+
+public class InFlightActionsTest {
+
+    @org.junit.Test
+    public void onlyCurrentRequestIsAnswered() {
+        var inFlight = new InFlightActions();
+        assert inFlight.answer("a1", action(0)) == INVALID;
+
+        for (var id = 0; id < 100; id++) {
+            var collector = new ActionCollector(List.of("a1"), 0);
+            inFlight.register(id, collector);
+            assert inFlight.answer("a1", action(id + 1)) == INVALID;
+            if (id % 2 == 0) {
+                assert inFlight.answer("a1", action(id)) == ACCEPTED;
+                assert inFlight.answer("a1", action(id)) == LATE; // duplicate
+            }
+            collector.await();
+            if (id % 2 == 1) assert inFlight.answer("a1", action(id)) == LATE; // step already closed
+        }
+        assert inFlight.answer("a1", action(99 - InFlightActions.GRACE_WINDOW)) == LATE;
+        assert inFlight.answer("a1", action(98 - InFlightActions.GRACE_WINDOW)) == INVALID;
+        assert inFlight.answer("a1", action(-1)) == INVALID;
+        assert inFlight.getLateAnswers() == 101;
+    }
+
+    private static ActionMessage action(long id) {
+        return new ActionMessage("skip", id, List.of());
+    }
+}
@@ -0,0 +1,72 @@
+package massim;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class NioTransportTest {
+
+    @org.junit.Test
+    public void failingConnectionsDoNotStopTheIoThread() throws Exception {
+        var transport = new NioTransport(1, 1024);
+        try (var server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            var closed = new CountDownLatch(1);
+            var received = new CountDownLatch(1);
+            try (var failing = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+                 var working = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort())) {
+                // both connections are served by the only I/O thread
+                var failingConnection = transport.register(server.accept(), new SendQueue(), null,
+                        (connection, buffer, offset, length) -> { throw new IllegalStateException("broken handler"); },
+                        closed::countDown);
+                transport.register(server.accept(), new SendQueue(), null,
+                        (connection, buffer, offset, length) -> received.countDown(), () -> {});
+
+                failing.getOutputStream().write("x\0".getBytes(StandardCharsets.UTF_8));
+                assert closed.await(5, TimeUnit.SECONDS);
+                assert failingConnection.isClosed();
+                working.getOutputStream().write("y\0".getBytes(StandardCharsets.UTF_8));
+                assert received.await(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            transport.stop();
+        }
+    }
+
+    @org.junit.Test
+    public void busyConnectionsDoNotHoldUpTheIoThread() throws Exception {
+        var transport = new NioTransport(1, 1024);
+        try (var server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            var received = new CountDownLatch(1);
+            try (var busy = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+                 var quiet = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort())) {
+                transport.register(server.accept(), new SendQueue(), null,
+                        (connection, buffer, offset, length) -> {}, () -> {});
+                transport.register(server.accept(), new SendQueue(), null,
+                        (connection, buffer, offset, length) -> received.countDown(), () -> {});
+
+                var flooding = new Thread(() -> {
+                    var frames = "x\0".repeat(4096).getBytes(StandardCharsets.UTF_8);
+                    try {
+                        while (received.getCount() > 0) busy.getOutputStream().write(frames);
+                    } catch (IOException ignored) {}
+                });
+                flooding.start();
+                Thread.sleep(100);
+                quiet.getOutputStream().write("y\0".getBytes(StandardCharsets.UTF_8));
+                var answered = received.await(5, TimeUnit.SECONDS);
+                received.countDown();
+                flooding.join();
+                assert answered;
+            }
+        } finally {
+            transport.stop();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package massim;
+
+import massim.protocol.io.BinaryReader;
+import massim.protocol.io.JsonReader;
+import massim.protocol.messages.ByeMessage;
+import massim.protocol.messages.Message;
+import massim.protocol.messages.SimEndMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.Arrays;
+
+public class PacketTest {
+
+    @org.junit.Test
+    public void sharedPacketsAreWrittenCompletely() throws IOException {
+        var simEnd = new Packet.Shared(new SimEndMessage(42, 1));
+        for (var i = 0; i < 3; i++) {
+            var bytes = writeAndRead(simEnd.copy(false));
+            assert bytes[bytes.length - 1] == 0;
+            var message = Message.readFrom(new JsonReader(Arrays.copyOf(bytes, bytes.length - 1)));
+            assert message instanceof SimEndMessage;
+            assert ((SimEndMessage) message).getScore() == 42;
+        }
+    }
+
+    @org.junit.Test
+    public void binaryPacketsArePrefixedWithTheirLength() throws IOException {
+        var simEnd = new Packet.Shared(new SimEndMessage(42, 1));
+        for (var i = 0; i < 2; i++) {
+            var bytes = writeAndRead(simEnd.copy(true));
+            assert ByteBuffer.wrap(bytes).getInt() == bytes.length - 4;
+            var message = Message.readFrom(new BinaryReader(bytes, 4, bytes.length - 4));
+            assert message instanceof SimEndMessage;
+            assert ((SimEndMessage) message).getScore() == 42;
+        }
+        var pool = new Packet.Pool(1, 16);
+        assert Arrays.equals(writeAndRead(pool.encode(new ByeMessage(1), true)),
+                writeAndRead(new Packet.Shared(new ByeMessage(1)).copy(true)));
+    }
+
+    @org.junit.Test
+    public void pooledBuffersAreReused() throws IOException {
+        var pool = new Packet.Pool(2, 16);
+        var first = pool.encode(new ByeMessage(1), false);
+        var second = pool.encode(new ByeMessage(2), false);
+        assert pool.available() == 0;
+        var expected = writeAndRead(new Packet.Shared(new ByeMessage(1)).copy(false));
+        assert Arrays.equals(writeAndRead(first), expected);
+        first.release();
+        second.release();
+        assert pool.available() == 2;
+        var third = pool.encode(new ByeMessage(1), false);
+        assert pool.available() == 1;
+        assert Arrays.equals(writeAndRead(third), expected);
+    }
+
+    private static byte[] writeAndRead(Packet packet) throws IOException {
+        var pipe = Pipe.open();
+        packet.writeTo(pipe.sink());
+        pipe.sink().close();
+        var in = ByteBuffer.allocate(1024);
+        while (pipe.source().read(in) >= 0) {}
+        return Arrays.copyOf(in.array(), in.position());
+    }
+}
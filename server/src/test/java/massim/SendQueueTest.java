@@ -0,0 +1,41 @@
+package massim;
+
+import massim.protocol.messages.ByeMessage;
+import massim.protocol.messages.SimEndMessage;
+
+public class SendQueueTest {
+
+    @org.junit.Test
+    public void onlyNewestActionRequestIsKept() {
+        var pool = new Packet.Pool(4, 64);
+        var queue = new SendQueue();
+        var simEnd = pool.encode(new SimEndMessage(0, 1), false);
+        queue.put(pool.encode(TestPercepts.emptyPercept(0), false));
+        queue.put(simEnd);
+        queue.put(pool.encode(TestPercepts.emptyPercept(1), false));
+        var newest = pool.encode(TestPercepts.emptyPercept(2), false);
+        queue.put(newest);
+        var bye = pool.encode(new ByeMessage(0), false);
+        queue.put(bye);
+
+        assert queue.getDroppedPackets() == 2;
+        assert queue.getMaxDepth() == 3;
+        assert queue.poll() == simEnd;
+        assert queue.poll() == newest;
+        assert queue.poll() == bye;
+        assert queue.poll() == null;
+
+        // the request that has been taken out is not replaced anymore
+        queue.put(pool.encode(TestPercepts.emptyPercept(3), false));
+        queue.put(pool.encode(TestPercepts.emptyPercept(4), false));
+        queue.clear();
+        assert queue.isEmpty();
+        assert queue.getDroppedPackets() == 4;
+
+        // the queue of the next connection continues the statistics
+        var next = new SendQueue(queue);
+        assert next.isEmpty();
+        assert next.getDroppedPackets() == 4;
+        assert next.getMaxDepth() == 3;
+    }
+}
@@ -0,0 +1,24 @@
+package massim;
+
+import massim.protocol.messages.scenario.StepPercept;
+import massim.protocol.messages.scenario.StepTasks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Percepts for tests that only need some request to pass through the server.
+ */
+final class TestPercepts {
+
+    private TestPercepts() {}
+
+    /**
+     * @return a percept of the given step in which the agent sees nothing (and has no tasks)
+     */
+    static StepPercept emptyPercept(int step) {
+        return new StepPercept(step, 0, Set.of(), Map.of(), new StepTasks(Set.of()), "", List.of(), "",
+                Set.of(), null);
+    }
+}
@@ -0,0 +1,56 @@
+package massim.game.environment;
+
+import massim.util.RNG;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how long the "cave" instruction takes during grid construction,
+ * comparing the serial automaton with the parallel one.
+ * Run manually, e.g. with arguments "2000 2000 9" for width, height and iterations.
+ */
+public class GridStartupBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        var width = args.length > 0? Integer.parseInt(args[0]) : 1000;
+        var height = args.length > 1? Integer.parseInt(args[1]) : 1000;
+        var iterations = args.length > 2? Integer.parseInt(args[2]) : 9;
+
+        System.out.println("Grid " + width + "x" + height + ", " + iterations + " cave iterations, "
+                + ForkJoinPool.commonPool().getParallelism() + " workers");
+        for (var run = 0; run < RUNS; run++) {
+            var layout = CellLayout.dense(width, height);
+            var serial = timeCave(new CaveAutomaton(layout, null, 0), width, height, iterations);
+            var parallel = timeCave(new CaveAutomaton(layout), width, height, iterations);
+            System.out.printf("run %d: serial %d ms, parallel %d ms%n", run, serial, parallel);
+        }
+
+        var gridConf = new JSONObject();
+        gridConf.put("width", width);
+        gridConf.put("height", height);
+        gridConf.put("instructions", new JSONArray().put(new JSONArray().put("cave").put(0.45).put(iterations).put(5).put(4)));
+        gridConf.put("goals", new JSONObject().put("number", 3).put("size", new JSONArray().put(1).put(2)));
+        for (var run = 0; run < RUNS; run++) {
+            RNG.initialize(17);
+            var start = System.nanoTime();
+            new Grid(gridConf, 10, 8);
+            System.out.printf("run %d: grid construction %d ms%n", run, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private static long timeCave(CaveAutomaton cave, int width, int height, int iterations) {
+        RNG.initialize(17);
+        var start = System.nanoTime();
+        for (var x = 0; x < width; x++) {
+            for (var y = 0; y < height; y++) {
+                if (RNG.nextDouble() < 0.45) cave.setObstacle(x, y);
+            }
+        }
+        cave.run(iterations, 5, 4);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -15,6 +15,7 @@ import org.json.JSONObject;
 import static org.junit.Assert.assertNotNull;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class GridTest {
     private JSONObject gridjson;
@@ -63,6 +64,236 @@ public class GridTest {
         assert(cluster3.get(2).toString().equals("(4,0)"));
     }
 
+    @org.junit.Test
+    public void thingsFollowMovement() {
+        this.gridjson.put("instructions", new JSONArray());
+        this.gridjson.put("goals", new JSONObject("{\"number\" : 0,\"size\" : [1,2]}"));
+        Grid grid = new Grid(this.gridjson, 10, 8);
+
+        var entity = grid.createEntity(Position.of(10, 10), "A1", "A");
+        var block = grid.createBlock(Position.of(10, 11), "b0");
+        assert grid.attach(entity, block);
+        assert grid.getThings(Position.of(10, 10)).contains(entity);
+        assert !grid.isUnblocked(Position.of(10, 11));
+
+        assert grid.moveWithAttached(entity, "e", 1);
+        assert grid.getThings(Position.of(10, 10)).isEmpty();
+        assert grid.getThings(Position.of(10, 11)).isEmpty();
+        assert grid.getThings(Position.of(11, 10)).contains(entity);
+        assert grid.getThings(Position.of(11, 11)).contains(block);
+        assert grid.countAttachablesAt(11, 11) == 1;
+        assert grid.anyThingAt(11, 10, t -> t == entity);
+        assert !grid.anyThingAt(10, 10, t -> true);
+        assert grid.isUnblocked(Position.of(10, 11));
+
+        grid.destroyThing(block);
+        assert grid.getThings(Position.of(11, 11)).isEmpty();
+        assert grid.isUnblocked(Position.of(11, 11));
+        assert grid.getThings(Position.of(-1, 0)).isEmpty();
+
+        grid.setTerrain(Position.of(11, 11), Terrain.OBSTACLE);
+        assert !grid.isUnblocked(Position.of(11, 11));
+        assert !grid.moveWithAttached(entity, "s", 1);
+        grid.setTerrain(Position.of(11, 11), Terrain.EMPTY);
+        assert grid.isUnblocked(Position.of(11, 11));
+    }
+
+    @org.junit.Test
+    public void attachmentGroupsFollowAttachAndDetach() {
+        this.gridjson.put("instructions", new JSONArray());
+        this.gridjson.put("goals", new JSONObject("{\"number\" : 0,\"size\" : [1,2]}"));
+        Grid grid = new Grid(this.gridjson, 10, 8);
+
+        var a1 = grid.createEntity(Position.of(10, 10), "A1", "A");
+        var b1 = grid.createBlock(Position.of(10, 11), "b0");
+        var b2 = grid.createBlock(Position.of(10, 12), "b0");
+        var b3 = grid.createBlock(Position.of(10, 13), "b1");
+        var c1 = grid.createEntity(Position.of(10, 14), "C1", "C");
+        assert grid.attach(a1, b1);
+        assert grid.attach(b1, b2);
+        assert grid.attach(b3, c1);
+        assert a1.getGroup() == b2.getGroup();
+        assert !a1.isConnectedTo(b3);
+        assert !a1.isAttachedToAnotherEntity() && b2.isAttachedToAnotherEntity();
+        assert !a1.getGroup().containsEntityNotOfTeam("A");
+
+        assert grid.attach(b2, b3);
+        assert a1.getGroup().size() == 5;
+        assert a1.getGroup().getEntityCount() == 2;
+        assert a1.getGroup().getTeams().equals(Set.of("A", "C"));
+        assert a1.getGroup().containsEntityNotOfTeam("A");
+        assert a1.isConnectedTo(c1) && a1.isAttachedToAnotherEntity();
+        assert a1.collectAllAttachments().equals(Set.of(a1, b1, b2, b3, c1));
+
+        assert grid.detachNeighbors(b1, b2);
+        assert a1.getGroup().getMembers().equals(Set.of(a1, b1));
+        assert b2.getGroup().getMembers().equals(Set.of(b2, b3, c1));
+        assert !a1.getGroup().containsEntityNotOfTeam("A");
+
+        grid.destroyThing(b3);
+        assert b2.getGroup().size() == 1 && c1.getGroup().size() == 1;
+        assert !b2.getGroup().containsEntity();
+        assert !c1.isAttachedToAnotherEntity();
+    }
+
+    @org.junit.Test
+    public void freePositionsFollowGridChanges() {
+        this.gridjson.put("height", 6);
+        this.gridjson.put("width", 7);
+        this.gridjson.put("instructions", new JSONArray());
+        this.gridjson.put("goals", new JSONObject("{\"number\" : 0,\"size\" : [1,2]}"));
+        Grid grid = new Grid(this.gridjson, 10, 8);
+        for (int x = 0; x < grid.getDimX(); x++) {
+            for (int y = 0; y < grid.getDimY(); y++) {
+                if (x != 4 || y != 3) grid.setTerrain(Position.of(x, y), Terrain.OBSTACLE);
+            }
+        }
+        for (int i = 0; i < 10; i++) assert grid.findRandomFreePosition().equals(Position.of(4, 3));
+        assert grid.findRandomFreeClusterPosition(1).get(0).equals(Position.of(4, 3));
+        assert grid.findRandomFreeClusterPosition(2) == null;
+
+        var block = grid.createBlock(Position.of(4, 3), "b0");
+        assert grid.findRandomFreePosition() == null;
+        grid.destroyThing(block);
+        assert grid.findRandomFreePosition().equals(Position.of(4, 3));
+
+        grid.setTerrain(Position.of(5, 3), Terrain.EMPTY);
+        assert grid.findRandomFreeClusterPosition(2).size() == 2;
+    }
+
+    @org.junit.Test
+    public void chunkedStorageMatchesDense() {
+        this.gridjson.put("height", 45);
+        this.gridjson.put("width", 75);
+        Grid dense = new Grid(this.gridjson, 10, 8);
+        var denseFree = dense.findRandomFreePosition();
+
+        RNG.initialize(17);
+        this.gridjson.put("storage", "chunked");
+        Grid chunked = new Grid(this.gridjson, 10, 8);
+        var chunkedFree = chunked.findRandomFreePosition();
+
+        for (int x = 0; x < dense.getDimX(); x++) {
+            for (int y = 0; y < dense.getDimY(); y++) {
+                var pos = Position.of(x, y);
+                assert dense.getTerrain(pos) == chunked.getTerrain(pos);
+                assert dense.isUnblocked(pos) == chunked.isUnblocked(pos);
+            }
+        }
+        assert denseFree.equals(chunkedFree);
+
+        var entity = chunked.createEntity(Position.of(70, 40), "A1", "A");
+        assert chunked.getThings(Position.of(70, 40)).contains(entity);
+        assert chunked.getThings(Position.of(0, 0)).isEmpty();
+        assert chunked.countAttachablesAt(70, 40) == 1;
+    }
+
+    @org.junit.Test
+    public void cellBitmapScansInPlacementOrder() {
+        int dimX = 75, dimY = 45;
+        var random = new Random(3);
+        for (var layout : List.of(CellLayout.dense(dimX, dimY), CellLayout.chunked(dimX, dimY))) {
+            var bitmap = new CellBitmap(layout);
+            var bits = new boolean[dimX * dimY];
+            // a sparse corner, a full band and some noise
+            for (int x = 0; x < dimX; x++) {
+                for (int y = 0; y < dimY; y++) {
+                    var value = y >= 20 && y < 34 || x < 40 && random.nextDouble() < 0.1;
+                    bitmap.set(x, y, value);
+                    bits[y * dimX + x] = value;
+                }
+            }
+            for (var value : new boolean[]{true, false}) {
+                for (int start = 0; start < bits.length; start += 7) {
+                    var expected = -1;
+                    for (int n = 0; n < bits.length && expected < 0; n++) {
+                        var i = (start + n) % bits.length;
+                        if (bits[i] == value) expected = i;
+                    }
+                    assert bitmap.nextWrapped(value, start) == expected;
+                }
+            }
+        }
+        var full = new CellBitmap(CellLayout.chunked(dimX, dimY));
+        for (int x = 0; x < dimX; x++) for (int y = 0; y < dimY; y++) full.set(x, y, true);
+        assert full.count() == dimX * dimY;
+        assert full.nextWrapped(false, 100) == -1;
+        assert full.next(true, 100, 100) == -1;
+        // the chunks share the same storage until a bit is cleared
+        full.set(40, 10, false);
+        assert !full.get(40, 10) && full.get(40, 11) && full.get(41, 10) && full.get(8, 10);
+        assert full.nextWrapped(false, 0) == full.index(40, 10);
+        assert full.count() == dimX * dimY - 1;
+    }
+
+    @org.junit.Test
+    public void emptyTerrainIsCountedLikeIteratingOverTheArea() {
+        int dimX = 75, dimY = 45;
+        Position.setGridDimensions(dimX, dimY);
+        var random = new Random(5);
+        for (var layout : List.of(CellLayout.dense(dimX, dimY), CellLayout.chunked(dimX, dimY))) {
+            var terrain = new TerrainMap(layout);
+            for (int x = 0; x < 40; x++) {
+                for (int y = 0; y < dimY; y++) {
+                    if (random.nextDouble() < 0.3) terrain.set(x, y, Terrain.OBSTACLE);
+                }
+            }
+            var counts = new EmptyTerrainCounts(layout);
+            for (var radius : new int[]{0, 1, 5, 31, 50}) {
+                for (int i = 0; i < 20; i++) {
+                    var center = Position.of(random.nextInt(dimX), random.nextInt(dimY));
+                    var expected = new int[1];
+                    center.forEachInArea(radius, (x, y) -> {
+                        if (terrain.get(x, y) == Terrain.EMPTY) expected[0]++;
+                    });
+                    assert counts.countInArea(terrain, center.x, center.y, radius) == expected[0];
+                }
+            }
+        }
+    }
+
+    @org.junit.Test
+    public void caveParallelMatchesSerial() {
+        int dimX = 130, dimY = 90;
+        var layouts = List.of(CellLayout.dense(dimX, dimY), CellLayout.chunked(dimX, dimY));
+        var pool = new ForkJoinPool(4);
+        try {
+            var terrains = new ArrayList<TerrainMap>();
+            for (var layout : layouts) {
+                var serial = new CaveAutomaton(layout, null, 0);
+                var parallel = new CaveAutomaton(layout, pool, 64);
+                var random = new Random(42);
+                for (int x = 0; x < dimX; x++) {
+                    for (int y = 0; y < dimY; y++) {
+                        if (random.nextDouble() < 0.45) {
+                            serial.setObstacle(x, y);
+                            parallel.setObstacle(x, y);
+                        }
+                    }
+                }
+                serial.run(9, 5, 4);
+                parallel.run(9, 5, 4);
+
+                var serialTerrain = new TerrainMap(layout);
+                var parallelTerrain = new TerrainMap(layout);
+                serial.store(serialTerrain);
+                parallel.store(parallelTerrain);
+                terrains.add(serialTerrain);
+                terrains.add(parallelTerrain);
+            }
+            var obstacles = 0;
+            for (int x = 0; x < dimX; x++) {
+                for (int y = 0; y < dimY; y++) {
+                    for (var terrain : terrains) assert terrain.get(x, y) == terrains.get(0).get(x, y);
+                    if (terrains.get(0).get(x, y) == Terrain.OBSTACLE) obstacles++;
+                }
+            }
+            assert obstacles > 0 && obstacles < dimX * dimY;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     private void printGridTerrain(Grid grid){
         for (int x=0; x < grid.getDimX(); x++){
             System.out.println(" ");
@@ -2,6 +2,10 @@ package massim.protocol.data;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+
 import static org.junit.Assert.*;
 
 public class PositionTest {
@@ -34,4 +38,62 @@ public class PositionTest {
         assert p4.distanceTo(p5) == 50;
         assert p5.distanceTo(p4) == 50;
     }
-}
\ No newline at end of file
+
+    @Test
+    public void canonicalInstances() {
+        Position.setGridDimensions(20, 10);
+
+        assert Position.of(3, 4) == Position.of(3, 4);
+        assert Position.wrapped(-1, 12) == Position.of(19, 2);
+        assert Position.of(3, 4).translate(1, 1) == Position.of(4, 5);
+        assert Position.of(-3, 4).equals(Position.of(-3, 4));
+        assert Position.of(25, 4).equals(new Position(25, 4));
+        assert Position.of(3, 4).hashCode() == new Position(3, 4).hashCode();
+        assert Position.of(-3, 4).hashCode() == Objects.hash(-3, 4);
+
+        Position.setGridDimensions(10, 20);
+        assert Position.of(3, 15).x == 3 && Position.of(3, 15).y == 15;
+    }
+
+    @Test
+    public void concurrentCallersGetTheSameInstances() throws Exception {
+        Position.setGridDimensions(300, 200);
+        var threads = 4;
+        var results = new Position[threads][300 * 200];
+        var start = new CountDownLatch(1);
+        var workers = new ArrayList<Thread>();
+        for (var t = 0; t < threads; t++) {
+            var result = results[t];
+            var worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (var i = 0; i < result.length; i++) result[i] = Position.of(i / 200, i % 200);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (var worker : workers) worker.join();
+        for (var i = 0; i < results[0].length; i++) {
+            for (var t = 0; t < threads; t++) assert results[t][i] == results[0][i];
+            assert results[0][i] == Position.of(i / 200, i % 200);
+        }
+    }
+
+    @Test
+    public void areaIteration() {
+        Position.setGridDimensions(20, 10);
+        var center = Position.of(1, 9);
+        for (var radius = 0; radius <= 6; radius++) {
+            var visited = new ArrayList<Position>();
+            center.forEachInArea(radius, (x, y) -> visited.add(Position.of(x, y)));
+            assertEquals(center.spanArea(radius), visited);
+            assertEquals(2 * radius * (radius + 1) + 1, AreaOffsets.ofRadius(radius).size());
+        }
+        assert AreaOffsets.ofRadius(3) == AreaOffsets.ofRadius(3);
+        assertEquals(0, AreaOffsets.ofRadius(-1).size());
+    }
+}
@@ -0,0 +1,133 @@
+package massim.protocol.io;
+
+import massim.protocol.data.Position;
+import massim.protocol.data.TaskInfo;
+import massim.protocol.data.Thing;
+import massim.protocol.messages.*;
+import massim.protocol.messages.scenario.InitialPercept;
+import massim.protocol.messages.scenario.StepPercept;
+import massim.protocol.messages.scenario.StepTasks;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class BinaryFormatTest {
+
+    @org.junit.Test
+    public void binaryMessagesMatchJsonMessages() {
+        var tasks = new StepTasks(Set.of(new TaskInfo("task0", 100, 40, Set.of(new Thing(0, 1, Thing.TYPE_BLOCK, "b0")))));
+        var stepPercept = new StepPercept(7, 10, Set.of(new Thing(-3, 200, "someNewType", "details")),
+                Map.of("obstacle", Set.of(Position.of(1, 2), Position.of(-1, 0))), tasks, "move", List.of("n"),
+                "failed_path", Set.of(Position.of(0, 1)), null);
+        stepPercept.updateIdAndDeadline(12, 1234567890123L);
+        var messages = List.of(
+                new AuthRequestMessage("agentA1", "1", AuthRequestMessage.COMPRESSION_DEFLATE,
+                        AuthRequestMessage.PROTOCOL_BINARY),
+                new AuthResponseMessage(1L, AuthResponseMessage.OK, null, AuthRequestMessage.PROTOCOL_BINARY),
+                new ActionMessage("move", 12, List.of("n")),
+                new ByeMessage(3L),
+                new StatusResponseMessage(4L, new String[]{"A", "B"}, new Integer[]{15, 50}, 1),
+                new SimEndMessage(42, 1),
+                new InitialPercept("agentA1", "A", 15, 500, 5),
+                stepPercept);
+
+        var json = new JsonWriter();
+        var binary = new BinaryWriter(16);
+        var reader = new BinaryReader();
+        for (var message : messages) {
+            message.writeJson(json.reset());
+            message.writeJson(binary.reset());
+            assert binary.size() < json.size() : message.getMessageType();
+            var read = Message.readFrom(reader.reset(binary.buffer(), 0, binary.size()));
+            var expected = withoutTime(Message.readFrom(new JsonReader(json.buffer(), 0, json.size())).toJson());
+            assert withoutTime(read.toJson()).similar(expected) : read.toJson();
+        }
+    }
+
+    /**
+     * @return a copy of the message without the time, which is set when a message is written
+     */
+    private static JSONObject withoutTime(JSONObject message) {
+        var copy = new JSONObject(message.toString());
+        copy.getJSONObject("content").remove("time");
+        return copy;
+    }
+
+    @org.junit.Test
+    public void jsonCanBeTranscoded() {
+        // the content comes before the type, so the reader has to come back to it (and read its strings again)
+        var json = "{\"content\":{\"id\":5,\"type\":\"dig\",\"p\":[\"x\",\"dig\",-1.5,\"\\u00fc\\u20ac\"," +
+                "true,9999999999]},\"type\":\"action\"}";
+        var out = new BinaryWriter();
+        out.rawValue(json.getBytes(StandardCharsets.UTF_8));
+        var action = (ActionMessage) Message.readFrom(new BinaryReader(out.buffer(), 0, out.size()));
+        assert action.getId() == 5 && action.getActionType().equals("dig");
+        assert action.getParams().equals(List.of("x", "dig", "-1.5", "\u00fc\u20ac", "true", "9999999999"))
+                : action.getParams();
+
+        var in = new BinaryReader(out.buffer(), 0, out.size());
+        in.beginObject();
+        assert in.hasNext();
+        var content = in.nextName();
+        in.skipValue();
+        assert in.hasNext();
+        var type = in.nextName();
+        var value = in.nextString();
+        assert !in.hasNext();
+        in.endObject();
+        assert content.equals("content");
+        assert type.equals("type");
+        assert value.equals("action");
+    }
+
+    @org.junit.Test
+    public void numbersAreEncodedCompactly() {
+        var out = new BinaryWriter();
+        var values = new long[]{0, 1, -1, 63, -64, 64, -65, 1000, Long.MAX_VALUE, Long.MIN_VALUE};
+        out.beginArray();
+        for (var value : values) out.value(value);
+        out.value("42");
+        out.endArray();
+        assert out.size() == 2 + 5 + 3 * 3 + 2 * 11 + 4 : out.size();
+        var in = new BinaryReader(out.buffer(), 0, out.size());
+        in.beginArray();
+        for (var value : values) {
+            assert in.hasNext();
+            var read = in.nextLong();
+            assert read == value : read;
+        }
+        assert in.hasNext();
+        var parsed = in.nextInt();
+        assert !in.hasNext();
+        in.endArray();
+        assert parsed == 42;
+    }
+
+    @org.junit.Test
+    public void deeplyNestedDocumentsAreRejected() {
+        var out = new BinaryWriter();
+        out.beginObject().name("type").value("action").name("content").beginObject().name("x");
+        for (var i = 0; i < 100000; i++) out.beginArray();
+        try {
+            Message.readFrom(new BinaryReader(out.buffer(), 0, out.size()));
+            assert false;
+        } catch (JSONException e) {
+            assert e.getMessage().startsWith("Nested too deeply") : e.getMessage();
+        }
+    }
+
+    @org.junit.Test
+    public void negativeStringReferencesAreRejected() {
+        var document = new byte[]{(byte) BinaryFormat.STRING_REF, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1};
+        try {
+            new BinaryReader(document, 0, document.length).nextString();
+            assert false;
+        } catch (JSONException e) {
+            assert e.getMessage().startsWith("Unknown string") : e.getMessage();
+        }
+    }
+}
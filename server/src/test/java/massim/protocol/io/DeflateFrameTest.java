@@ -0,0 +1,60 @@
+package massim.protocol.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class DeflateFrameTest {
+
+    @org.junit.Test
+    public void compressedFramesCanBeDecoded() throws IOException {
+        var random = new Random(5);
+        var messages = new ArrayList<String>();
+        for (var i = 0; i < 50; i++) {
+            var text = new StringBuilder("{\"type\":\"request-action\",\"step\":" + i);
+            for (var j = random.nextInt(20000); j > 0; j--) text.append((char) ('a' + random.nextInt(4)));
+            messages.add(text.append('}').toString());
+        }
+        messages.add("");
+
+        var stream = new ByteArrayOutputStream();
+        var encoder = new DeflateFrameEncoder();
+        var plainLength = 0;
+        for (var message : messages) {
+            var bytes = message.getBytes(StandardCharsets.UTF_8);
+            plainLength += bytes.length;
+            var payload = ByteBuffer.wrap(bytes);
+            var frame = encoder.encode(payload);
+            assert payload.position() == 0;
+            stream.write(frame.array(), frame.arrayOffset(), frame.remaining());
+        }
+        encoder.end();
+        assert stream.size() < plainLength;
+
+        // the first bytes have already been read by the plain decoder, e.g. with the auth response
+        var compressed = stream.toByteArray();
+        var decoder = new DeflateFrameDecoder(Arrays.copyOf(compressed, 100));
+        var in = new ByteArrayInputStream(compressed, 100, compressed.length - 100);
+        for (var message : messages) {
+            assert decoder.readFrame(in);
+            assert new String(decoder.buffer(), decoder.frameOffset(), decoder.frameLength(), StandardCharsets.UTF_8)
+                    .equals(message);
+        }
+        assert !decoder.readFrame(in);
+        decoder.end();
+    }
+
+    @org.junit.Test
+    public void bufferedBytesCanBeTakenOver() throws IOException {
+        var frames = new FrameDecoder();
+        var in = new ByteArrayInputStream("{\"a\":1}\0rest".getBytes(StandardCharsets.UTF_8));
+        assert frames.readFrame(in);
+        assert new String(frames.takeBuffered(), StandardCharsets.UTF_8).equals("rest");
+        assert !frames.readFrame(in);
+    }
+}
@@ -0,0 +1,82 @@
+package massim.protocol.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class FrameDecoderTest {
+
+    @org.junit.Test
+    public void framesSurviveArbitraryChunks() throws IOException {
+        var random = new Random(17);
+        var expected = new ArrayList<String>();
+        var stream = new ByteArrayOutputStream();
+        for (var i = 0; i < 500; i++) {
+            var length = random.nextInt(10) == 0? 200 + random.nextInt(100) : random.nextInt(60);
+            var frame = "x".repeat(length) + i;
+            if (frame.length() <= 100) expected.add(frame);
+            stream.write(frame.getBytes(StandardCharsets.UTF_8));
+            stream.write(FrameDecoder.DELIMITER);
+        }
+        var in = new ChunkedInputStream(stream.toByteArray(), random);
+
+        var decoder = new FrameDecoder(100);
+        var received = new ArrayList<String>();
+        while (decoder.readFrame(in)) {
+            received.add(new String(decoder.buffer(), decoder.frameOffset(), decoder.frameLength(),
+                    StandardCharsets.UTF_8));
+        }
+        assert received.equals(expected);
+        assert decoder.getDiscardedFrames() == 500 - expected.size();
+    }
+
+    @org.junit.Test
+    public void encodedFramesCanBeDecoded() throws IOException {
+        var out = new ByteArrayOutputStream();
+        var encoder = new FrameEncoder(16);
+        var messages = List.of(new org.json.JSONObject().put("a", "\u00fc"), new org.json.JSONObject());
+        for (var message : messages) encoder.write(message, out);
+
+        var decoder = new FrameDecoder();
+        var in = new ChunkedInputStream(out.toByteArray(), new Random(3));
+        for (var message : messages) {
+            assert decoder.readFrame(in);
+            var text = new String(decoder.buffer(), decoder.frameOffset(), decoder.frameLength(), StandardCharsets.UTF_8);
+            assert new org.json.JSONObject(text).similar(message);
+        }
+        assert !decoder.readFrame(in);
+    }
+
+    /**
+     * Delivers the bytes in chunks of random size.
+     */
+    private static class ChunkedInputStream extends InputStream {
+
+        private final byte[] bytes;
+        private final Random random;
+        private int position;
+
+        ChunkedInputStream(byte[] bytes, Random random) {
+            this.bytes = bytes;
+            this.random = random;
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length? bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position == bytes.length) return -1;
+            var n = Math.min(Math.min(len, 1 + random.nextInt(150)), bytes.length - position);
+            System.arraycopy(bytes, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
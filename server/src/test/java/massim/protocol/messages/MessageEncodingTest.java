@@ -0,0 +1,126 @@
+package massim.protocol.messages;
+
+import massim.protocol.data.Position;
+import massim.protocol.data.TaskInfo;
+import massim.protocol.data.Thing;
+import massim.protocol.io.JsonReader;
+import massim.protocol.io.JsonWriter;
+import massim.protocol.messages.scenario.InitialPercept;
+import massim.protocol.messages.scenario.StepPercept;
+import massim.protocol.messages.scenario.StepTasks;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class MessageEncodingTest {
+
+    @org.junit.Test
+    public void streamedMessagesMatchJson() {
+        var tasks = new StepTasks(Set.of(new TaskInfo("task0", 100, 40, Set.of(new Thing(0, 1, Thing.TYPE_BLOCK, "b0")))));
+        var stepPercept = new StepPercept(7, 10, Set.of(new Thing(0, 0, Thing.TYPE_ENTITY, "A")),
+                Map.of("obstacle", Set.of(Position.of(1, 2), Position.of(-1, 0))), tasks, "move", List.of("n"),
+                "failed_path", Set.of(Position.of(0, 1)), null);
+        stepPercept.updateIdAndDeadline(12, 123456789L);
+        var messages = List.of(
+                new AuthRequestMessage("agentA1", "1"),
+                new AuthRequestMessage("agentA1", "1", AuthRequestMessage.COMPRESSION_DEFLATE),
+                new AuthRequestMessage("agentA1", "1", null, AuthRequestMessage.PROTOCOL_BINARY),
+                new AuthRequestMessage("agentA1", "1", null, AuthRequestMessage.PROTOCOL_JSON,
+                        AuthRequestMessage.PERCEPTS_DELTA),
+                new AuthResponseMessage(1L, AuthResponseMessage.OK),
+                new AuthResponseMessage(1L, AuthResponseMessage.OK, AuthRequestMessage.COMPRESSION_DEFLATE),
+                new AuthResponseMessage(1L, AuthResponseMessage.OK, null, AuthRequestMessage.PROTOCOL_BINARY),
+                new AuthResponseMessage(1L, AuthResponseMessage.OK, null, AuthRequestMessage.PROTOCOL_JSON,
+                        AuthRequestMessage.PERCEPTS_DELTA),
+                new ActionMessage("move", 12, List.of("n")),
+                new ByeMessage(3L),
+                new StatusRequestMessage(),
+                new StatusResponseMessage(4L, new String[]{"A", "B"}, new Integer[]{15, 50}, 1),
+                new SimEndMessage(42, 1),
+                new InitialPercept("agentA1", "A", 15, 500, 5),
+                stepPercept);
+
+        var out = new JsonWriter(16);
+        for (var message : messages) {
+            message.writeJson(out.reset());
+            var streamed = new JSONObject(out.toString());
+            var expected = new JSONObject(message.toJson().toString());
+            assert streamed.similar(expected) : message.getMessageType() + ": " + streamed;
+        }
+    }
+
+    @org.junit.Test
+    public void readMessagesMatchBuiltMessages() {
+        var tasks = new StepTasks(Set.of(new TaskInfo("task0", 100, 40, Set.of(new Thing(0, 1, Thing.TYPE_BLOCK, "b0")))));
+        var messages = List.of(
+                new AuthRequestMessage("agentA1", "1"),
+                new AuthRequestMessage("agentA1", "1", AuthRequestMessage.COMPRESSION_DEFLATE),
+                new AuthRequestMessage("agentA1", "1", null, AuthRequestMessage.PROTOCOL_BINARY),
+                new AuthRequestMessage("agentA1", "1", null, AuthRequestMessage.PROTOCOL_JSON,
+                        AuthRequestMessage.PERCEPTS_DELTA),
+                new AuthResponseMessage(1L, AuthResponseMessage.FAIL),
+                new AuthResponseMessage(1L, AuthResponseMessage.OK, AuthRequestMessage.COMPRESSION_DEFLATE),
+                new AuthResponseMessage(1L, AuthResponseMessage.OK, null, AuthRequestMessage.PROTOCOL_BINARY),
+                new AuthResponseMessage(1L, AuthResponseMessage.OK, null, AuthRequestMessage.PROTOCOL_JSON,
+                        AuthRequestMessage.PERCEPTS_DELTA),
+                new ActionMessage("submit", 12, List.of("task0")),
+                new ByeMessage(3L),
+                new StatusRequestMessage(),
+                new StatusResponseMessage(4L, new String[]{"A", "B"}, new Integer[]{15, 50}, 1),
+                new SimEndMessage(42, 1),
+                new InitialPercept("agentA1", "A", 15, 500, 5),
+                new StepPercept(7, 10, Set.of(new Thing(0, 0, Thing.TYPE_ENTITY, "A")),
+                        Map.of("goal", Set.of(Position.of(1, 2), Position.of(-1, 0))), tasks, "attach", List.of("e"),
+                        "success", Set.of(Position.of(0, 1)), "task0"));
+
+        var out = new JsonWriter();
+        for (var message : messages) {
+            var expected = Message.buildFromJson(message.toJson()).toJson().toString();
+            // both the order of org.json and the streamed order (with the type first)
+            var text = message.toJson().toString();
+            var read = Message.readFrom(new JsonReader(text.getBytes(StandardCharsets.UTF_8)));
+            assert new JSONObject(read.toJson().toString()).similar(new JSONObject(expected)) : text;
+            message.writeJson(out.reset());
+            read = Message.readFrom(new JsonReader(out.buffer(), 0, out.size()));
+            assert new JSONObject(read.toJson().toString()).similar(new JSONObject(expected)) : out;
+        }
+
+        var action = (ActionMessage) Message.readFrom(new JsonReader(
+                "{ \"content\" : {\"p\":[\"n\"], \"x\":[{}, null], \"id\":\"5\", \"type\":\"move\"},\n\"type\":\"action\"}"
+                        .getBytes(StandardCharsets.UTF_8)));
+        assert action.getId() == 5 && action.getActionType().equals("move") && action.getParams().equals(List.of("n"));
+        assert Message.readFrom(new JsonReader("{\"type\":\"unknown\",\"content\":{}}".getBytes())) == null;
+    }
+
+    @org.junit.Test
+    public void stringsAreEscapedLikeOrgJson() {
+        var text = "</a> \"q\" \\ \t\n\u0001\u0085\u2028\u00a0\u00fc\u20ac \ud83d\ude00";
+        var out = new JsonWriter();
+        out.value(text);
+        assert out.toString().equals(JSONObject.quote(text)) : out.toString();
+        assert Arrays.equals(out.toByteArray(), JSONObject.quote(text).getBytes(StandardCharsets.UTF_8));
+
+        var in = new JsonReader(("[" + out + ", \"\\u00fc\\/\\'\"]").getBytes(StandardCharsets.UTF_8));
+        in.beginArray();
+        assert in.hasNext() && in.hasNext(); // only looks ahead
+        var escaped = in.nextString();
+        var unescaped = in.nextString();
+        assert !in.hasNext();
+        in.endArray();
+        assert escaped.equals(text);
+        assert unescaped.equals("\u00fc/'");
+    }
+
+    @org.junit.Test
+    public void deeplyNestedDocumentsAreRejected() {
+        var json = ("{\"type\":\"auth-request\",\"content\":" + "[".repeat(100000)).getBytes(StandardCharsets.UTF_8);
+        try {
+            Message.readFrom(new JsonReader(json));
+            assert false;
+        } catch (JSONException e) {
+            assert e.getMessage().startsWith("Nested too deeply") : e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package massim.protocol.messages.scenario;
+
+import massim.protocol.data.Position;
+import massim.protocol.data.TaskInfo;
+import massim.protocol.data.Thing;
+import massim.protocol.io.BinaryReader;
+import massim.protocol.io.BinaryWriter;
+import massim.protocol.io.JsonReader;
+import massim.protocol.io.JsonWriter;
+import massim.protocol.messages.Message;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+
+public class StepPerceptTest {
+
+    @org.junit.Test
+    public void sharedTasksSurviveEncoding() {
+        var tasks = new StepTasks(Set.of(
+                new TaskInfo("task0", 100, 40, Set.of(new Thing(0, 1, Thing.TYPE_BLOCK, "b0"))),
+                new TaskInfo("task1", 120, 90, Set.of(new Thing(0, 1, Thing.TYPE_BLOCK, "b1"),
+                        new Thing(1, 1, Thing.TYPE_BLOCK, "b0")))));
+        var percepts = new ArrayList<StepPercept>();
+        for (var i = 0; i < 3; i++) {
+            percepts.add(new StepPercept(7, 10 * i, Set.of(new Thing(i, 0, Thing.TYPE_ENTITY, "A")),
+                    Map.of("obstacle", Set.of(Position.of(1, i))), tasks, "move", List.of("n"), "success",
+                    Set.of(), "task" + i));
+        }
+
+        for (var i = 0; i < percepts.size(); i++) {
+            var text = percepts.get(i).toJson().toString();
+            var parsed = (StepPercept) Message.buildFromJson(new JSONObject(text));
+            assert parsed != null;
+            assert parsed.getStep() == 7;
+            assert parsed.score == 10 * i;
+            assert parsed.task.equals("task" + i);
+            assert parsed.taskInfo.size() == 2;
+            for (var task : parsed.taskInfo) {
+                var original = tasks.getTasks().stream().filter(t -> t.name.equals(task.name)).findAny().orElseThrow();
+                assert task.deadline == original.deadline;
+                assert task.reward == original.reward;
+                assert task.requirements.size() == original.requirements.size();
+            }
+        }
+        assert tasks.toJSON() == tasks.toJSON();
+
+        // percepts with tasks of their own are the same
+        var own = new StepPercept(7, 0, Set.of(new Thing(0, 0, Thing.TYPE_ENTITY, "A")),
+                Map.of("obstacle", Set.of(Position.of(1, 0))), tasks.getTasks(), "move", List.of("n"), "success",
+                Set.of(), "task0");
+        assert own.taskInfo.equals(tasks.getTasks());
+        var ownPercept = new JSONObject(own.toJson().getJSONObject("content").getJSONObject("percept").toString());
+        var sharedPercept = new JSONObject(percepts.get(0).toJson().getJSONObject("content")
+                .getJSONObject("percept").toString());
+        var ownTasks = (JSONArray) ownPercept.remove("tasks");
+        var sharedTasks = (JSONArray) sharedPercept.remove("tasks");
+        assert ownPercept.similar(sharedPercept);
+        assert ownTasks.length() == sharedTasks.length();
+        for (var task : ownTasks) assert sharedTasks.toList().contains(((JSONObject) task).toMap());
+    }
+
+    @org.junit.Test
+    public void deltaPerceptsCompleteThePreviousPercept() {
+        var block = new TaskInfo("task1", 120, 90, Set.of(new Thing(0, 1, Thing.TYPE_BLOCK, "b1")));
+        var previous = new StepPercept(7, 10, Set.of(new Thing(0, 0, Thing.TYPE_ENTITY, "A"),
+                new Thing(1, 0, Thing.TYPE_BLOCK, "b0")),
+                Map.of("obstacle", Set.of(Position.of(1, 1), Position.of(2, 2))),
+                new StepTasks(Set.of(new TaskInfo("task0", 100, 40, Set.of()), block)), "move", List.of("n"),
+                "success", Set.of(Position.of(1, 0)), "task0");
+        previous.updateIdAndDeadline(3, 1000);
+        var current = new StepPercept(8, 50, Set.of(new Thing(0, 0, Thing.TYPE_ENTITY, "A"),
+                new Thing(0, 1, Thing.TYPE_DISPENSER, "b1")),
+                Map.of("obstacle", Set.of(Position.of(2, 2), Position.of(3, 3)), "goal", Set.of(Position.of(0, 0))),
+                new StepTasks(Set.of(new TaskInfo("task1", 120, 80, Set.copyOf(block.requirements)),
+                        new TaskInfo("task2", 150, 10, Set.of()))), "submit", List.of("task0"), "success",
+                Set.of(), null);
+        current.updateIdAndDeadline(4, 2000);
+
+        var delta = (StepPercept) current.deltaTo(previous);
+        assert delta.isDelta() && delta.getDelta().base == 3;
+        assert delta.getDelta().hasChanged("score") && delta.getDelta().hasChanged("task");
+        assert !delta.getDelta().hasChanged("energy");
+        assert delta.getDelta().removedTasks.equals(Set.of("task0", "task1"));
+        assert delta.getDelta().addedThings.size() == 1 && delta.getDelta().removedThings.size() == 1;
+
+        var json = new JsonWriter();
+        delta.writeJson(json);
+        var binary = new BinaryWriter();
+        delta.writeJson(binary);
+        var received = List.of(
+                Message.buildFromJson(new JSONObject(delta.toJson().toString())),
+                Message.readFrom(new JsonReader(json.buffer(), 0, json.size())),
+                Message.readFrom(new BinaryReader(binary.buffer(), 0, binary.size())));
+        for (var message : received) {
+            var percept = (StepPercept) message;
+            assert percept.isDelta() && percept.getId() == 4;
+            percept.applyDelta((StepPercept) Message.buildFromJson(new JSONObject(previous.toJson().toString())));
+            assert describe(percept).equals(describe(current)) : describe(percept);
+        }
+
+        var unrelated = (StepPercept) received.get(0);
+        try {
+            unrelated.applyDelta(current);
+            assert false;
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    /**
+     * @return a comparable description of the percept's state (things and tasks do not implement equals)
+     */
+    private static List<Object> describe(StepPercept percept) {
+        var things = new TreeSet<String>();
+        percept.things.forEach(t -> things.add(t.toJSON().toString()));
+        var tasks = new TreeSet<String>();
+        percept.taskInfo.forEach(t -> tasks.add(t.name + "/" + t.deadline + "/" + t.reward));
+        return Arrays.asList(percept.getStep(), percept.score, things, tasks, percept.terrain, percept.lastAction,
+                percept.lastActionParams, percept.attachedThings, percept.energy, percept.disabled, percept.task);
+    }
+}